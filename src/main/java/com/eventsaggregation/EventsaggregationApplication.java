@@ -2,8 +2,10 @@ package com.eventsaggregation;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class EventsaggregationApplication {
     public static void main(String[] args) {
         SpringApplication.run(EventsaggregationApplication.class, args);
@@ -0,0 +1,68 @@
+package com.eventsaggregation.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration of the in-memory event store.
+ *
+ * @param segmentDuration            The time span covered by each segment of the store.
+ * @param distinctUsersRelativeError The relative standard error targeted by the approximate count of distinct users.
+ *                                   A smaller error costs more memory per segment.
+ * @param userRollups                true to count the events of each user in each segment, so that counts filtered
+ *                                   by user do not scan the segments fully covered by their period.
+ * @param stripes                    The number of stripes of users of each segment, a power of two: writers of users
+ *                                   of different stripes append to the same segment without contending.
+ * @param queryParallelism           The number of threads running the queries, 0 for one per core. With more than one
+ *                                   thread, the queries reading many rows scan their segments in parallel, and every
+ *                                   query runs off the request threads.
+ * @param parallelQueryRows          The minimum number of rows a query must read to scan its segments in parallel.
+ * @param retention                  How long events are kept, from the end of their segment to now, 0 to keep every
+ *                                   event. Expired segments are dropped whole.
+ * @param compactAfter               The age, from the end of a segment to now, after which it is compacted to save
+ *                                   memory. Late events written to a compacted segment make it hot again until
+ *                                   the next compaction.
+ * @param maintenanceInterval        The period of the background retention and compaction, 0 to disable both.
+ * @param storage                    Where the events of the compacted segments are kept: HEAP, OFF_HEAP in direct
+ *                                   buffers, or MAPPED in memory-mapped files, so that the data may exceed the heap
+ *                                   or the RAM. Only compacted segments leave the heap, so the segments younger
+ *                                   than compactAfter stay on it, with the dictionaries and indexes: a shorter
+ *                                   compactAfter moves more events off the heap, at the cost of compacting
+ *                                   segments still receiving late events.
+ *                                   Direct buffers are limited by {@code -XX:MaxDirectMemorySize}, the maximum heap
+ *                                   size by default, so OFF_HEAP exceeds the heap only with a larger limit.
+ * @param storagePath                The directory of the mapped files, in the temporary directory by default.
+ */
+@ConfigurationProperties("eventsaggregation.store")
+public record EventStoreProperties(@DefaultValue("1h") Duration segmentDuration,
+                                   @DefaultValue("0.02") double distinctUsersRelativeError,
+                                   @DefaultValue("false") boolean userRollups,
+                                   @DefaultValue("8") int stripes,
+                                   @DefaultValue("0") int queryParallelism,
+                                   @DefaultValue("1000000") long parallelQueryRows,
+                                   @DefaultValue("0") Duration retention,
+                                   @DefaultValue("1h") Duration compactAfter,
+                                   @DefaultValue("1m") Duration maintenanceInterval,
+                                   @DefaultValue("heap") Storage storage,
+                                   Path storagePath) {
+
+    public EventStoreProperties {
+        if (storagePath == null) {
+            storagePath = Path.of(System.getProperty("java.io.tmpdir"), "eventsaggregation-segments");
+        }
+    }
+
+    /**
+     * @return The number of threads running the queries.
+     */
+    public int effectiveQueryParallelism() {
+        return queryParallelism > 0 ? queryParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public enum Storage {
+        HEAP, OFF_HEAP, MAPPED
+    }
+}
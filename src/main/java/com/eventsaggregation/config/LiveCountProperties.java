@@ -0,0 +1,17 @@
+package com.eventsaggregation.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration of the live counters pushed to the subscribers of {@code /live/count}.
+ *
+ * @param interval  The period of the updates pushed to the subscribers, when their counts changed, 0 to push none.
+ * @param maxWindow The longest sliding window of a subscription.
+ */
+@ConfigurationProperties("eventsaggregation.live")
+public record LiveCountProperties(@DefaultValue("1s") Duration interval,
+                                  @DefaultValue("1d") Duration maxWindow) {
+}
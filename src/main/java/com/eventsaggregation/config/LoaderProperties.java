@@ -0,0 +1,21 @@
+package com.eventsaggregation.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Configuration of the loading of the data files at startup.
+ *
+ * @param chunkSize           The size of the chunks of a file parsed in parallel.
+ * @param queriesWhileLoading How queries are answered until every file is loaded: FLAG answers them with an
+ *                            {@code X-Data-Incomplete: true} header, REJECT answers 503 Service Unavailable.
+ */
+@ConfigurationProperties("eventsaggregation.loader")
+public record LoaderProperties(@DefaultValue("64MB") DataSize chunkSize,
+                               @DefaultValue("flag") QueriesWhileLoading queriesWhileLoading) {
+
+    public enum QueriesWhileLoading {
+        FLAG, REJECT
+    }
+}
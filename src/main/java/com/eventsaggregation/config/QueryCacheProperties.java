@@ -0,0 +1,19 @@
+package com.eventsaggregation.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration of the cache of the results of the aggregation queries.
+ *
+ * @param enabled     true to cache the results of the counts.
+ * @param maximumSize The maximum number of results cached, the least recently used being evicted first.
+ * @param ttl         The time a result stays cached after being computed, whatever the insertions.
+ */
+@ConfigurationProperties("eventsaggregation.query-cache")
+public record QueryCacheProperties(@DefaultValue("true") boolean enabled,
+                                   @DefaultValue("10000") long maximumSize,
+                                   @DefaultValue("5m") Duration ttl) {
+}
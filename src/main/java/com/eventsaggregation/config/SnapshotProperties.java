@@ -0,0 +1,22 @@
+package com.eventsaggregation.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration of the binary snapshot of the store, restored at startup instead of loading the data files.
+ *
+ * @param enabled true to restore the snapshot at startup and to write it after loading the data files.
+ * @param path    The file of the snapshot, in the temporary directory by default.
+ */
+@ConfigurationProperties("eventsaggregation.snapshot")
+public record SnapshotProperties(@DefaultValue("true") boolean enabled, Path path) {
+
+    public SnapshotProperties {
+        if (path == null) {
+            path = Path.of(System.getProperty("java.io.tmpdir"), "eventsaggregation.snapshot");
+        }
+    }
+}
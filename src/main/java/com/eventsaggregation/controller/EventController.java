@@ -1,26 +1,65 @@
 package com.eventsaggregation.controller;
 
+import com.eventsaggregation.config.LiveCountProperties;
+import com.eventsaggregation.dto.AggregationBucketDto;
+import com.eventsaggregation.dto.BatchQueryDto;
 import com.eventsaggregation.dto.CountDistinctUsersDto;
 import com.eventsaggregation.dto.CountEventsDto;
 import com.eventsaggregation.dto.EventExistsDto;
+import com.eventsaggregation.dto.LiveCountDto;
+import com.eventsaggregation.model.BatchQuery;
 import com.eventsaggregation.service.EventService;
+import com.eventsaggregation.service.ExportService;
+import com.eventsaggregation.service.LiveCounters;
+import com.eventsaggregation.service.Timestamps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.time.LocalDateTime;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 
 @RestController
 public class EventController {
     private static final Logger logger = LoggerFactory.getLogger(EventController.class);
+    private static final String PRECISION_EXACT = "exact";
+    private static final String PRECISION_APPROX = "approx";
+    static final String BATCH_PATH = "/batch";
+    static final int MAX_BATCH_QUERIES = 1000;
+    private static final Map<String, Duration> INTERVALS = Map.of(
+            "minute", Duration.ofMinutes(1),
+            "hour", Duration.ofHours(1),
+            "day", Duration.ofDays(1));
+    private static final String GROUP_BY_EVENT = "event";
     private final EventService eventService;
+    private final ExportService exportService;
+    private final LiveCounters liveCounters;
+    private final LiveCountProperties liveCountProperties;
 
-    public EventController(EventService eventService) {
+    public EventController(EventService eventService, ExportService exportService, LiveCounters liveCounters,
+                           LiveCountProperties liveCountProperties) {
         this.eventService = eventService;
+        this.exportService = exportService;
+        this.liveCounters = liveCounters;
+        this.liveCountProperties = liveCountProperties;
     }
 
     /**
@@ -37,9 +76,9 @@ public class EventController {
                                             @RequestParam String date_to,
                                             @RequestParam(required = false) String event,
                                             @RequestParam(required = false) String user_id) {
-        logger.info("Count total events query with params, date_from: {} date_to: {} event: {} user_id: {}", date_from, date_to, event, user_id);
-        LocalDateTime from = LocalDateTime.parse(date_from);
-        LocalDateTime to = LocalDateTime.parse(date_to);
+        logger.debug("Count total events query with params, date_from: {} date_to: {} event: {} user_id: {}", date_from, date_to, event, user_id);
+        long from = Timestamps.parseLowerBound(date_from);
+        long to = Timestamps.parseEpochSecond(date_to);
         return eventService.countEvents(from, to, event, user_id);
     }
 
@@ -48,17 +87,171 @@ public class EventController {
      *
      * @param date_from The start date and time of the period to search for events.
      * @param date_to   The end date and time of the period to search for events.
-     * @param event     (Optional) The event type to filter by.
+     * @param event     (Optional) The event type to filter by. When several are given, only the users who performed
+     *                  all of them are counted, exactly.
+     * @param precision (Optional) "exact" (default) to count users exactly, "approx" to estimate the count
+     *                  from HyperLogLog sketches, with its relative error.
      * @return A Mono emitting the count of distinct users who match the criteria.
      */
     @GetMapping("/count_distinct_users")
     public Mono<CountDistinctUsersDto> countDistinctUsers(@RequestParam String date_from,
                                                           @RequestParam String date_to,
-                                                          @RequestParam(required = false) String event) {
-        logger.info("Count distinct events query with params, date_from: {} date_to: {} event: {}", date_from, date_to, event);
-        LocalDateTime from = LocalDateTime.parse(date_from);
-        LocalDateTime to = LocalDateTime.parse(date_to);
-        return eventService.countDistinctUsers(from, to, event);
+                                                          @RequestParam(required = false) List<String> event,
+                                                          @RequestParam(defaultValue = PRECISION_EXACT) String precision) {
+        logger.debug("Count distinct events query with params, date_from: {} date_to: {} event: {} precision: {}", date_from, date_to, event, precision);
+        long from = Timestamps.parseLowerBound(date_from);
+        long to = Timestamps.parseEpochSecond(date_to);
+        if (event != null && event.size() > 1) {
+            if (!PRECISION_EXACT.equals(precision)) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Users having several events are only counted exactly"));
+            }
+            return eventService.countUsersWithAllEvents(from, to, event);
+        }
+        String singleEvent = event == null || event.isEmpty() ? null : event.get(0);
+        return switch (precision) {
+            case PRECISION_EXACT -> eventService.countDistinctUsers(from, to, singleEvent);
+            case PRECISION_APPROX -> eventService.estimateDistinctUsers(from, to, singleEvent);
+            default -> Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown precision: " + precision));
+        };
+    }
+
+    /**
+     * Endpoint to aggregate events per time bucket, and optionally per event type, for charts.
+     * Buckets are streamed as they are computed, as a JSON array or as newline-delimited JSON.
+     *
+     * @param date_from      The start date and time of the period to aggregate.
+     * @param date_to        The end date and time of the period to aggregate.
+     * @param interval       The duration of a bucket: "minute", "hour" (default) or "day". Buckets are aligned
+     *                       in UTC, so the first and last ones may be cut by the period.
+     * @param event          (Optional) The event type to aggregate.
+     * @param group_by       (Optional) "event" to aggregate each event type separately.
+     * @param distinct_users (Optional) true to also count the distinct users of each bucket.
+     * @return A Flux emitting the buckets holding events, in time order.
+     */
+    @GetMapping(value = "/aggregate", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<AggregationBucketDto> aggregate(@RequestParam String date_from,
+                                                @RequestParam String date_to,
+                                                @RequestParam(defaultValue = "hour") String interval,
+                                                @RequestParam(required = false) String event,
+                                                @RequestParam(required = false) String group_by,
+                                                @RequestParam(defaultValue = "false") boolean distinct_users) {
+        logger.debug("Aggregate query with params, date_from: {} date_to: {} interval: {} event: {} group_by: {} distinct_users: {}",
+                date_from, date_to, interval, event, group_by, distinct_users);
+        Duration bucket = INTERVALS.get(interval);
+        if (bucket == null) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown interval: " + interval));
+        }
+        if (group_by != null && !group_by.equals(GROUP_BY_EVENT)) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown group_by: " + group_by));
+        }
+        long from = Timestamps.parseLowerBound(date_from);
+        long to = Timestamps.parseEpochSecond(date_to);
+        return eventService.aggregate(from, to, bucket, event, group_by != null, distinct_users);
+    }
+
+    /**
+     * Endpoint to export the events matching the provided parameters, in time order, as the TSV lines ingested by
+     * {@code POST /events}, or as JSON objects one per line when NDJSON is accepted. The lines are streamed as the
+     * client reads them, so any number of events is exported in constant memory.
+     *
+     * @param date_from The start date and time of the period to export.
+     * @param date_to   The end date and time of the period to export.
+     * @param event     (Optional) The event type to export.
+     * @param user_id   (Optional) The user ID to export.
+     * @return The response streaming the lines.
+     */
+    @GetMapping(value = IngestionController.EVENTS_PATH,
+            produces = {IngestionController.TSV_MEDIA_TYPE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> exportEvents(@RequestParam String date_from,
+                                                         @RequestParam String date_to,
+                                                         @RequestParam(required = false) String event,
+                                                         @RequestParam(required = false) String user_id,
+                                                         ServerHttpRequest request,
+                                                         ServerHttpResponse response) {
+        logger.debug("Export events query with params, date_from: {} date_to: {} event: {} user_id: {}", date_from, date_to, event, user_id);
+        long from = Timestamps.parseLowerBound(date_from);
+        long to = Timestamps.parseEpochSecond(date_to);
+        boolean ndjson = request.getHeaders().getAccept().stream()
+                .anyMatch(MediaType.APPLICATION_NDJSON::equalsTypeAndSubtype);
+        ExportService.Format format = ndjson ? ExportService.Format.NDJSON : ExportService.Format.TSV;
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.parseMediaType(IngestionController.TSV_MEDIA_TYPE))
+                .body(exportService.export(from, to, event, user_id, format, response.bufferFactory()));
+    }
+
+    /**
+     * Endpoint to follow the number of events of a sliding window ending now, as server-sent events.
+     * The subscribers of a same window share a counter updated as events are saved, instead of scanning the store
+     * for each update.
+     *
+     * @param event   (Optional) The event type to count.
+     * @param user_id (Optional) The user ID to count.
+     * @param window  The length of the window, such as "1m" (default) or "PT1H", at most the configured maximum.
+     * @return A Flux emitting the counts of the window, first when they are computed, then whenever they change,
+     * until the client disconnects.
+     */
+    @GetMapping(value = "/live/count", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<LiveCountDto> liveCount(@RequestParam(required = false) String event,
+                                        @RequestParam(required = false) String user_id,
+                                        @RequestParam(defaultValue = "1m") String window) {
+        logger.debug("Live count query with params, event: {} user_id: {} window: {}", event, user_id, window);
+        Duration length;
+        try {
+            length = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid window: " + window));
+        }
+        if (length.compareTo(Duration.ofSeconds(1)) < 0 || length.compareTo(liveCountProperties.maxWindow()) > 0) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The window must be between 1s and " + liveCountProperties.maxWindow()));
+        }
+        return liveCounters.subscribe(event, user_id, length);
+    }
+
+    /**
+     * Endpoint to answer a batch of queries at once, the counts being evaluated in a single pass over the store
+     * instead of one pass per request.
+     *
+     * @param queries The queries, each one named after the endpoint answering it, at most {@value #MAX_BATCH_QUERIES}.
+     * @return A Mono emitting the result of each query, in order, as its endpoint would return it.
+     */
+    @PostMapping(BATCH_PATH)
+    public Mono<List<Object>> batch(@RequestBody List<BatchQueryDto> queries) {
+        logger.debug("Batch of {} queries", queries.size());
+        if (queries.size() > MAX_BATCH_QUERIES) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A batch holds at most " + MAX_BATCH_QUERIES + " queries"));
+        }
+        List<BatchQuery> batch = new ArrayList<>(queries.size());
+        for (BatchQueryDto query : queries) {
+            batch.add(toBatchQuery(query));
+        }
+        return eventService.evaluate(batch);
+    }
+
+    private static BatchQuery toBatchQuery(BatchQueryDto query) {
+        BatchQuery.Kind kind = switch (String.valueOf(query.query())) {
+            case "count" -> BatchQuery.Kind.COUNT;
+            case "count_distinct_users" -> BatchQuery.Kind.COUNT_DISTINCT_USERS;
+            case "exists" -> BatchQuery.Kind.EXISTS;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown query: " + query.query());
+        };
+        if (kind == BatchQuery.Kind.EXISTS) {
+            if (query.event() == null || query.user_id() == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "exists requires event and user_id");
+            }
+            return new BatchQuery(kind, 0, 0, query.event(), query.user_id());
+        }
+        if (query.date_from() == null || query.date_to() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, query.query() + " requires date_from and date_to");
+        }
+        try {
+            return new BatchQuery(kind, Timestamps.parseLowerBound(query.date_from()),
+                    Timestamps.parseEpochSecond(query.date_to()), query.event(), query.user_id());
+        } catch (DateTimeParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid date: " + e.getParsedString());
+        }
     }
 
     /**
@@ -71,7 +264,7 @@ public class EventController {
     @GetMapping("/exists")
     public Mono<EventExistsDto> eventExists(@RequestParam String event,
                                             @RequestParam String user_id) {
-        logger.info("Check if event exists query with params, event: {} user_id: {}", event, user_id);
+        logger.debug("Check if event exists query with params, event: {} user_id: {}", event, user_id);
         return eventService.eventExists(user_id, event);
     }
 }
@@ -0,0 +1,97 @@
+package com.eventsaggregation.controller;
+
+import com.eventsaggregation.dto.IngestionReportDto;
+import com.eventsaggregation.dto.LoadStatusDto;
+import com.eventsaggregation.dto.SnapshotDto;
+import com.eventsaggregation.service.EventLoaderService;
+import com.eventsaggregation.service.IngestionService;
+import com.eventsaggregation.service.LoadProgress;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@RestController
+public class IngestionController {
+    static final String READY_PATH = "/ready";
+    static final String SNAPSHOT_PATH = "/snapshot";
+    static final String EVENTS_PATH = "/events";
+    static final String TSV_MEDIA_TYPE = "text/tab-separated-values";
+
+    private final LoadProgress loadProgress;
+    private final EventLoaderService eventLoaderService;
+    private final IngestionService ingestionService;
+
+    public IngestionController(LoadProgress loadProgress, EventLoaderService eventLoaderService,
+                               IngestionService ingestionService) {
+        this.loadProgress = loadProgress;
+        this.eventLoaderService = eventLoaderService;
+        this.ingestionService = ingestionService;
+    }
+
+    /**
+     * Endpoint to ingest a stream of TSV lines (user_id, timestamp, event), parsed as they are received.
+     *
+     * @param body The request body.
+     * @return A Mono emitting the numbers of accepted, duplicate and malformed events, or a 503 error while the
+     * snapshot is restored.
+     */
+    @PostMapping(path = EVENTS_PATH, consumes = {TSV_MEDIA_TYPE, MediaType.TEXT_PLAIN_VALUE})
+    public Mono<IngestionReportDto> ingestTsv(@RequestBody Flux<DataBuffer> body) {
+        return ingest(body, IngestionService.Format.TSV);
+    }
+
+    /**
+     * Endpoint to ingest a stream of JSON objects {@code {"user_id": ..., "timestamp": ..., "event": ...}},
+     * one per line, parsed as they are received.
+     *
+     * @param body The request body.
+     * @return A Mono emitting the numbers of accepted, duplicate and malformed events, or a 503 error while the
+     * snapshot is restored.
+     */
+    @PostMapping(path = EVENTS_PATH, consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<IngestionReportDto> ingestNdjson(@RequestBody Flux<DataBuffer> body) {
+        return ingest(body, IngestionService.Format.NDJSON);
+    }
+
+    private Mono<IngestionReportDto> ingest(Flux<DataBuffer> body, IngestionService.Format format) {
+        // A failed restore clears the store, with the events it would have ingested.
+        if (loadProgress.isRestoring()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The snapshot is being restored"));
+        }
+        return ingestionService.ingest(body, format)
+                .onErrorMap(IllegalArgumentException.class,
+                        e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e));
+    }
+
+    /**
+     * Readiness endpoint, for load balancers to only route queries once the data files are loaded.
+     *
+     * @return A Mono emitting the progress of the load, with a 200 status once loaded, 503 before or if it failed.
+     */
+    @GetMapping(READY_PATH)
+    public Mono<ResponseEntity<LoadStatusDto>> ready() {
+        HttpStatus status = loadProgress.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return Mono.just(ResponseEntity.status(status).body(loadProgress.status()));
+    }
+
+    /**
+     * Writes a binary snapshot of the store, restored at the next start instead of loading the data files.
+     *
+     * @return A Mono emitting the description of the snapshot, or a 503 error while the data files are loading.
+     */
+    @PostMapping(SNAPSHOT_PATH)
+    public Mono<SnapshotDto> snapshot() {
+        if (!loadProgress.isReady()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The data files are not loaded"));
+        }
+        return eventLoaderService.writeSnapshot();
+    }
+}
@@ -0,0 +1,53 @@
+package com.eventsaggregation.controller;
+
+import com.eventsaggregation.config.LoaderProperties;
+import com.eventsaggregation.service.LoadProgress;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Marks or rejects the queries received while the data files are still loading, as their answers would only
+ * cover part of the data.
+ */
+@Component
+public class LoadingQueryFilter implements WebFilter {
+    public static final String INCOMPLETE_HEADER = "X-Data-Incomplete";
+
+    private final LoadProgress loadProgress;
+    private final LoaderProperties.QueriesWhileLoading queriesWhileLoading;
+
+    public LoadingQueryFilter(LoadProgress loadProgress, LoaderProperties properties) {
+        this.loadProgress = loadProgress;
+        this.queriesWhileLoading = properties.queriesWhileLoading();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (loadProgress.isReady() || !isQuery(exchange)) {
+            return chain.filter(exchange);
+        }
+        if (queriesWhileLoading == LoaderProperties.QueriesWhileLoading.REJECT) {
+            exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            return exchange.getResponse().setComplete();
+        }
+        exchange.getResponse().getHeaders().set(INCOMPLETE_HEADER, "true");
+        return chain.filter(exchange);
+    }
+
+    // Reads, and batches of queries, which are posted.
+    private static boolean isQuery(ServerWebExchange exchange) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        HttpMethod method = exchange.getRequest().getMethod();
+        if (method == HttpMethod.POST) {
+            return path.equals(EventController.BATCH_PATH);
+        }
+        return method == HttpMethod.GET
+                && !path.equals(IngestionController.READY_PATH)
+                && !path.startsWith("/actuator");
+    }
+}
@@ -0,0 +1,17 @@
+package com.eventsaggregation.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+
+/**
+ * @param bucket         The start of the time bucket.
+ * @param event          The event type, absent when not grouped by event type.
+ * @param count          The number of events.
+ * @param distinct_users The number of distinct users, absent when not requested.
+ */
+public record AggregationBucketDto(LocalDateTime bucket,
+                                   @JsonInclude(JsonInclude.Include.NON_NULL) String event,
+                                   long count,
+                                   @JsonInclude(JsonInclude.Include.NON_NULL) Long distinct_users) {
+}
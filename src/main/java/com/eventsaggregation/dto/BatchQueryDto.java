@@ -0,0 +1,13 @@
+package com.eventsaggregation.dto;
+
+/**
+ * A query of a batch, taking the parameters of the endpoint it is named after.
+ *
+ * @param query     The endpoint answering the query: "count", "count_distinct_users" or "exists".
+ * @param date_from The start date and time of the period, required but for "exists".
+ * @param date_to   The end date and time of the period, required but for "exists".
+ * @param event     The event type, optional but for "exists".
+ * @param user_id   The user ID, optional for "count", required for "exists".
+ */
+public record BatchQueryDto(String query, String date_from, String date_to, String event, String user_id) {
+}
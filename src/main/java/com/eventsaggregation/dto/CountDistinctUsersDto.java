@@ -1,4 +1,15 @@
 package com.eventsaggregation.dto;
 
-public record CountDistinctUsersDto(Long count_distinct_users) {
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * @param count_distinct_users The number of distinct users.
+ * @param relative_error       The relative standard error of the count when it is approximate, absent when it is exact.
+ */
+public record CountDistinctUsersDto(Long count_distinct_users,
+                                    @JsonInclude(JsonInclude.Include.NON_NULL) Double relative_error) {
+
+    public CountDistinctUsersDto(Long count_distinct_users) {
+        this(count_distinct_users, null);
+    }
 }
@@ -0,0 +1,11 @@
+package com.eventsaggregation.dto;
+
+/**
+ * Outcome of the ingestion of a stream of events.
+ *
+ * @param accepted   The number of new events stored.
+ * @param duplicates The number of events ignored because an identical event was already stored.
+ * @param malformed  The number of malformed lines skipped.
+ */
+public record IngestionReportDto(long accepted, long duplicates, long malformed) {
+}
@@ -0,0 +1,17 @@
+package com.eventsaggregation.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * @param window_start   The start of the sliding window, inclusive.
+ * @param window_end     The end of the sliding window, inclusive.
+ * @param count          The number of events of the window.
+ * @param distinct_users The estimated number of distinct users of the window.
+ * @param relative_error The relative standard error of the number of distinct users.
+ */
+public record LiveCountDto(LocalDateTime window_start,
+                           LocalDateTime window_end,
+                           long count,
+                           long distinct_users,
+                           double relative_error) {
+}
@@ -0,0 +1,24 @@
+package com.eventsaggregation.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Progress of the loading of the data files.
+ *
+ * @param status          PENDING, RESTORING, LOADING, READY or FAILED.
+ * @param files_done      The number of files fully loaded.
+ * @param files_total     The number of files to load.
+ * @param rows_loaded     The number of rows loaded so far.
+ * @param rows_per_second The loading throughput, in rows per second.
+ * @param eta_seconds     The estimated time before the end of the load, in seconds, while loading.
+ * @param error           The error which stopped the load, when it failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record LoadStatusDto(String status,
+                            int files_done,
+                            int files_total,
+                            long rows_loaded,
+                            double rows_per_second,
+                            Long eta_seconds,
+                            String error) {
+}
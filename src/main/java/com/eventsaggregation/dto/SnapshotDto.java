@@ -0,0 +1,12 @@
+package com.eventsaggregation.dto;
+
+/**
+ * Snapshot of the store written on disk.
+ *
+ * @param path       The file of the snapshot.
+ * @param events     The number of events written.
+ * @param bytes      The size of the file.
+ * @param elapsed_ms The time taken to write it, in milliseconds.
+ */
+public record SnapshotDto(String path, long events, long bytes, long elapsed_ms) {
+}
@@ -0,0 +1,14 @@
+package com.eventsaggregation.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Aggregates of the events of a time bucket, and of an event type when grouped by event type.
+ *
+ * @param start         The start of the bucket.
+ * @param event         The event type, or null when not grouped by event type.
+ * @param count         The number of events.
+ * @param distinctUsers The number of distinct users, or null when not counted.
+ */
+public record AggregationBucket(LocalDateTime start, String event, long count, Long distinctUsers) {
+}
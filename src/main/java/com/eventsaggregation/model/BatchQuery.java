@@ -0,0 +1,19 @@
+package com.eventsaggregation.model;
+
+/**
+ * A query of a batch answered at once.
+ *
+ * @param kind   The kind of query.
+ * @param from   The start of the period, in epoch seconds, inclusive, ignored by {@link Kind#EXISTS}.
+ * @param to     The end of the period, in epoch seconds, inclusive, ignored by {@link Kind#EXISTS}.
+ * @param event  The event type, optional but for {@link Kind#EXISTS}.
+ * @param userId The ID of the user, optional for {@link Kind#COUNT}, ignored by {@link Kind#COUNT_DISTINCT_USERS}.
+ */
+public record BatchQuery(Kind kind, long from, long to, String event, String userId) {
+
+    public enum Kind {
+        COUNT,
+        COUNT_DISTINCT_USERS,
+        EXISTS
+    }
+}
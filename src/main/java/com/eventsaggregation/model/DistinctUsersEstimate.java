@@ -0,0 +1,10 @@
+package com.eventsaggregation.model;
+
+/**
+ * Approximate number of distinct users.
+ *
+ * @param estimate      The estimated number of distinct users.
+ * @param relativeError The relative standard error of the estimate.
+ */
+public record DistinctUsersEstimate(long estimate, double relativeError) {
+}
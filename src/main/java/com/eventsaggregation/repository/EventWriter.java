@@ -0,0 +1,27 @@
+package com.eventsaggregation.repository;
+
+/**
+ * Writer of the events exported by a {@link ReactiveEventRepository} into chunks, for instance buffers of bytes.
+ * It is owned by a single export, and called by one thread at a time.
+ *
+ * @param <C> The type of the chunks.
+ */
+public interface EventWriter<C> {
+
+    /**
+     * @return A new empty chunk.
+     */
+    C newChunk();
+
+    /**
+     * Appends an event to a chunk.
+     *
+     * @param chunk       The chunk.
+     * @param user        The dictionary id of the user of the event.
+     * @param userId      The ID of the user of the event.
+     * @param epochSecond The timestamp of the event, in epoch seconds.
+     * @param event       The event type.
+     * @return true if the chunk can take more events, false if it is full and must be emitted.
+     */
+    boolean write(C chunk, int user, String userId, long epochSecond, String event);
+}
@@ -0,0 +1,20 @@
+package com.eventsaggregation.repository;
+
+/**
+ * Listener of the insertions of new events in a {@link ReactiveEventRepository}.
+ * It is called on the inserting thread, once the events are visible to queries, so it must be fast.
+ */
+@FunctionalInterface
+public interface InsertListener {
+
+    /**
+     * @param events The events inserted, at least one.
+     */
+    void inserted(InsertedEvents events);
+
+    /**
+     * Called after the events of the repository were deleted or replaced at once, without being notified.
+     */
+    default void reset() {
+    }
+}
@@ -0,0 +1,34 @@
+package com.eventsaggregation.repository;
+
+/**
+ * New events inserted at once in a {@link ReactiveEventRepository}, duplicates excluded.
+ * Valid only during the call of the {@link InsertListener} receiving them.
+ */
+public interface InsertedEvents {
+
+    int size();
+
+    String userId(int index);
+
+    /**
+     * @return The dictionary id of the user of an event, the same for every event of the user.
+     */
+    int user(int index);
+
+    /**
+     * @return The timestamp of an event, in epoch seconds.
+     */
+    long epochSecond(int index);
+
+    String event(int index);
+
+    /**
+     * @return The earliest timestamp of the events, in epoch seconds.
+     */
+    long minEpochSecond();
+
+    /**
+     * @return The latest timestamp of the events, in epoch seconds.
+     */
+    long maxEpochSecond();
+}
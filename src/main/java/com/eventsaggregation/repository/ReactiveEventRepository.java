@@ -1,25 +1,165 @@
 package com.eventsaggregation.repository;
 
+import com.eventsaggregation.config.EventStoreProperties;
+import com.eventsaggregation.model.AggregationBucket;
+import com.eventsaggregation.model.BatchQuery;
+import com.eventsaggregation.model.DistinctUsersEstimate;
 import com.eventsaggregation.model.Event;
+import com.eventsaggregation.repository.store.ColumnStorage;
+import com.eventsaggregation.repository.store.ColumnarEventStore;
+import com.eventsaggregation.repository.store.EventBatch;
+import com.eventsaggregation.repository.store.EventStoreSnapshot;
+import com.eventsaggregation.repository.store.EventTypeDictionary;
+import com.eventsaggregation.repository.store.Histogram;
+import com.eventsaggregation.repository.store.HyperLogLog;
+import com.eventsaggregation.repository.store.RowCursor;
+import com.eventsaggregation.repository.store.ScanStats;
+import com.eventsaggregation.repository.store.StoreQuery;
+import com.eventsaggregation.repository.store.UserDictionary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
 
 @Component
 public class ReactiveEventRepository {
     private static final Logger logger = LoggerFactory.getLogger(ReactiveEventRepository.class);
+    // Maximum number of counters of a window of aggregated buckets.
+    static final int MAX_WINDOW_COUNTERS = 1 << 15;
 
-    // In-memory store for events, indexed by userId, timestamp, and event type.
-    private final ConcurrentMap<String, ConcurrentMap<LocalDateTime, ConcurrentMap<String, Event>>> store = new ConcurrentHashMap<>();
+    // Columnar in-memory store for events, user ids and event types are dictionary-encoded.
+    private final ColumnarEventStore store;
+    private final RepositoryMetrics metrics;
+    // Pool running the queries and their parallel scans, null when queries run sequentially on the calling thread.
+    private final ForkJoinPool queryPool;
+    private final Scheduler queryScheduler;
+    private final List<InsertListener> insertListeners = new CopyOnWriteArrayList<>();
+    // Held shared from the insertion of events to the notification of the listeners, exclusively by the exports
+    // capturing their view of the store together with an action, see exportEvents.
+    private final StampedLock notificationLock = new StampedLock();
+    // Zero when events are kept forever.
+    private final Duration retention;
+    private final Duration compactAfter;
+    private final Duration maintenanceInterval;
+    // Thread running the retention and the compaction, null when disabled.
+    private final Scheduler maintenanceScheduler;
+
+    public ReactiveEventRepository() {
+        this.store = new ColumnarEventStore();
+        this.metrics = new RepositoryMetrics(new SimpleMeterRegistry(), store);
+        this.queryPool = null;
+        this.queryScheduler = Schedulers.immediate();
+        this.retention = Duration.ZERO;
+        this.compactAfter = Duration.ZERO;
+        this.maintenanceInterval = Duration.ZERO;
+        this.maintenanceScheduler = null;
+    }
+
+    @Autowired
+    public ReactiveEventRepository(EventStoreProperties properties, MeterRegistry meterRegistry) {
+        int parallelism = properties.effectiveQueryParallelism();
+        this.queryPool = parallelism > 1 ? new ForkJoinPool(parallelism, ReactiveEventRepository::newQueryThread, null, false) : null;
+        this.queryScheduler = queryPool != null ? Schedulers.fromExecutorService(queryPool, "event-query") : Schedulers.immediate();
+        this.store = new ColumnarEventStore(properties.segmentDuration(),
+                HyperLogLog.precisionFor(properties.distinctUsersRelativeError()), properties.userRollups(),
+                queryPool, properties.parallelQueryRows(), columnStorage(properties), properties.stripes());
+        this.metrics = new RepositoryMetrics(meterRegistry, store);
+        this.retention = properties.retention();
+        this.compactAfter = properties.compactAfter();
+        this.maintenanceInterval = properties.maintenanceInterval();
+        this.maintenanceScheduler = maintenanceInterval.isPositive()
+                ? Schedulers.newSingle("event-store-maintenance", true) : null;
+    }
+
+    /**
+     * Starts the periodic maintenance of the store, once constructed, see {@link #maintain()}.
+     */
+    @PostConstruct
+    public void start() {
+        if (maintenanceScheduler != null) {
+            maintenanceScheduler.schedulePeriodically(this::maintain, maintenanceInterval.toMillis(),
+                    maintenanceInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the threads running the queries and the maintenance.
+     */
+    @PreDestroy
+    public void close() {
+        if (queryPool != null) {
+            queryPool.shutdown();
+        }
+        if (maintenanceScheduler != null) {
+            maintenanceScheduler.dispose();
+        }
+    }
+
+    /**
+     * Drops the time segments older than the retention, merges the tails of the segments no longer written, then
+     * compacts the segments older than the compaction age, see {@link EventStoreProperties}. Called periodically in
+     * the background, from {@link #start()}, writes and queries going on meanwhile.
+     */
+    public void maintain() {
+        try {
+            long now = System.currentTimeMillis() / 1000;
+            if (retention.isPositive()) {
+                long dropped = store.dropSegmentsBefore(now - retention.toSeconds());
+                if (dropped > 0) {
+                    metrics.droppedEvents.increment(dropped);
+                    // Cached results may count the dropped events.
+                    insertListeners.forEach(InsertListener::reset);
+                    logger.info("Dropped {} events older than {}", dropped, retention);
+                }
+            }
+            store.mergeTails();
+            int compacted = store.compactSegmentsBefore(now - compactAfter.toSeconds());
+            metrics.compactedSegments.increment(compacted);
+            if (compacted > 0) {
+                logger.debug("Compacted {} segments", compacted);
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of a periodic task, the error would cancel the next runs.
+            logger.error("Maintenance of the store failed", e);
+        }
+    }
+
+    /**
+     * Registers a listener called after each insertion of new events.
+     *
+     * @param listener The listener.
+     */
+    public void addInsertListener(InsertListener listener) {
+        insertListeners.add(listener);
+    }
 
     /**
      * Saves an event to the in-memory store.
+     * Timestamps are stored with a precision of one second. Events of a new type are skipped once
+     * {@link EventTypeDictionary#MAX_EVENT_TYPES} types are stored, like in {@link #saveAll(EventBatch)}.
      *
      * @param event The event to be saved.
      * @return A Mono signaling the completion of the save operation.
@@ -27,17 +167,64 @@ public class ReactiveEventRepository {
     public Mono<Void> save(Event event) {
         logger.debug("Inserting Event: {} in the store", event);
         return Mono.fromRunnable(() -> {
-            store.computeIfAbsent(event.userId(), k -> new ConcurrentHashMap<>())
-                    .computeIfAbsent(event.timestamp(), k -> new ConcurrentHashMap<>())
-                    .put(event.event(), event);
+            long start = System.nanoTime();
+            long epochSecond = toEpochSecond(event.timestamp());
+            long stamp = notificationLock.readLock();
+            try {
+                boolean inserted = store.insert(event.userId(), epochSecond, event.event());
+                metrics.save.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                metrics.ingestedRows.increment();
+                if (inserted) {
+                    metrics.insertedEvents.increment();
+                    notifyInserted(new SingleEvent(store.users().idOf(event.userId()), event.userId(), epochSecond,
+                            event.event()));
+                }
+            } finally {
+                notificationLock.unlockRead(stamp);
+            }
         });
     }
 
+    /**
+     * Creates a batch of events, to be filled by a single thread and saved with {@link #saveAll(EventBatch)}.
+     *
+     * @param capacity The maximum number of events of the batch.
+     * @return An empty batch.
+     */
+    public EventBatch newBatch(int capacity) {
+        return store.newBatch(capacity);
+    }
+
+    /**
+     * Saves a batch of events to the in-memory store, synchronously, skipping the events already stored.
+     *
+     * @param batch The events to be saved, left unchanged.
+     * @return The number of events inserted.
+     */
+    public int saveAll(EventBatch batch) {
+        logger.debug("Inserting a batch of {} events in the store", batch.size());
+        long start = System.nanoTime();
+        long stamp = notificationLock.readLock();
+        try {
+            int inserted = store.insertBatch(batch);
+            metrics.saveAll.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            metrics.ingestedRows.increment(batch.size());
+            metrics.insertedEvents.increment(inserted);
+            if (inserted > 0 && !insertListeners.isEmpty()) {
+                notifyInserted(new BatchEvents(batch, inserted));
+            }
+            return inserted;
+        } finally {
+            notificationLock.unlockRead(stamp);
+        }
+    }
+
     /**
      * Deletes all events from the in-memory store.
      */
     public void deleteALl() {
         store.clear();
+        insertListeners.forEach(InsertListener::reset);
         logger.debug("All store events have been deleted");
     }
 
@@ -51,13 +238,139 @@ public class ReactiveEventRepository {
      * @return A Flux emitting the events that match the criteria.
      */
     public Flux<Event> findEvents(LocalDateTime from, LocalDateTime to, String event, String userId) {
-        return Flux.fromStream(store.entrySet().stream())
-                .filter(entry -> userId == null || entry.getKey().equals(userId))
-                .flatMap(entry -> Flux.fromStream(entry.getValue().entrySet().stream()))
-                .filter(entry -> !entry.getKey().isBefore(from) && !entry.getKey().isAfter(to))
-                .flatMap(entry -> Flux.fromStream(entry.getValue().entrySet().stream()))
-                .filter(entry -> event == null || entry.getKey().equals(event))
-                .map(entry -> entry.getValue());
+        return Flux.defer(() -> {
+            byte type = event == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(event);
+            int user = userId == null ? UserDictionary.UNKNOWN : store.users().idOf(userId);
+            if ((event != null && type == EventTypeDictionary.UNKNOWN) || (userId != null && user == UserDictionary.UNKNOWN)) {
+                return Flux.empty();
+            }
+            long start = System.nanoTime();
+            ScanStats stats = new ScanStats();
+            return Flux.generate(
+                    () -> store.cursor(lowerBound(from), toEpochSecond(to), type, user, stats),
+                    (RowCursor cursor, SynchronousSink<Event> sink) -> {
+                        if (cursor.next()) {
+                            sink.next(new Event(store.users().nameOf(cursor.user()),
+                                    LocalDateTime.ofEpochSecond(cursor.epochSecond(), 0, ZoneOffset.UTC),
+                                    store.eventTypes().nameOf(cursor.type())));
+                        } else {
+                            sink.complete();
+                        }
+                        return cursor;
+                    },
+                    cursor -> metrics.findEvents.record(start, stats));
+        });
+    }
+
+    /**
+     * Exports the events matching the specified criteria, in time order, as chunks of events written by a writer,
+     * without materializing the events. A chunk is only written when requested, so that a slow consumer pauses the
+     * export instead of buffering its events, and the export reads a point-in-time view of the store.
+     *
+     * @param from   The start of the period, in epoch seconds, inclusive.
+     * @param to     The end of the period, in epoch seconds, inclusive.
+     * @param event  (Optional) The event type to export.
+     * @param userId (Optional) The ID of the user whose events to export.
+     * @param writer The writer of the chunks, owned by this export.
+     * @return A Flux emitting the non-empty chunks, on the query threads.
+     */
+    public <C> Flux<C> exportEvents(long from, long to, String event, String userId, EventWriter<C> writer) {
+        return exportEvents(from, to, event, userId, writer, null);
+    }
+
+    /**
+     * Exports the events matching the specified criteria, running an action atomically with the capture of the view
+     * of the export: the export reads every event saved before the action, and the listeners are notified of the
+     * events saved after it, so that a listener registered by the action sees each event exactly once. Saves wait
+     * while the action runs, it must be fast.
+     *
+     * @param captured The action run when the view is captured, on subscription, or null.
+     * @see #exportEvents(long, long, String, String, EventWriter)
+     */
+    public <C> Flux<C> exportEvents(long from, long to, String event, String userId, EventWriter<C> writer,
+                                    Runnable captured) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            ScanStats stats = new ScanStats();
+            RowCursor capturedCursor;
+            long stamp = captured == null ? 0 : notificationLock.writeLock();
+            try {
+                if (captured != null) {
+                    captured.run();
+                }
+                byte type = event == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(event);
+                int user = userId == null ? UserDictionary.UNKNOWN : store.users().idOf(userId);
+                if ((event != null && type == EventTypeDictionary.UNKNOWN) || (userId != null && user == UserDictionary.UNKNOWN)) {
+                    return Flux.<C>empty();
+                }
+                capturedCursor = store.cursor(from, to, type, user, stats);
+            } finally {
+                if (captured != null) {
+                    notificationLock.unlockWrite(stamp);
+                }
+            }
+            return Flux.generate(
+                    () -> capturedCursor,
+                    (RowCursor cursor, SynchronousSink<C> sink) -> {
+                        C chunk = null;
+                        while (cursor.next()) {
+                            if (chunk == null) {
+                                chunk = writer.newChunk();
+                            }
+                            if (!writer.write(chunk, cursor.user(), store.users().nameOf(cursor.user()), cursor.epochSecond(),
+                                    store.eventTypes().nameOf(cursor.type()))) {
+                                break;
+                            }
+                        }
+                        if (chunk != null) {
+                            sink.next(chunk);
+                        } else {
+                            sink.complete();
+                        }
+                        return cursor;
+                    },
+                    cursor -> metrics.exportEvents.record(start, stats));
+        }).subscribeOn(queryScheduler);
+    }
+
+    /**
+     * Counts the events matching the specified criteria, without materializing them.
+     * Time segments fully covered by the period are counted from their precomputed totals.
+     *
+     * @param from   The start time of the period to search for events.
+     * @param to     The end time of the period to search for events.
+     * @param event  (Optional) The event type to count.
+     * @param userId (Optional) The ID of the user whose events to count.
+     * @return A Mono emitting the number of matching events.
+     */
+    public Mono<Long> countEvents(LocalDateTime from, LocalDateTime to, String event, String userId) {
+        return countEvents(lowerBound(from), toEpochSecond(to), event, userId);
+    }
+
+    /**
+     * Counts the events matching the specified criteria, the period being already converted to epoch seconds, so
+     * that the count is a loop over the primitive columns of the store, without allocation per row.
+     *
+     * @param from   The start of the period, in epoch seconds, inclusive.
+     * @param to     The end of the period, in epoch seconds, inclusive.
+     * @param event  (Optional) The event type to count.
+     * @param userId (Optional) The ID of the user whose events to count.
+     * @return A Mono emitting the number of matching events.
+     * @see #countEvents(LocalDateTime, LocalDateTime, String, String)
+     */
+    public Mono<Long> countEvents(long from, long to, String event, String userId) {
+        return Mono.fromSupplier(() -> {
+            byte type = event == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(event);
+            int user = userId == null ? UserDictionary.UNKNOWN : store.users().idOf(userId);
+            if ((event != null && type == EventTypeDictionary.UNKNOWN) || (userId != null && user == UserDictionary.UNKNOWN)) {
+                return 0L;
+            }
+            long start = System.nanoTime();
+            ScanStats stats = new ScanStats();
+            long count = store.count(from, to, type, user, stats);
+            metrics.countEvents.record(start, stats);
+            return count;
+        }).subscribeOn(queryScheduler);
     }
 
     /**
@@ -69,13 +382,246 @@ public class ReactiveEventRepository {
      * @return A Flux emitting the distinct user IDs who match the criteria.
      */
     public Flux<String> findDistinctUsers(LocalDateTime from, LocalDateTime to, String event) {
-        return Flux.fromStream(store.entrySet().stream())
-                .flatMap(entry -> Flux.fromStream(entry.getValue().entrySet().stream()))
-                .filter(entry -> !entry.getKey().isBefore(from) && !entry.getKey().isAfter(to))
-                .flatMap(entry -> Flux.fromStream(entry.getValue().entrySet().stream()))
-                .filter(entry -> event == null || entry.getKey().equals(event))
-                .map(entry -> entry.getValue().userId())
-                .distinct();
+        return Flux.defer(() -> {
+            byte type = event == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(event);
+            if (event != null && type == EventTypeDictionary.UNKNOWN) {
+                return Flux.empty();
+            }
+            long start = System.nanoTime();
+            ScanStats stats = new ScanStats();
+            RoaringBitmap users = store.distinctUsers(lowerBound(from), toEpochSecond(to), type, stats);
+            metrics.findDistinctUsers.record(start, stats);
+            return Flux.fromStream(users.stream().mapToObj(user -> store.users().nameOf(user)));
+        }).subscribeOn(queryScheduler);
+    }
+
+    /**
+     * Counts the distinct users who performed a specific event within the given time period,
+     * without materializing their ids.
+     *
+     * @param from  The start time of the period to search for events.
+     * @param to    The end time of the period to search for events.
+     * @param event (Optional) The event type to search for.
+     * @return A Mono emitting the number of distinct users.
+     */
+    public Mono<Long> countDistinctUsers(LocalDateTime from, LocalDateTime to, String event) {
+        return countDistinctUsers(lowerBound(from), toEpochSecond(to), event);
+    }
+
+    /**
+     * Counts the distinct users who performed a specific event within the given period of epoch seconds.
+     *
+     * @param from  The start of the period, in epoch seconds, inclusive.
+     * @param to    The end of the period, in epoch seconds, inclusive.
+     * @param event (Optional) The event type to search for.
+     * @return A Mono emitting the number of distinct users.
+     * @see #countDistinctUsers(LocalDateTime, LocalDateTime, String)
+     */
+    public Mono<Long> countDistinctUsers(long from, long to, String event) {
+        return Mono.fromSupplier(() -> {
+            byte type = event == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(event);
+            if (event != null && type == EventTypeDictionary.UNKNOWN) {
+                return 0L;
+            }
+            long start = System.nanoTime();
+            ScanStats stats = new ScanStats();
+            long count = store.distinctUsers(from, to, type, stats).getLongCardinality();
+            metrics.countDistinctUsers.record(start, stats);
+            return count;
+        }).subscribeOn(queryScheduler);
+    }
+
+    /**
+     * Counts the distinct users who performed every given event within the given time period,
+     * for instance the users who clicked and swiped, by intersecting the users of each event.
+     *
+     * @param from   The start time of the period to search for events.
+     * @param to     The end time of the period to search for events.
+     * @param events The event types the users must all have performed, at least one.
+     * @return A Mono emitting the number of distinct users.
+     */
+    public Mono<Long> countUsersWithAllEvents(LocalDateTime from, LocalDateTime to, List<String> events) {
+        return countUsersWithAllEvents(lowerBound(from), toEpochSecond(to), events);
+    }
+
+    /**
+     * Counts the distinct users who performed every given event within the given period of epoch seconds.
+     *
+     * @param from   The start of the period, in epoch seconds, inclusive.
+     * @param to     The end of the period, in epoch seconds, inclusive.
+     * @param events The event types the users must all have performed, at least one.
+     * @return A Mono emitting the number of distinct users.
+     * @see #countUsersWithAllEvents(LocalDateTime, LocalDateTime, List)
+     */
+    public Mono<Long> countUsersWithAllEvents(long from, long to, List<String> events) {
+        return Mono.fromSupplier(() -> {
+            byte[] types = new byte[events.size()];
+            for (int index = 0; index < types.length; index++) {
+                types[index] = store.eventTypes().codeOf(events.get(index));
+                if (types[index] == EventTypeDictionary.UNKNOWN) {
+                    return 0L;
+                }
+            }
+            long start = System.nanoTime();
+            ScanStats stats = new ScanStats();
+            long count = store.usersWithAllTypes(from, to, types, stats).getLongCardinality();
+            metrics.countUsersWithAllEvents.record(start, stats);
+            return count;
+        }).subscribeOn(queryScheduler);
+    }
+
+    /**
+     * Estimates the number of distinct users who performed a specific event within the given time period,
+     * by merging the HyperLogLog sketches of the time segments, without collecting user ids.
+     *
+     * @param from  The start time of the period to search for events.
+     * @param to    The end time of the period to search for events.
+     * @param event (Optional) The event type to search for.
+     * @return A Mono emitting the estimated number of distinct users and its relative error.
+     */
+    public Mono<DistinctUsersEstimate> estimateDistinctUsers(LocalDateTime from, LocalDateTime to, String event) {
+        return estimateDistinctUsers(lowerBound(from), toEpochSecond(to), event);
+    }
+
+    /**
+     * Estimates the number of distinct users who performed a specific event within the given period of epoch seconds.
+     *
+     * @param from  The start of the period, in epoch seconds, inclusive.
+     * @param to    The end of the period, in epoch seconds, inclusive.
+     * @param event (Optional) The event type to search for.
+     * @return A Mono emitting the estimated number of distinct users and its relative error.
+     * @see #estimateDistinctUsers(LocalDateTime, LocalDateTime, String)
+     */
+    public Mono<DistinctUsersEstimate> estimateDistinctUsers(long from, long to, String event) {
+        return Mono.fromSupplier(() -> {
+            byte type = event == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(event);
+            if (event != null && type == EventTypeDictionary.UNKNOWN) {
+                return new DistinctUsersEstimate(0, store.newSketch().relativeError());
+            }
+            long start = System.nanoTime();
+            ScanStats stats = new ScanStats();
+            HyperLogLog sketch = store.estimateDistinctUsers(from, to, type, stats);
+            metrics.estimateDistinctUsers.record(start, stats);
+            return new DistinctUsersEstimate(sketch.estimate(), sketch.relativeError());
+        }).subscribeOn(queryScheduler);
+    }
+
+    /**
+     * Aggregates the events of a period per time bucket, and optionally per event type.
+     * Buckets are computed in windows of bounded memory, each window in a single pass over its segments, and emitted
+     * as soon as their window is done. Buckets without events are not emitted.
+     *
+     * @param from          The start of the period.
+     * @param to            The end of the period.
+     * @param interval      The duration of a bucket, a whole number of seconds. Buckets are aligned on multiples of
+     *                      the interval since the epoch, so the first and last ones may be cut by the period.
+     * @param event         (Optional) The event type to aggregate.
+     * @param byEvent       true to aggregate each event type separately.
+     * @param distinctUsers true to also count the distinct users of each bucket.
+     * @return A Flux emitting the non-empty buckets, in time order, then by event type.
+     */
+    public Flux<AggregationBucket> aggregate(LocalDateTime from, LocalDateTime to, Duration interval, String event,
+                                             boolean byEvent, boolean distinctUsers) {
+        return aggregate(lowerBound(from), toEpochSecond(to), interval, event, byEvent, distinctUsers);
+    }
+
+    /**
+     * Aggregates the events of a period of epoch seconds per time bucket, and optionally per event type.
+     *
+     * @param start The start of the period, in epoch seconds, inclusive.
+     * @param end   The end of the period, in epoch seconds, inclusive.
+     * @see #aggregate(LocalDateTime, LocalDateTime, Duration, String, boolean, boolean)
+     */
+    public Flux<AggregationBucket> aggregate(long start, long end, Duration interval, String event,
+                                             boolean byEvent, boolean distinctUsers) {
+        return Flux.defer(() -> {
+            byte type = event == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(event);
+            if ((event != null && type == EventTypeDictionary.UNKNOWN) || start > end) {
+                return Flux.empty();
+            }
+            int bucketSeconds = Math.toIntExact(interval.toSeconds());
+            long lastBucket = Math.floorDiv(end, bucketSeconds);
+            long windowBuckets = byEvent ? MAX_WINDOW_COUNTERS / EventTypeDictionary.MAX_EVENT_TYPES : MAX_WINDOW_COUNTERS;
+            return Flux.<Histogram, Long>generate(() -> Math.floorDiv(start, bucketSeconds), (next, sink) -> {
+                        // Windows without segments are skipped, so sparse periods cost their segments only.
+                        long nextSegment = store.nextSegmentStart(Math.max(start, next * bucketSeconds));
+                        long bucket = nextSegment > end ? lastBucket + 1 : Math.max(next, Math.floorDiv(nextSegment, bucketSeconds));
+                        if (bucket > lastBucket) {
+                            sink.complete();
+                            return bucket;
+                        }
+                        long windowEnd = Math.min(lastBucket, bucket + windowBuckets - 1);
+                        long queryStart = System.nanoTime();
+                        ScanStats stats = new ScanStats();
+                        sink.next(store.histogram(Math.max(start, bucket * bucketSeconds),
+                                Math.min(end, (windowEnd + 1) * bucketSeconds - 1), bucketSeconds, type, byEvent,
+                                distinctUsers, stats));
+                        metrics.aggregate.record(queryStart, stats);
+                        return windowEnd + 1;
+                    })
+                    .concatMapIterable(histogram -> buckets(histogram, byEvent ? null : event));
+        });
+    }
+
+    /**
+     * @param event The event type of the buckets when not grouped by event type.
+     */
+    private List<AggregationBucket> buckets(Histogram histogram, String event) {
+        List<AggregationBucket> buckets = new ArrayList<>();
+        for (int bucket = 0; bucket < histogram.buckets(); bucket++) {
+            for (int slot = 0; slot < histogram.slots(); slot++) {
+                long count = histogram.count(bucket, slot);
+                if (count == 0) {
+                    continue;
+                }
+                long distinctUsers = histogram.distinctUsers(bucket, slot);
+                buckets.add(new AggregationBucket(
+                        LocalDateTime.ofEpochSecond(histogram.bucketStart(bucket), 0, ZoneOffset.UTC),
+                        histogram.slots() == 1 ? event : store.eventTypes().nameOf(slot),
+                        count, distinctUsers < 0 ? null : distinctUsers));
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Answers a batch of queries at once, the counts being evaluated together in a single pass over the segments
+     * overlapping their periods.
+     *
+     * @param queries The queries.
+     * @return A Mono emitting the result of each query, in order: a number of events or of distinct users,
+     * or 1 if the event exists for the user and 0 otherwise.
+     */
+    public Mono<long[]> evaluate(List<BatchQuery> queries) {
+        return Mono.fromSupplier(() -> {
+            long start = System.nanoTime();
+            long[] results = new long[queries.size()];
+            List<StoreQuery> counts = new ArrayList<>(queries.size());
+            int[] countIndexes = new int[queries.size()];
+            for (int index = 0; index < queries.size(); index++) {
+                BatchQuery query = queries.get(index);
+                if (query.kind() == BatchQuery.Kind.EXISTS) {
+                    results[index] = exists(query.userId(), query.event()) ? 1 : 0;
+                    continue;
+                }
+                boolean distinctUsers = query.kind() == BatchQuery.Kind.COUNT_DISTINCT_USERS;
+                String userId = distinctUsers ? null : query.userId();
+                byte type = query.event() == null ? EventTypeDictionary.UNKNOWN : store.eventTypes().codeOf(query.event());
+                int user = userId == null ? UserDictionary.UNKNOWN : store.users().idOf(userId);
+                if ((query.event() != null && type == EventTypeDictionary.UNKNOWN) || (userId != null && user == UserDictionary.UNKNOWN)) {
+                    continue;
+                }
+                countIndexes[counts.size()] = index;
+                counts.add(new StoreQuery(query.from(), query.to(), type, user, distinctUsers));
+            }
+            ScanStats stats = new ScanStats();
+            long[] countResults = store.evaluate(counts, stats);
+            for (int index = 0; index < countResults.length; index++) {
+                results[countIndexes[index]] = countResults[index];
+            }
+            metrics.evaluate.record(start, stats);
+            return results;
+        }).subscribeOn(queryScheduler);
     }
 
     /**
@@ -86,12 +632,193 @@ public class ReactiveEventRepository {
      * @return A Mono emitting true if the event exists for the user, false otherwise.
      */
     public Mono<Boolean> existsByUserIdAndEvent(String userId, String event) {
-        return Mono.justOrEmpty(store.get(userId))
-                .flatMap(map -> Flux.fromIterable(map.values())
-                        .flatMap(events -> Mono.just(events.containsKey(event)))
-                        .filter(Boolean::booleanValue)
-                        .next())
-                .defaultIfEmpty(false);
+        return Mono.fromSupplier(() -> exists(userId, event));
+    }
+
+    /**
+     * Checks if a specific event exists for a given user, with a single lookup in the bitmask of the
+     * event types of the user. This never blocks, so it can be called directly from a request handler.
+     *
+     * @param userId The ID of the user to check for the event.
+     * @param event  The event type to check for.
+     * @return true if the event exists for the user, false otherwise.
+     */
+    public boolean exists(String userId, String event) {
+        long start = System.nanoTime();
+        int user = store.users().idOf(userId);
+        byte type = store.eventTypes().codeOf(event);
+        boolean exists = user != UserDictionary.UNKNOWN && type != EventTypeDictionary.UNKNOWN && store.exists(user, type);
+        metrics.exists.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return exists;
+    }
+
+    /**
+     * @return The number of events in the store.
+     */
+    public long size() {
+        return store.size();
+    }
+
+    /**
+     * @return The estimated heap used per stored event, in bytes.
+     */
+    public double bytesPerEvent() {
+        return store.bytesPerEvent();
     }
-}
 
+    /**
+     * Writes a binary snapshot of the store, synchronously.
+     *
+     * @param path        The file of the snapshot.
+     * @param fingerprint The fingerprint of the data files loaded in the store.
+     * @return The number of events written.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public long writeSnapshot(Path path, long fingerprint) throws IOException {
+        return EventStoreSnapshot.write(store, fingerprint, path);
+    }
+
+    /**
+     * Restores a binary snapshot in the empty store, synchronously.
+     * No event may be saved until it returns, since a failed restore clears the store.
+     *
+     * @param path        The file of the snapshot.
+     * @param fingerprint The fingerprint of the data files the snapshot must hold.
+     * @return true if the store was restored, false if the snapshot is missing or stale.
+     * @throws IOException if the snapshot is unreadable or corrupt, the store being left empty.
+     */
+    public boolean restoreSnapshot(Path path, long fingerprint) throws IOException {
+        try {
+            return EventStoreSnapshot.restore(store, fingerprint, path);
+        } finally {
+            insertListeners.forEach(InsertListener::reset);
+        }
+    }
+
+    private static ColumnStorage columnStorage(EventStoreProperties properties) {
+        return switch (properties.storage()) {
+            case HEAP -> ColumnStorage.HEAP;
+            case OFF_HEAP -> ColumnStorage.offHeap();
+            case MAPPED -> ColumnStorage.mapped(properties.storagePath());
+        };
+    }
+
+    private static ForkJoinWorkerThread newQueryThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("event-query-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void notifyInserted(InsertedEvents events) {
+        for (InsertListener listener : insertListeners) {
+            listener.inserted(events);
+        }
+    }
+
+    private static long toEpochSecond(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    // Rounds a lower bound with sub-second precision up, as timestamps are stored in whole seconds.
+    private static long lowerBound(LocalDateTime timestamp) {
+        long epochSecond = timestamp.toEpochSecond(ZoneOffset.UTC);
+        return timestamp.getNano() == 0 ? epochSecond : epochSecond + 1;
+    }
+
+    private record SingleEvent(int user, String userId, long epochSecond, String event) implements InsertedEvents {
+
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public String userId(int index) {
+            return userId;
+        }
+
+        @Override
+        public int user(int index) {
+            return user;
+        }
+
+        @Override
+        public long epochSecond(int index) {
+            return epochSecond;
+        }
+
+        @Override
+        public String event(int index) {
+            return event;
+        }
+
+        @Override
+        public long minEpochSecond() {
+            return epochSecond;
+        }
+
+        @Override
+        public long maxEpochSecond() {
+            return epochSecond;
+        }
+    }
+
+    /**
+     * The rows of a batch inserted by its last insertion.
+     */
+    private static final class BatchEvents implements InsertedEvents {
+        private final EventBatch batch;
+        private final int[] rows;
+        private long minEpochSecond = Long.MAX_VALUE;
+        private long maxEpochSecond = Long.MIN_VALUE;
+
+        private BatchEvents(EventBatch batch, int inserted) {
+            this.batch = batch;
+            this.rows = new int[inserted];
+            int size = 0;
+            for (int index = 0; index < batch.size(); index++) {
+                if (batch.isInserted(index)) {
+                    rows[size++] = index;
+                    minEpochSecond = Math.min(minEpochSecond, batch.epochSecond(index));
+                    maxEpochSecond = Math.max(maxEpochSecond, batch.epochSecond(index));
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+
+        @Override
+        public String userId(int index) {
+            return batch.userId(rows[index]);
+        }
+
+        @Override
+        public int user(int index) {
+            return batch.user(rows[index]);
+        }
+
+        @Override
+        public long epochSecond(int index) {
+            return batch.epochSecond(rows[index]);
+        }
+
+        @Override
+        public String event(int index) {
+            return batch.event(rows[index]);
+        }
+
+        @Override
+        public long minEpochSecond() {
+            return minEpochSecond;
+        }
+
+        @Override
+        public long maxEpochSecond() {
+            return maxEpochSecond;
+        }
+    }
+}
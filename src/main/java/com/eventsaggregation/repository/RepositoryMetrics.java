@@ -0,0 +1,126 @@
+package com.eventsaggregation.repository;
+
+import com.eventsaggregation.repository.store.ColumnarEventStore;
+import com.eventsaggregation.repository.store.ScanStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of {@link ReactiveEventRepository}: a timer per method, the rows scanned and matched by each query,
+ * the rows ingested, and gauges of the size of the store.
+ * Meters are registered once, so recording a measure never looks them up.
+ */
+final class RepositoryMetrics {
+    static final String REPOSITORY_TIMER = "eventsaggregation.repository";
+    static final String SCANNED_ROWS = "eventsaggregation.query.scanned";
+    static final String MATCHED_ROWS = "eventsaggregation.query.matched";
+
+    final Timer save;
+    final Timer saveAll;
+    final Timer exists;
+    final QueryMeters findEvents;
+    final QueryMeters exportEvents;
+    final QueryMeters countEvents;
+    final QueryMeters findDistinctUsers;
+    final QueryMeters countDistinctUsers;
+    final QueryMeters countUsersWithAllEvents;
+    final QueryMeters estimateDistinctUsers;
+    final QueryMeters evaluate;
+    final QueryMeters aggregate;
+    final Counter ingestedRows;
+    final Counter insertedEvents;
+    final Counter droppedEvents;
+    final Counter compactedSegments;
+
+    RepositoryMetrics(MeterRegistry registry, ColumnarEventStore store) {
+        save = timer(registry, "save");
+        saveAll = timer(registry, "saveAll");
+        exists = timer(registry, "exists");
+        findEvents = new QueryMeters(registry, "findEvents");
+        exportEvents = new QueryMeters(registry, "exportEvents");
+        countEvents = new QueryMeters(registry, "countEvents");
+        findDistinctUsers = new QueryMeters(registry, "findDistinctUsers");
+        countDistinctUsers = new QueryMeters(registry, "countDistinctUsers");
+        countUsersWithAllEvents = new QueryMeters(registry, "countUsersWithAllEvents");
+        estimateDistinctUsers = new QueryMeters(registry, "estimateDistinctUsers");
+        evaluate = new QueryMeters(registry, "evaluate");
+        aggregate = new QueryMeters(registry, "aggregate");
+        ingestedRows = Counter.builder("eventsaggregation.ingest.rows")
+                .description("Rows saved to the store, duplicates included")
+                .register(registry);
+        insertedEvents = Counter.builder("eventsaggregation.ingest.inserted")
+                .description("New events inserted in the store")
+                .register(registry);
+        droppedEvents = Counter.builder("eventsaggregation.store.dropped")
+                .description("Events dropped from the store by the retention")
+                .register(registry);
+        compactedSegments = Counter.builder("eventsaggregation.store.compacted")
+                .description("Time segments compacted by the background maintenance")
+                .register(registry);
+        Gauge.builder("eventsaggregation.store.events", store, ColumnarEventStore::size)
+                .description("Events in the store")
+                .register(registry);
+        Gauge.builder("eventsaggregation.store.segments", store, ColumnarEventStore::segmentCount)
+                .description("Time segments of the store")
+                .register(registry);
+        Gauge.builder("eventsaggregation.store.bytes.per.event", store, ColumnarEventStore::bytesPerEvent)
+                .description("Estimated heap used per event, dictionaries included")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("eventsaggregation.store.off.heap.bytes", store, ColumnarEventStore::offHeapBytes)
+                .description("Bytes of the compacted events kept off the heap, in direct buffers or mapped files")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("eventsaggregation.store.users", store, s -> s.users().size())
+                .description("Distinct users of the user dictionary")
+                .register(registry);
+        Gauge.builder("eventsaggregation.store.event.types", store, s -> s.eventTypes().size())
+                .description("Distinct event types of the event type dictionary")
+                .register(registry);
+    }
+
+    private static Timer timer(MeterRegistry registry, String method) {
+        return Timer.builder(REPOSITORY_TIMER)
+                .description("Time spent in the repository methods")
+                .tag("method", method)
+                .register(registry);
+    }
+
+    /**
+     * Meters of a query: its duration, and the rows it scanned and matched, whose ratio is its selectivity.
+     */
+    static final class QueryMeters {
+        private final Timer timer;
+        private final DistributionSummary scanned;
+        private final DistributionSummary matched;
+
+        private QueryMeters(MeterRegistry registry, String method) {
+            timer = timer(registry, method);
+            scanned = DistributionSummary.builder(SCANNED_ROWS)
+                    .description("Rows of the edge segments read one by one by a query")
+                    .tag("method", method)
+                    .register(registry);
+            matched = DistributionSummary.builder(MATCHED_ROWS)
+                    .description("Rows matching a query, including the ones counted from segment rollups")
+                    .tag("method", method)
+                    .register(registry);
+        }
+
+        /**
+         * Records a query.
+         *
+         * @param startNanos The {@link System#nanoTime()} at the start of the query.
+         * @param stats      The rows scanned and matched by the query.
+         */
+        void record(long startNanos, ScanStats stats) {
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            scanned.record(stats.scanned());
+            matched.record(stats.matched());
+        }
+    }
+}
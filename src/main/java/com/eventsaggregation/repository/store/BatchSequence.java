@@ -0,0 +1,58 @@
+package com.eventsaggregation.repository.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sequence numbers of the write batches of a store, and the watermark of the batches visible to queries.
+ * <p>
+ * Each batch takes the next number before writing and commits it once all its events are written. The watermark is
+ * the highest number such that it and every lower one are committed, so that a query reading the events of the
+ * batches up to the watermark never observes part of a batch, whatever the order in which batches commit.
+ * Commits are recorded in a ring of slots, a batch waiting to begin while the batch using its slot is not visible.
+ */
+final class BatchSequence {
+    private static final int SLOTS = 1024;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final AtomicLong last = new AtomicLong();
+    private final AtomicLong visible = new AtomicLong();
+    // The last number committed in each slot, the slot of a number being the number modulo SLOTS.
+    private final AtomicLongArray committed = new AtomicLongArray(SLOTS);
+
+    /**
+     * @return The number of a new batch, to commit with {@link #commit(long)}.
+     */
+    long begin() {
+        long sequence = last.incrementAndGet();
+        while (sequence - visible.get() > SLOTS) {
+            Thread.onSpinWait();
+        }
+        return sequence;
+    }
+
+    /**
+     * Commits a batch, making it visible once the batches begun before it are committed as well.
+     *
+     * @param sequence The number of the batch.
+     */
+    void commit(long sequence) {
+        committed.set((int) (sequence & SLOT_MASK), sequence);
+        // Whoever commits the batch following the watermark advances it, over the batches committed out of order.
+        while (true) {
+            long current = visible.get();
+            long next = current + 1;
+            if (committed.get((int) (next & SLOT_MASK)) != next) {
+                return;
+            }
+            visible.compareAndSet(current, next);
+        }
+    }
+
+    /**
+     * @return The number of the last batch visible to queries, every batch up to it being committed.
+     */
+    long visible() {
+        return visible.get();
+    }
+}
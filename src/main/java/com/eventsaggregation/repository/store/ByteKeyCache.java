@@ -0,0 +1,87 @@
+package com.eventsaggregation.repository.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bounded cache from the UTF-8 bytes of a value to its dictionary id, owned by a single thread.
+ * It lets a parser resolve repeated user ids and event types straight from a byte buffer, without creating a
+ * String per line. The cache is reset when full, so its memory does not grow with the number of distinct values.
+ */
+final class ByteKeyCache {
+    private final int capacity;
+    private byte[][] keys;
+    private int[] hashes;
+    private int[] values;
+    private int size;
+
+    ByteKeyCache(int capacity) {
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        reset();
+    }
+
+    /**
+     * Returns the id of the bytes between start and end, resolving and caching it on a miss.
+     *
+     * @param buffer   The buffer holding the value, its position and limit are ignored.
+     * @param start    The index of the first byte of the value.
+     * @param end      The index following the last byte of the value.
+     * @param resolver Resolves the value on a miss.
+     * @return The id of the value.
+     */
+    int get(ByteBuffer buffer, int start, int end, Resolver resolver) {
+        int hash = hash(buffer, start, end);
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && equals(keys[slot], buffer, start, end)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] key = new byte[end - start];
+        buffer.get(start, key);
+        int value = resolver.resolve(new String(key, StandardCharsets.UTF_8));
+        if (size * 2 >= capacity) {
+            reset();
+            slot = hash & mask;
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+        size++;
+        return value;
+    }
+
+    private void reset() {
+        keys = new byte[capacity][];
+        hashes = new int[capacity];
+        values = new int[capacity];
+        size = 0;
+    }
+
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        int hash = 1;
+        for (int index = start; index < end; index++) {
+            hash = 31 * hash + buffer.get(index);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buffer, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int index = 0; index < key.length; index++) {
+            if (key[index] != buffer.get(start + index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    interface Resolver {
+        int resolve(String value);
+    }
+}
@@ -0,0 +1,122 @@
+package com.eventsaggregation.repository.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Allocates the columns of compacted segment runs, see {@link SegmentRun#compact(ColumnStorage)}: on the heap,
+ * off the heap in direct buffers, or in memory-mapped files, so that the events of the cold segments are not on the
+ * heap and, once mapped, are paged in and out by the operating system when they exceed the RAM.
+ * <p>
+ * A mapped file is deleted as soon as it is mapped: its pages stay valid until the run is garbage collected, and no
+ * file outlives the process. Direct buffers count against {@code -XX:MaxDirectMemorySize}.
+ */
+public final class ColumnStorage {
+    public static final ColumnStorage HEAP = new ColumnStorage(Kind.HEAP, null);
+    private static final int BYTES_PER_ROW = Integer.BYTES + Character.BYTES;
+
+    private final Kind kind;
+    private final Path directory;
+
+    private ColumnStorage(Kind kind, Path directory) {
+        this.kind = kind;
+        this.directory = directory;
+    }
+
+    /**
+     * @return A storage allocating columns in direct buffers.
+     */
+    public static ColumnStorage offHeap() {
+        return new ColumnStorage(Kind.OFF_HEAP, null);
+    }
+
+    /**
+     * @param directory The directory of the mapped files, created if missing.
+     * @return A storage allocating columns in memory-mapped files.
+     */
+    public static ColumnStorage mapped(Path directory) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create " + directory, e);
+        }
+        return new ColumnStorage(Kind.MAPPED, directory);
+    }
+
+    /**
+     * @return true if the columns are allocated on the heap.
+     */
+    public boolean isHeap() {
+        return kind == Kind.HEAP;
+    }
+
+    /**
+     * @param rows The number of events of a run.
+     * @return true if the columns of the run fit in one buffer, of at most 2 GB, off the heap.
+     */
+    boolean canAllocate(int rows) {
+        return kind == Kind.HEAP || (long) rows * BYTES_PER_ROW <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Allocates the columns of a run: the int users and types of its events, then their char offsets, in the native
+     * byte order.
+     *
+     * @param rows The number of events of the run.
+     * @return The empty columns.
+     * @throws IllegalArgumentException if the columns do not fit in one buffer, see {@link #canAllocate(int)}.
+     * @throws UncheckedIOException     if a mapped file cannot be created.
+     */
+    Columns allocate(int rows) {
+        if (kind == Kind.HEAP || rows == 0) {
+            return new Columns(CharBuffer.wrap(new char[rows]), IntBuffer.wrap(new int[rows]));
+        }
+        if (!canAllocate(rows)) {
+            throw new IllegalArgumentException("The columns of " + rows + " events exceed the size of a buffer");
+        }
+        int userAndTypesBytes = rows * Integer.BYTES;
+        int bytes = rows * BYTES_PER_ROW;
+        ByteBuffer buffer = kind == Kind.OFF_HEAP ? ByteBuffer.allocateDirect(bytes) : map(bytes);
+        CharBuffer offsets = buffer.slice(userAndTypesBytes, rows * Character.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asCharBuffer();
+        IntBuffer userAndTypes = buffer.slice(0, userAndTypesBytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+        return new Columns(offsets, userAndTypes);
+    }
+
+    private ByteBuffer map(int bytes) {
+        try {
+            Path file = Files.createTempFile(directory, "segment-", ".columns");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            } finally {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    // Mapped files cannot be deleted on some systems, they are deleted when the process exits.
+                    file.toFile().deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map the columns of a segment in " + directory, e);
+        }
+    }
+
+    /**
+     * The columns of a compacted run, filled by the run.
+     */
+    record Columns(CharBuffer offsets, IntBuffer userAndTypes) {
+    }
+
+    private enum Kind {
+        HEAP, OFF_HEAP, MAPPED
+    }
+}
@@ -0,0 +1,1149 @@
+package com.eventsaggregation.repository.store;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Columnar storage engine for events.
+ * <p>
+ * User ids are dictionary-encoded as ints and event types as byte codes. Events are partitioned in time segments
+ * of a fixed duration, each segment keeps its events sorted by timestamp as packed primitive keys
+ * (see {@link EventKeys}), so an event costs 8 bytes instead of several map entries and objects.
+ * <p>
+ * A query only visits the segments overlapping its time range: it binary searches the edges of the partially
+ * covered segments and answers counts of the fully covered ones from their rollups, maintained on insert.
+ * Each segment also keeps a posting list of the users of each event type, a compressed bitmap of their dictionary
+ * ids, so that the distinct users of the covered segments are bitmap unions, and the users having events of several
+ * types are intersections of such unions.
+ * Counts per user are only answered from rollups when user rollups are enabled, as they cost a counter per user
+ * and event type in each segment.
+ * <p>
+ * Writes are striped by user inside each segment, so concurrent writers of different users never contend, see
+ * {@link Segment}. Each insert or batch takes a sequence number and commits it once written, see
+ * {@link BatchSequence}. Queries read a point-in-time view of the store without blocking the writers: the immutable
+ * runs of the overlapping segments and the events of their tails up to the last visible sequence number, so that a
+ * query never observes part of a batch. Writers merge the tails of the segments they wrote after committing, and
+ * {@link #mergeTails} merges the tails of the segments no longer written.
+ * <p>
+ * Given a fork-join pool, counts and distinct users reading many rows are computed in parallel: the overlapping
+ * segments are split recursively, each segment producing a partial count, user set or sketch, and the partials are
+ * merged while joining. Queries reading fewer rows than a threshold stay on the sequential path.
+ * <p>
+ * Aged segments are compacted in place, their runs taking 6 bytes per event instead of 8, on the heap, off the heap
+ * or in memory-mapped files, see {@link ColumnStorage}, and expired segments are dropped whole, see
+ * {@link #compactSegmentsBefore} and {@link #dropSegmentsBefore}.
+ */
+public final class ColumnarEventStore {
+    public static final Duration DEFAULT_SEGMENT_DURATION = Duration.ofHours(1);
+    public static final int DEFAULT_SKETCH_PRECISION = 12;
+    // Query bounds are clamped so that bucket computations never overflow.
+    private static final long MIN_TIMESTAMP = -(1L << 52);
+    private static final long MAX_TIMESTAMP = 1L << 52;
+    private static final int SEGMENT_ENTRY_BYTES = 96;
+    private static final int TASKS_PER_WORKER = 4;
+
+    private final UserDictionary users = new UserDictionary();
+    private final EventTypeDictionary eventTypes = new EventTypeDictionary();
+    private final UserEventTypeIndex userEventTypes = new UserEventTypeIndex();
+    // The event types of the users of the events inserted while segments are dropped, null otherwise.
+    private UserEventTypeIndex recentUserEventTypes;
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final LongAdder size = new LongAdder();
+    // Held shared by writers, exclusively while clearing or dropping segments.
+    private final StampedLock viewLock = new StampedLock();
+    private final BatchSequence sequence = new BatchSequence();
+    private final int segmentSeconds;
+    private final int sketchPrecision;
+    private final boolean userRollups;
+    // Null for sequential queries only.
+    private final ForkJoinPool queryPool;
+    private final long parallelQueryRows;
+    private final ColumnStorage columnStorage;
+    private final int stripes;
+
+    public ColumnarEventStore() {
+        this(DEFAULT_SEGMENT_DURATION, DEFAULT_SKETCH_PRECISION, false);
+    }
+
+    /**
+     * Creates a store running every query sequentially.
+     *
+     * @see #ColumnarEventStore(Duration, int, boolean, ForkJoinPool, long)
+     */
+    public ColumnarEventStore(Duration segmentDuration, int sketchPrecision, boolean userRollups) {
+        this(segmentDuration, sketchPrecision, userRollups, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a store keeping its compacted segments on the heap.
+     *
+     * @see #ColumnarEventStore(Duration, int, boolean, ForkJoinPool, long, ColumnStorage)
+     */
+    public ColumnarEventStore(Duration segmentDuration, int sketchPrecision, boolean userRollups,
+                              ForkJoinPool queryPool, long parallelQueryRows) {
+        this(segmentDuration, sketchPrecision, userRollups, queryPool, parallelQueryRows, ColumnStorage.HEAP);
+    }
+
+    /**
+     * Creates a store with the default number of stripes per segment.
+     *
+     * @see #ColumnarEventStore(Duration, int, boolean, ForkJoinPool, long, ColumnStorage, int)
+     */
+    public ColumnarEventStore(Duration segmentDuration, int sketchPrecision, boolean userRollups,
+                              ForkJoinPool queryPool, long parallelQueryRows, ColumnStorage columnStorage) {
+        this(segmentDuration, sketchPrecision, userRollups, queryPool, parallelQueryRows, columnStorage,
+                Segment.DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param segmentDuration   The time span covered by each segment, at least one second.
+     * @param sketchPrecision   The precision of the HyperLogLog sketches of the segments.
+     * @param userRollups       true to count the events per user and event type in each segment.
+     * @param queryPool         The pool running the parallel queries, or null to run every query sequentially.
+     * @param parallelQueryRows The minimum number of rows a query must read to run in parallel.
+     * @param columnStorage     The storage of the events of the compacted segments.
+     * @param stripes           The number of stripes of users written concurrently in each segment, a power of two.
+     */
+    public ColumnarEventStore(Duration segmentDuration, int sketchPrecision, boolean userRollups,
+                              ForkJoinPool queryPool, long parallelQueryRows, ColumnStorage columnStorage,
+                              int stripes) {
+        long seconds = segmentDuration.toSeconds();
+        if (seconds < 1 || seconds > EventKeys.MAX_OFFSET + 1L) {
+            throw new IllegalArgumentException("Invalid segment duration: " + segmentDuration);
+        }
+        if (sketchPrecision < HyperLogLog.MIN_PRECISION || sketchPrecision > HyperLogLog.MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid sketch precision: " + sketchPrecision);
+        }
+        if (stripes < 1 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+        }
+        this.segmentSeconds = (int) seconds;
+        this.sketchPrecision = sketchPrecision;
+        this.userRollups = userRollups;
+        this.queryPool = queryPool;
+        this.parallelQueryRows = parallelQueryRows;
+        this.columnStorage = columnStorage;
+        this.stripes = stripes;
+    }
+
+    public UserDictionary users() {
+        return users;
+    }
+
+    public EventTypeDictionary eventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * Inserts an event, unless the same (user, timestamp, event) combination is already stored.
+     *
+     * @param userId      The ID of the user.
+     * @param epochSecond The timestamp of the event, in epoch seconds.
+     * @param event       The event type.
+     * @return true if the event was inserted, false if it was a duplicate, or its type is new while the dictionary of
+     * event types is full.
+     */
+    public boolean insert(String userId, long epochSecond, String event) {
+        byte type = eventTypes.tryGetOrAdd(event);
+        if (type == EventTypeDictionary.UNKNOWN) {
+            return false;
+        }
+        int user = users.getOrAdd(userId);
+        long start = bucketStart(epochSecond);
+        long stamp = viewLock.readLock();
+        try {
+            Segment segment = segments.computeIfAbsent(start, this::newSegment);
+            long batch = sequence.begin();
+            boolean inserted;
+            try {
+                inserted = segment.insert(EventKeys.pack((int) (epochSecond - start), user, type), batch);
+                if (inserted) {
+                    size.increment();
+                    indexUser(user, type);
+                }
+            } finally {
+                sequence.commit(batch);
+            }
+            if (inserted) {
+                segment.mergeLargeTails(sequence.visible());
+            }
+            return inserted;
+        } finally {
+            viewLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Creates a batch to insert events with {@link #insertBatch(EventBatch)}.
+     * A batch is meant to be filled by a single thread, and can be reused after an insertion.
+     *
+     * @param capacity The maximum number of events of the batch.
+     * @return An empty batch.
+     */
+    public EventBatch newBatch(int capacity) {
+        return new EventBatch(users, eventTypes, capacity);
+    }
+
+    /**
+     * Inserts the events of a batch, skipping duplicates. The batch is left unchanged.
+     * Consecutive events of the same segment are inserted under a single lock per stripe of the segment, and the
+     * whole batch becomes visible to queries at once, when it is committed. The tails grown too large are then merged.
+     *
+     * @param batch The events to insert.
+     * @return The number of inserted events.
+     */
+    public int insertBatch(EventBatch batch) {
+        int count = batch.size();
+        long[] keys = batch.keys;
+        int inserted = 0;
+        int from = 0;
+        // The segments written by the batch, usually one or two.
+        List<Segment> written = new ArrayList<>(2);
+        long stamp = viewLock.readLock();
+        try {
+            long batchSequence = sequence.begin();
+            try {
+                while (from < count) {
+                    long start = bucketStart(batch.timestampColumn[from]);
+                    int to = from;
+                    while (to < count && batch.timestampColumn[to] >= start && batch.timestampColumn[to] - start < segmentSeconds) {
+                        keys[to] = EventKeys.pack((int) (batch.timestampColumn[to] - start), batch.userColumn[to], batch.typeColumn[to]);
+                        to++;
+                    }
+                    Segment segment = segments.computeIfAbsent(start, this::newSegment);
+                    inserted += segment.insertAll(keys, from, to, batchSequence);
+                    for (int index = from; index < to; index++) {
+                        if (keys[index] != -1) {
+                            indexUser(batch.userColumn[index], batch.typeColumn[index]);
+                        }
+                    }
+                    written.add(segment);
+                    from = to;
+                }
+                size.add(inserted);
+            } finally {
+                sequence.commit(batchSequence);
+            }
+            long visible = sequence.visible();
+            for (Segment segment : written) {
+                segment.mergeLargeTails(visible);
+            }
+        } finally {
+            viewLock.unlockRead(stamp);
+        }
+        return inserted;
+    }
+
+    /**
+     * @return The number of events in the store.
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * @return The number of time segments in the store.
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Opens a cursor over the events matching the specified criteria.
+     * Events are returned segment by segment, sorted by timestamp.
+     *
+     * @param from The start of the period, in epoch seconds, inclusive.
+     * @param to   The end of the period, in epoch seconds, inclusive.
+     * @param type The event type code, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @param user The user dictionary id, or {@link UserDictionary#UNKNOWN} for all users.
+     * @return A cursor over the matching rows.
+     */
+    public RowCursor cursor(long from, long to, byte type, int user) {
+        return cursor(from, to, type, user, new ScanStats());
+    }
+
+    /**
+     * Returns a cursor over the rows matching the specified criteria, in time order, recording the rows it reads.
+     *
+     * @see #cursor(long, long, byte, int)
+     */
+    public RowCursor cursor(long from, long to, byte type, int user, ScanStats stats) {
+        return new SegmentCursor(views(from, to, type, UserDictionary.UNKNOWN, true), from, to, type, user, stats);
+    }
+
+    /**
+     * Counts the events matching the specified criteria.
+     *
+     * @see #cursor(long, long, byte, int)
+     */
+    public long count(long from, long to, byte type, int user) {
+        return count(from, to, type, user, new ScanStats());
+    }
+
+    /**
+     * Counts the events matching the specified criteria, recording the rows read.
+     *
+     * @see #cursor(long, long, byte, int)
+     */
+    public long count(long from, long to, byte type, int user, ScanStats stats) {
+        boolean rollups = user == UserDictionary.UNKNOWN || userRollups;
+        SegmentView[] views = views(from, to, type, user, false);
+        if (!isParallel(views, from, to, rollups)) {
+            // A primitive loop, the generic aggregation boxing a partial count per segment.
+            long count = 0;
+            for (SegmentView view : views) {
+                count += count(view, from, to, type, user, stats);
+            }
+            return count;
+        }
+        return aggregate(views, from, to, rollups, () -> 0L,
+                (count, view, segmentStats) -> count + count(view, from, to, type, user, segmentStats), Long::sum,
+                stats);
+    }
+
+    private long count(SegmentView view, long from, long to, byte type, int user, ScanStats stats) {
+        long count = 0;
+        SegmentRun run = view.run();
+        if (covers(view.start(), from, to)) {
+            if (user == UserDictionary.UNKNOWN) {
+                count = run.count(type);
+                stats.matched(count);
+                return count;
+            }
+            if (view.userCount() >= 0) {
+                count = view.userCount();
+                stats.matched(count);
+                return count;
+            }
+        }
+        int start = startIndex(run, view.start(), from);
+        int end = endIndex(run, view.start(), to);
+        count = run.count(start, end, type, user);
+        stats.scanned(Math.max(end - start, 0));
+        stats.matched(count);
+        return count;
+    }
+
+    /**
+     * Collects the dictionary ids of the users having events matching the specified criteria.
+     *
+     * @see #cursor(long, long, byte, int)
+     */
+    public RoaringBitmap distinctUsers(long from, long to, byte type) {
+        return distinctUsers(from, to, type, new ScanStats());
+    }
+
+    /**
+     * Collects the dictionary ids of the users having events matching the specified criteria, recording the rows read.
+     * The posting lists of the segments fully covered by the period are merged, the users of the edge segments
+     * are added from their events.
+     *
+     * @see #cursor(long, long, byte, int)
+     */
+    public RoaringBitmap distinctUsers(long from, long to, byte type, ScanStats stats) {
+        return usersPerType(from, to, new byte[]{type}, stats)[0];
+    }
+
+    /**
+     * Collects the dictionary ids of the users having events of every given type in a period, for instance the users
+     * who clicked and swiped, by intersecting the users of each type.
+     *
+     * @param from  The start of the period, in epoch seconds, inclusive.
+     * @param to    The end of the period, in epoch seconds, inclusive.
+     * @param types The event type codes, at least one.
+     * @param stats The rows read and matched.
+     * @return The users having at least one event of each type.
+     */
+    public RoaringBitmap usersWithAllTypes(long from, long to, byte[] types, ScanStats stats) {
+        if (types.length == 0) {
+            throw new IllegalArgumentException("No event type");
+        }
+        return FastAggregation.and(usersPerType(from, to, types, stats));
+    }
+
+    // Users of each event type in a period, read from a single view of the store.
+    private RoaringBitmap[] usersPerType(long from, long to, byte[] types, ScanStats stats) {
+        SegmentView[] views = views(from, to, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN, false);
+        return aggregate(views, from, to, true, () -> newBitmaps(types.length), (users, view, segmentStats) -> {
+            SegmentRun run = view.run();
+            if (covers(view.start(), from, to)) {
+                for (int slot = 0; slot < types.length; slot++) {
+                    run.addUsers(types[slot], users[slot]);
+                    segmentStats.matched(run.count(types[slot]));
+                }
+                return users;
+            }
+            int start = startIndex(run, view.start(), from);
+            int end = endIndex(run, view.start(), to);
+            long matched = 0;
+            for (int index = start; index < end; index++) {
+                long key = run.key(index);
+                for (int slot = 0; slot < types.length; slot++) {
+                    if (types[slot] == EventTypeDictionary.UNKNOWN || EventKeys.type(key) == types[slot]) {
+                        users[slot].add(EventKeys.user(key));
+                        matched++;
+                    }
+                }
+            }
+            segmentStats.scanned(Math.max(end - start, 0));
+            segmentStats.matched(matched);
+            return users;
+        }, (left, right) -> {
+            for (int slot = 0; slot < left.length; slot++) {
+                left[slot].or(right[slot]);
+            }
+            return left;
+        }, stats);
+    }
+
+    private static RoaringBitmap[] newBitmaps(int count) {
+        RoaringBitmap[] bitmaps = new RoaringBitmap[count];
+        for (int index = 0; index < count; index++) {
+            bitmaps[index] = new RoaringBitmap();
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Evaluates a batch of counts in a single pass over the segments overlapping any of their periods.
+     * In each segment, the counts answered by its rollups and posting lists are added first, then the rows of the union of the index
+     * ranges of the other counts are read once, each row being matched against the counts of its event type only.
+     * Counts per user are always read from the rows, as the segments do not keep their rollups per user per version.
+     *
+     * @param queries The counts to evaluate.
+     * @param stats   The rows read and matched, a row matching several counts being matched once per count.
+     * @return The result of each count, in the order of the queries: a number of events or of distinct users.
+     */
+    public long[] evaluate(List<StoreQuery> queries, ScanStats stats) {
+        BatchEvaluation evaluation = new BatchEvaluation(queries);
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (StoreQuery query : queries) {
+            from = Math.min(from, query.from());
+            to = Math.max(to, query.to());
+        }
+        if (!queries.isEmpty()) {
+            for (SegmentView view : views(from, to, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN, false)) {
+                evaluation.visit(view, stats);
+            }
+        }
+        return evaluation.results();
+    }
+
+    /**
+     * Counts the events matching an event type per fixed time bucket, and optionally per event type, in a single
+     * pass over the overlapping segments. Buckets are aligned on multiples of their duration since the epoch, so
+     * the first and last ones may be partially covered by the period. When buckets are made of whole segments,
+     * the event counts of the covered segments are taken from their rollups.
+     *
+     * @param from          The start of the period, in epoch seconds, inclusive.
+     * @param to            The end of the period, in epoch seconds, inclusive.
+     * @param bucketSeconds The duration of a bucket, at least one second.
+     * @param type          The event type code, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @param byType        true for a slot per event type code in each bucket, false for a single slot.
+     * @param distinctUsers true to also count the distinct users of each bucket and slot, exactly.
+     * @param stats         The rows read and matched.
+     * @return The counts of the buckets overlapping the period, which must hold at most
+     * {@link Integer#MAX_VALUE} counters.
+     */
+    public Histogram histogram(long from, long to, int bucketSeconds, byte type, boolean byType, boolean distinctUsers,
+                               ScanStats stats) {
+        if (bucketSeconds < 1) {
+            throw new IllegalArgumentException("Invalid bucket duration: " + bucketSeconds);
+        }
+        long firstBucket = Math.floorDiv(from, bucketSeconds);
+        int buckets = from > to ? 0 : Math.toIntExact(Math.floorDiv(to, bucketSeconds) - firstBucket + 1);
+        int slots = byType ? EventTypeDictionary.MAX_EVENT_TYPES : 1;
+        Histogram histogram = new Histogram(firstBucket * bucketSeconds, bucketSeconds, buckets, slots, distinctUsers);
+        boolean wholeSegments = bucketSeconds % segmentSeconds == 0;
+        long matched = 0;
+        for (SegmentView view : views(from, to, type, UserDictionary.UNKNOWN, false)) {
+            SegmentRun run = view.run();
+            if (!distinctUsers && wholeSegments && covers(view.start(), from, to)) {
+                int bucket = (int) (Math.floorDiv(view.start(), bucketSeconds) - firstBucket);
+                if (!byType) {
+                    long count = run.count(type);
+                    histogram.add(bucket, 0, count);
+                    matched += count;
+                    continue;
+                }
+                for (int code = 0; code < eventTypes.size(); code++) {
+                    if (type == EventTypeDictionary.UNKNOWN || type == code) {
+                        long count = run.count((byte) code);
+                        histogram.add(bucket, code, count);
+                        matched += count;
+                    }
+                }
+                continue;
+            }
+            int start = startIndex(run, view.start(), from);
+            int end = endIndex(run, view.start(), to);
+            // Rows are sorted by offset, so the bucket only changes when an offset reaches the end of the current one.
+            int bucket = -1;
+            long bucketEnd = Long.MIN_VALUE;
+            for (int index = start; index < end; index++) {
+                long key = run.key(index);
+                if (type != EventTypeDictionary.UNKNOWN && EventKeys.type(key) != type) {
+                    continue;
+                }
+                long epochSecond = view.start() + EventKeys.offset(key);
+                if (epochSecond >= bucketEnd) {
+                    long absolute = Math.floorDiv(epochSecond, bucketSeconds);
+                    bucket = (int) (absolute - firstBucket);
+                    bucketEnd = (absolute + 1) * bucketSeconds;
+                }
+                histogram.addRow(bucket, byType ? EventKeys.type(key) : 0, EventKeys.user(key));
+                matched++;
+            }
+            stats.scanned(Math.max(end - start, 0));
+        }
+        stats.matched(matched);
+        return histogram;
+    }
+
+    /**
+     * @param from A time, in epoch seconds.
+     * @return The start of the first segment holding events at or after the time, or {@link Long#MAX_VALUE} if none.
+     */
+    public long nextSegmentStart(long from) {
+        Long start = segments.ceilingKey(bucketStart(Math.max(from, MIN_TIMESTAMP)));
+        return start == null ? Long.MAX_VALUE : start;
+    }
+
+    /**
+     * @return An empty sketch, of the precision of the sketches of the store.
+     */
+    public HyperLogLog newSketch() {
+        return new HyperLogLog(sketchPrecision);
+    }
+
+    /**
+     * Estimates the number of distinct users having events matching the specified criteria.
+     * The sketches of the segments fully covered by the period are merged, the users of the edge segments
+     * are added from their events. The sketches of the segments may include events inserted after the view of the
+     * query was captured, which is within the error of the estimate.
+     *
+     * @see #cursor(long, long, byte, int)
+     * @return A sketch of the matching users.
+     */
+    public HyperLogLog estimateDistinctUsers(long from, long to, byte type) {
+        return estimateDistinctUsers(from, to, type, new ScanStats());
+    }
+
+    /**
+     * Estimates the number of distinct users having events matching the specified criteria, recording the rows read.
+     *
+     * @see #estimateDistinctUsers(long, long, byte)
+     */
+    public HyperLogLog estimateDistinctUsers(long from, long to, byte type, ScanStats stats) {
+        SegmentView[] views = views(from, to, type, UserDictionary.UNKNOWN, false);
+        return aggregate(views, from, to, true, this::newSketch, (sketch, view, segmentStats) -> {
+            SegmentRun run = view.run();
+            if (view.rolledUp() && covers(view.start(), from, to)) {
+                view.segment().mergeSketch(type, sketch);
+                segmentStats.matched(run.count(type));
+                return sketch;
+            }
+            int start = startIndex(run, view.start(), from);
+            int end = endIndex(run, view.start(), to);
+            long matched = 0;
+            for (int index = start; index < end; index++) {
+                long key = run.key(index);
+                if (type == EventTypeDictionary.UNKNOWN || EventKeys.type(key) == type) {
+                    sketch.addUser(EventKeys.user(key));
+                    matched++;
+                }
+            }
+            segmentStats.scanned(Math.max(end - start, 0));
+            segmentStats.matched(matched);
+            return sketch;
+        }, (left, right) -> {
+            left.merge(right);
+            return left;
+        }, stats);
+    }
+
+    /**
+     * Checks whether a user has at least one event of the given type, from the bitmask of the event types of the
+     * user, whatever the number of events of the user.
+     *
+     * @param user The user dictionary id.
+     * @param type The event type code.
+     * @return true if such an event exists.
+     */
+    public boolean exists(int user, byte type) {
+        return userEventTypes.contains(user, type);
+    }
+
+    /**
+     * Removes all events and dictionary entries.
+     */
+    public synchronized void clear() {
+        long stamp = viewLock.writeLock();
+        try {
+            segments.clear();
+            size.reset();
+            userEventTypes.clear();
+            users.clear();
+            eventTypes.clear();
+        } finally {
+            viewLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Drops the segments ending before a time, each in constant time, without blocking the writers and the queries
+     * but for unlinking the expired segments. The index of the event types of the users then forgets the event types
+     * of the users of the dropped events which no remaining event has, so that {@link #exists} forgets the dropped
+     * events, without rebuilding the index: the users of the remaining segments are unions of their posting lists.
+     * Dictionaries are kept, so the users and event types of the dropped events keep their ids.
+     *
+     * @param epochSecond The retention horizon, in epoch seconds: the segments holding events at or after it are kept.
+     * @return The number of dropped events.
+     */
+    public synchronized long dropSegmentsBefore(long epochSecond) {
+        UserEventTypeIndex recent = new UserEventTypeIndex();
+        List<Segment> expired;
+        long stamp = viewLock.writeLock();
+        try {
+            NavigableMap<Long, Segment> head = segments.headMap(bucketStart(Math.min(epochSecond, MAX_TIMESTAMP)), false);
+            if (head.isEmpty()) {
+                return 0;
+            }
+            expired = new ArrayList<>(head.values());
+            head.clear();
+            // From now on, writers also record their events in the recent index.
+            recentUserEventTypes = recent;
+        } finally {
+            viewLock.unlockWrite(stamp);
+        }
+        // The expired segments are no longer written, and every batch written to them is visible.
+        long visible = sequence.visible();
+        long dropped = 0;
+        RoaringBitmap[] droppedUsers = newBitmaps(EventTypeDictionary.MAX_EVENT_TYPES);
+        for (Segment segment : expired) {
+            SegmentRun run = segment.merge(visible);
+            dropped += run.size();
+            for (int code = 0; code < droppedUsers.length; code++) {
+                run.addUsers((byte) code, droppedUsers[code]);
+            }
+        }
+        size.add(-dropped);
+        byte[] types = new byte[eventTypes.size()];
+        for (int code = 0; code < types.length; code++) {
+            types[code] = (byte) code;
+        }
+        RoaringBitmap[] retainedUsers = usersPerType(Long.MIN_VALUE, Long.MAX_VALUE, types, new ScanStats());
+        for (int code = 0; code < types.length; code++) {
+            byte type = (byte) code;
+            droppedUsers[code].andNot(retainedUsers[code]);
+            droppedUsers[code].forEach((int user) -> userEventTypes.remove(user, type));
+        }
+        stamp = viewLock.writeLock();
+        try {
+            // Restores the event types of the users written meanwhile, which may have been removed.
+            for (int code = 0; code < types.length; code++) {
+                byte type = (byte) code;
+                droppedUsers[code].forEach((int user) -> {
+                    if (recent.contains(user, type)) {
+                        userEventTypes.add(user, type);
+                    }
+                });
+            }
+            recentUserEventTypes = null;
+        } finally {
+            viewLock.unlockWrite(stamp);
+        }
+        return dropped;
+    }
+
+    /**
+     * Merges the tails of every segment into its run, see {@link Segment}, so that the queries of the segments no
+     * longer written do not copy their tails. Writes and queries go on meanwhile.
+     */
+    public void mergeTails() {
+        long visible = sequence.visible();
+        for (Segment segment : segments.values()) {
+            segment.merge(visible);
+        }
+    }
+
+    /**
+     * Compacts the segments ending before a time, see {@link SegmentRun#compact(ColumnStorage)}. With a storage off
+     * the heap, their events leave the heap, which keeps the dictionaries, posting lists and rollups only.
+     * Queries keep reading the runs they captured, and answer the same results from compacted runs.
+     *
+     * @param epochSecond The compaction horizon, in epoch seconds: the segments holding events at or after it are
+     *                    left hot.
+     * @return The number of compacted segments.
+     */
+    public int compactSegmentsBefore(long epochSecond) {
+        int compacted = 0;
+        for (Segment segment : segments.headMap(bucketStart(Math.min(epochSecond, MAX_TIMESTAMP)), false).values()) {
+            if (segment.compact(sequence.visible(), columnStorage)) {
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * @return The bytes of the events of the compacted segments kept off the heap.
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.offHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return An estimation of the heap used by the store, segments and dictionaries, in bytes.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += SEGMENT_ENTRY_BYTES + segment.estimatedBytes();
+        }
+        return bytes + userEventTypes.estimatedBytes() + users.estimatedBytes() + eventTypes.estimatedBytes();
+    }
+
+    /**
+     * @return The estimated heap used per stored event, in bytes, or 0 when the store is empty.
+     */
+    public double bytesPerEvent() {
+        long count = size.sum();
+        return count == 0 ? 0 : (double) estimatedBytes() / count;
+    }
+
+    int segmentSeconds() {
+        return segmentSeconds;
+    }
+
+    int sketchPrecision() {
+        return sketchPrecision;
+    }
+
+    /**
+     * Captures every segment, as a point-in-time view of the store.
+     *
+     * @return The sorted content of the segments, by segment start.
+     */
+    NavigableMap<Long, SegmentRun> segmentRuns() {
+        NavigableMap<Long, SegmentRun> runs = new TreeMap<>();
+        for (SegmentView view : views(Long.MIN_VALUE, Long.MAX_VALUE, EventTypeDictionary.UNKNOWN,
+                UserDictionary.UNKNOWN, true)) {
+            runs.put(view.start(), view.run());
+        }
+        return runs;
+    }
+
+    /**
+     * Adds a segment restored from a snapshot, whose users and event types are already in the dictionaries.
+     *
+     * @param start The start of the segment.
+     * @param run   The events of the segment.
+     */
+    void restoreSegment(long start, SegmentRun run) {
+        long stamp = viewLock.readLock();
+        try {
+            if (segments.putIfAbsent(start, Segment.of(start, sketchPrecision, userRollups, stripes, run)) != null) {
+                throw new IllegalStateException("Segment " + start + " is already in the store");
+            }
+            for (int index = 0; index < run.size(); index++) {
+                indexUser(EventKeys.user(run.key(index)), EventKeys.type(run.key(index)));
+            }
+            size.add(run.size());
+        } finally {
+            viewLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Captures a point-in-time view of the segments overlapping a period, without blocking the writers: their runs
+     * and the events of their tails of the batches visible when the capture starts. The capture starts over when a
+     * segment merged later batches meanwhile, which are then visible as well.
+     *
+     * @param type    The event type code of the rollups, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @param user    The user dictionary id of the rollups, or {@link UserDictionary#UNKNOWN} for none.
+     * @param ordered true for a single view per segment, its events in time order, false for a view of the run and
+     *                another one of the tails of a segment.
+     * @return The views of the segments, in time order.
+     */
+    private SegmentView[] views(long from, long to, byte type, int user, boolean ordered) {
+        Collection<Segment> overlapping = overlapping(from, to);
+        List<Segment> captured = new ArrayList<>();
+        List<Segment.Version> versions = new ArrayList<>();
+        capture:
+        while (true) {
+            captured.clear();
+            versions.clear();
+            long visible = sequence.visible();
+            for (Segment segment : overlapping) {
+                int rolledUpUser = covers(segment.start(), from, to) ? user : UserDictionary.UNKNOWN;
+                Segment.Version version = segment.version(visible, type, rolledUpUser);
+                if (version == null) {
+                    continue capture;
+                }
+                captured.add(segment);
+                versions.add(version);
+            }
+            break;
+        }
+        // The tails are sorted once the capture is over, out of the segment locks.
+        List<SegmentView> views = new ArrayList<>(versions.size());
+        for (int index = 0; index < versions.size(); index++) {
+            Segment current = captured.get(index);
+            Segment.Version version = versions.get(index);
+            if (version.tailSize() == 0) {
+                views.add(new SegmentView(current, version.run(), version.userCount(), true));
+            } else if (ordered) {
+                views.add(new SegmentView(current, version.run().merge(version.tail(), version.tailSize()), -1, false));
+            } else {
+                if (version.run().size() > 0) {
+                    views.add(new SegmentView(current, version.run(), version.userCount(), true));
+                }
+                views.add(new SegmentView(current, SegmentRun.EMPTY.merge(version.tail(), version.tailSize()), -1, false));
+            }
+        }
+        return views.toArray(new SegmentView[0]);
+    }
+
+    /**
+     * Aggregates the views of the segments overlapping a period, in parallel when the query pool is set and the
+     * segments to read hold at least {@link #parallelQueryRows} rows, sequentially otherwise.
+     *
+     * @param rollups    true if the segments covered by the period are answered from their rollups, without reading rows.
+     * @param identity   Creates an empty partial.
+     * @param aggregator Adds a segment to a partial.
+     * @param merge      Merges two partials.
+     */
+    private <A> A aggregate(SegmentView[] views, long from, long to, boolean rollups, Supplier<A> identity,
+                            SegmentAggregator<A> aggregator, BinaryOperator<A> merge, ScanStats stats) {
+        if (!isParallel(views, from, to, rollups)) {
+            A partial = identity.get();
+            for (SegmentView view : views) {
+                partial = aggregator.add(partial, view, stats);
+            }
+            return partial;
+        }
+        // A few tasks per worker balance the load without allocating a partial per segment.
+        int leafSegments = Math.max(1, views.length / (queryPool.getParallelism() * TASKS_PER_WORKER));
+        SegmentTask<A> task = new SegmentTask<>(views, 0, views.length, leafSegments, identity, aggregator, merge);
+        A result = ForkJoinTask.inForkJoinPool() ? task.invoke() : queryPool.invoke(task);
+        stats.add(task.stats);
+        return result;
+    }
+
+    private boolean isParallel(SegmentView[] views, long from, long to, boolean rollups) {
+        return queryPool != null && rowsToRead(views, from, to, rollups) >= parallelQueryRows;
+    }
+
+    private long rowsToRead(SegmentView[] views, long from, long to, boolean rollups) {
+        long rows = 0;
+        for (SegmentView view : views) {
+            if (!rollups || !covers(view.start(), from, to)) {
+                rows += view.run().size();
+                if (rows >= parallelQueryRows) {
+                    break;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private Segment newSegment(long start) {
+        return new Segment(start, sketchPrecision, userRollups, stripes);
+    }
+
+    // Called by the writers, under the view lock.
+    private void indexUser(int user, byte type) {
+        userEventTypes.add(user, type);
+        if (recentUserEventTypes != null) {
+            recentUserEventTypes.add(user, type);
+        }
+    }
+
+    private long bucketStart(long epochSecond) {
+        return Math.floorDiv(epochSecond, segmentSeconds) * segmentSeconds;
+    }
+
+    private Collection<Segment> overlapping(long from, long to) {
+        long fromStart = bucketStart(Math.max(from, MIN_TIMESTAMP));
+        long toStart = bucketStart(Math.min(to, MAX_TIMESTAMP));
+        if (fromStart > toStart) {
+            return List.of();
+        }
+        return segments.subMap(fromStart, true, toStart, true).values();
+    }
+
+    private boolean covers(long segmentStart, long from, long to) {
+        return from <= segmentStart && segmentStart + segmentSeconds - 1 <= to;
+    }
+
+    private int startIndex(SegmentRun run, long segmentStart, long from) {
+        return from <= segmentStart ? 0 : run.lowerBound((int) Math.min(from - segmentStart, segmentSeconds));
+    }
+
+    private int endIndex(SegmentRun run, long segmentStart, long to) {
+        long last = segmentStart + segmentSeconds - 1;
+        return to >= last ? run.size() : run.lowerBound((int) Math.max(to - segmentStart + 1, 0));
+    }
+
+    @FunctionalInterface
+    private interface SegmentAggregator<A> {
+
+        /**
+         * @return The partial with the matching events of the segment added, which may be the given one.
+         */
+        A add(A partial, SegmentView view, ScanStats stats);
+    }
+
+    /**
+     * Point-in-time version of a segment, or of part of its events.
+     *
+     * @param run       The sorted events of the segment.
+     * @param userCount The number of events of the user of the query, from the rollups of the segment, or -1 if
+     *                  they are not used.
+     * @param rolledUp  true if the events are the run of the segment, which its sketches include.
+     */
+    private record SegmentView(Segment segment, SegmentRun run, long userCount, boolean rolledUp) {
+
+        long start() {
+            return segment.start();
+        }
+    }
+
+    /**
+     * Fork-join task aggregating a range of segment views, split in halves down to a given number of segments.
+     * Tasks are never serialized, although fork-join tasks are serializable.
+     */
+    @SuppressWarnings("serial")
+    private static final class SegmentTask<A> extends RecursiveTask<A> {
+        private final SegmentView[] views;
+        private final int from;
+        private final int to;
+        private final int leafSegments;
+        private final Supplier<A> identity;
+        private final SegmentAggregator<A> aggregator;
+        private final BinaryOperator<A> merge;
+        private final ScanStats stats = new ScanStats();
+
+        private SegmentTask(SegmentView[] views, int from, int to, int leafSegments, Supplier<A> identity,
+                            SegmentAggregator<A> aggregator, BinaryOperator<A> merge) {
+            this.views = views;
+            this.from = from;
+            this.to = to;
+            this.leafSegments = leafSegments;
+            this.identity = identity;
+            this.aggregator = aggregator;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= leafSegments) {
+                A partial = identity.get();
+                for (int index = from; index < to; index++) {
+                    partial = aggregator.add(partial, views[index], stats);
+                }
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            SegmentTask<A> left = new SegmentTask<>(views, from, middle, leafSegments, identity, aggregator, merge);
+            SegmentTask<A> right = new SegmentTask<>(views, middle, to, leafSegments, identity, aggregator, merge);
+            left.fork();
+            A rightResult = right.compute();
+            A leftResult = left.join();
+            stats.add(left.stats);
+            stats.add(right.stats);
+            return merge.apply(leftResult, rightResult);
+        }
+    }
+
+    /**
+     * State of {@link #evaluate}: the results so far, and the counts scanning the current segment by event type.
+     */
+    private final class BatchEvaluation {
+        // Slot of the counts of all event types, following the slots of the event type codes.
+        private static final int ALL_TYPES = EventTypeDictionary.MAX_EVENT_TYPES;
+
+        private final StoreQuery[] queries;
+        private final long[] results;
+        private final RoaringBitmap[] distinctUsers;
+        private final int[][] pending = new int[ALL_TYPES + 1][];
+        private final int[] pendingSizes = new int[ALL_TYPES + 1];
+        // Keys of the first and last rows of each pending count in the current segment, inclusive.
+        private final long[] firstKeys;
+        private final long[] lastKeys;
+
+        private BatchEvaluation(List<StoreQuery> queries) {
+            this.queries = queries.toArray(new StoreQuery[0]);
+            this.results = new long[this.queries.length];
+            this.distinctUsers = new RoaringBitmap[this.queries.length];
+            this.firstKeys = new long[this.queries.length];
+            this.lastKeys = new long[this.queries.length];
+            for (int index = 0; index < this.queries.length; index++) {
+                if (this.queries[index].distinctUsers()) {
+                    distinctUsers[index] = new RoaringBitmap();
+                }
+            }
+        }
+
+        void visit(SegmentView view, ScanStats stats) {
+            Arrays.fill(pendingSizes, 0);
+            long last = view.start() + segmentSeconds - 1;
+            SegmentRun run = view.run();
+            int scanStart = Integer.MAX_VALUE;
+            int scanEnd = 0;
+            long matched = 0;
+            for (int index = 0; index < queries.length; index++) {
+                StoreQuery query = queries[index];
+                if (query.to() < view.start() || query.from() > last) {
+                    continue;
+                }
+                if (query.user() == UserDictionary.UNKNOWN && covers(view.start(), query.from(), query.to())) {
+                    long count = run.count(query.type());
+                    if (distinctUsers[index] != null) {
+                        run.addUsers(query.type(), distinctUsers[index]);
+                    } else {
+                        results[index] += count;
+                    }
+                    matched += count;
+                    continue;
+                }
+                int start = startIndex(run, view.start(), query.from());
+                int end = endIndex(run, view.start(), query.to());
+                if (start >= end) {
+                    continue;
+                }
+                firstKeys[index] = run.key(start);
+                lastKeys[index] = run.key(end - 1);
+                scanStart = Math.min(scanStart, start);
+                scanEnd = Math.max(scanEnd, end);
+                int slot = query.type() == EventTypeDictionary.UNKNOWN ? ALL_TYPES : query.type();
+                if (pending[slot] == null) {
+                    pending[slot] = new int[queries.length];
+                }
+                pending[slot][pendingSizes[slot]++] = index;
+            }
+            for (int row = scanStart; row < scanEnd; row++) {
+                long key = run.key(row);
+                matched += match(key, EventKeys.type(key)) + match(key, ALL_TYPES);
+            }
+            stats.scanned(Math.max(scanEnd - scanStart, 0));
+            stats.matched(matched);
+        }
+
+        long[] results() {
+            for (int index = 0; index < queries.length; index++) {
+                if (distinctUsers[index] != null) {
+                    results[index] = distinctUsers[index].getLongCardinality();
+                }
+            }
+            return results;
+        }
+
+        // Adds a row to the pending counts of a slot it matches, returning their number.
+        private int match(long key, int slot) {
+            int matched = 0;
+            int[] indexes = pending[slot];
+            for (int position = 0; position < pendingSizes[slot]; position++) {
+                int index = indexes[position];
+                StoreQuery query = queries[index];
+                if (key >= firstKeys[index] && key <= lastKeys[index]
+                        && (query.user() == UserDictionary.UNKNOWN || EventKeys.user(key) == query.user())) {
+                    if (distinctUsers[index] != null) {
+                        distinctUsers[index].add(EventKeys.user(key));
+                    } else {
+                        results[index]++;
+                    }
+                    matched++;
+                }
+            }
+            return matched;
+        }
+    }
+
+    /**
+     * Cursor walking the views of the overlapping segments in time order, each one from its first to its last matching index.
+     */
+    private final class SegmentCursor implements RowCursor {
+        private final SegmentView[] views;
+        private final long from;
+        private final long to;
+        private final byte type;
+        private final int user;
+        private final ScanStats stats;
+        private SegmentRun run = SegmentRun.EMPTY;
+        private long segmentStart;
+        private int nextView;
+        private int index;
+        private int end;
+        private long key;
+
+        private SegmentCursor(SegmentView[] views, long from, long to, byte type, int user, ScanStats stats) {
+            this.views = views;
+            this.from = from;
+            this.to = to;
+            this.type = type;
+            this.user = user;
+            this.stats = stats;
+        }
+
+        @Override
+        public boolean next() {
+            while (true) {
+                if (index < end) {
+                    index = run.next(index, end, type, user);
+                    if (index < end) {
+                        key = run.key(index++);
+                        stats.matched(1);
+                        return true;
+                    }
+                }
+                if (nextView == views.length) {
+                    return false;
+                }
+                SegmentView view = views[nextView++];
+                run = view.run();
+                segmentStart = view.start();
+                index = startIndex(run, segmentStart, from);
+                end = endIndex(run, segmentStart, to);
+                stats.scanned(Math.max(end - index, 0));
+            }
+        }
+
+        @Override
+        public int user() {
+            return EventKeys.user(key);
+        }
+
+        @Override
+        public long epochSecond() {
+            return segmentStart + EventKeys.offset(key);
+        }
+
+        @Override
+        public byte type() {
+            return EventKeys.type(key);
+        }
+    }
+}
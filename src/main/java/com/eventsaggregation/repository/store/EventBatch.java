@@ -0,0 +1,115 @@
+package com.eventsaggregation.repository.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer of dictionary-encoded events, filled by a single writer thread and inserted at once in a
+ * {@link ColumnarEventStore} with {@link ColumnarEventStore#insertBatch(EventBatch)}.
+ * <p>
+ * User ids and event types can be added straight from bytes: repeated values are resolved from a cache owned by
+ * the batch, so a parser does not need to create a String per line.
+ */
+public final class EventBatch {
+    private static final int USER_CACHE_CAPACITY = 1 << 14;
+    private static final int EVENT_TYPE_CACHE_CAPACITY = 64;
+
+    private final UserDictionary users;
+    private final EventTypeDictionary eventTypes;
+    private final ByteKeyCache userCache = new ByteKeyCache(USER_CACHE_CAPACITY);
+    private final ByteKeyCache eventTypeCache = new ByteKeyCache(EVENT_TYPE_CACHE_CAPACITY);
+    final int[] userColumn;
+    final long[] timestampColumn;
+    final byte[] typeColumn;
+    // Scratch space of the store, holding the packed key of each row during an insertion.
+    final long[] keys;
+    private int size;
+
+    EventBatch(UserDictionary users, EventTypeDictionary eventTypes, int capacity) {
+        this.users = users;
+        this.eventTypes = eventTypes;
+        this.userColumn = new int[capacity];
+        this.timestampColumn = new long[capacity];
+        this.typeColumn = new byte[capacity];
+        this.keys = new long[capacity];
+    }
+
+    /**
+     * Adds an event to the batch.
+     *
+     * @param userId      The ID of the user.
+     * @param epochSecond The timestamp of the event, in epoch seconds.
+     * @param event       The event type.
+     * @return false if the event was not added, its type being new while the dictionary of event types is full.
+     */
+    public boolean add(String userId, long epochSecond, String event) {
+        byte type = eventTypes.tryGetOrAdd(event);
+        return type != EventTypeDictionary.UNKNOWN && add(users.getOrAdd(userId), epochSecond, type);
+    }
+
+    /**
+     * Adds an event whose user id and event type are UTF-8 bytes of a buffer.
+     *
+     * @param buffer      The buffer holding the values, its position and limit are ignored.
+     * @param userStart   The index of the first byte of the user id.
+     * @param userEnd     The index following the last byte of the user id.
+     * @param epochSecond The timestamp of the event, in epoch seconds.
+     * @param eventStart  The index of the first byte of the event type.
+     * @param eventEnd    The index following the last byte of the event type.
+     * @return false if the event was not added, its type being new while the dictionary of event types is full.
+     */
+    public boolean add(ByteBuffer buffer, int userStart, int userEnd, long epochSecond, int eventStart, int eventEnd) {
+        // Rejected types are cached too, as UNKNOWN, so that their next lines are rejected without a lookup.
+        byte type = (byte) eventTypeCache.get(buffer, eventStart, eventEnd, eventTypes::tryGetOrAdd);
+        if (type == EventTypeDictionary.UNKNOWN) {
+            return false;
+        }
+        int user = userCache.get(buffer, userStart, userEnd, users::getOrAdd);
+        return add(user, epochSecond, type);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the event of a row was inserted by the last insertion of the batch, false for a duplicate.
+     */
+    public boolean isInserted(int index) {
+        return keys[index] != -1;
+    }
+
+    public String userId(int index) {
+        return users.nameOf(userColumn[index]);
+    }
+
+    /**
+     * @return The dictionary id of the user of an event.
+     */
+    public int user(int index) {
+        return userColumn[index];
+    }
+
+    public long epochSecond(int index) {
+        return timestampColumn[index];
+    }
+
+    public String event(int index) {
+        return eventTypes.nameOf(typeColumn[index]);
+    }
+
+    public boolean isFull() {
+        return size == userColumn.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private boolean add(int user, long epochSecond, byte type) {
+        userColumn[size] = user;
+        timestampColumn[size] = epochSecond;
+        typeColumn[size] = type;
+        size++;
+        return true;
+    }
+}
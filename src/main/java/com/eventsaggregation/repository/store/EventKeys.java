@@ -0,0 +1,78 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Packs the columns of an event of a segment in a single long, ordered by timestamp, then user, then event type:
+ * <pre>
+ *   bits 36..62 : offset of the timestamp from the start of the segment, in seconds
+ *   bits  5..35 : user dictionary id
+ *   bits  0..4  : event type code
+ * </pre>
+ * Sorting the keys sorts the events by timestamp, and two equal keys are the same event.
+ * <p>
+ * The key of an event of an offset below 2^16 and a user below 2^27 also splits in a char, its offset, and an int,
+ * its user and type, so that compacted segments store 6 bytes per event.
+ */
+final class EventKeys {
+    static final int MAX_OFFSET = (1 << 27) - 1;
+    private static final int OFFSET_SHIFT = 36;
+    private static final int USER_SHIFT = 5;
+    private static final long USER_MASK = 0x7FFFFFFFL;
+    private static final long TYPE_MASK = 0x1FL;
+    // Bits of the user above the 32 low bits of a key.
+    private static final long COMPACT_OVERFLOW_MASK = ((1L << OFFSET_SHIFT) - 1) & ~0xFFFFFFFFL;
+
+    private EventKeys() {
+    }
+
+    static long pack(int offset, int user, byte type) {
+        return ((long) offset << OFFSET_SHIFT) | ((long) user << USER_SHIFT) | type;
+    }
+
+    /**
+     * @return The smallest key having the given offset, to binary search the first event at or after it.
+     */
+    static long firstKeyAt(int offset) {
+        return (long) offset << OFFSET_SHIFT;
+    }
+
+    static int offset(long key) {
+        return (int) (key >>> OFFSET_SHIFT);
+    }
+
+    static int user(long key) {
+        return (int) ((key >>> USER_SHIFT) & USER_MASK);
+    }
+
+    static byte type(long key) {
+        return (byte) (key & TYPE_MASK);
+    }
+
+    /**
+     * @return true if the key can be split in a char offset and an int of its user and type.
+     */
+    static boolean isCompactable(long key) {
+        return offset(key) <= Character.MAX_VALUE && (key & COMPACT_OVERFLOW_MASK) == 0;
+    }
+
+    /**
+     * @return The user and type of a compactable key, as an int.
+     */
+    static int userAndType(long key) {
+        return (int) key;
+    }
+
+    static int userOf(int userAndType) {
+        return userAndType >>> USER_SHIFT;
+    }
+
+    static byte typeOf(int userAndType) {
+        return (byte) (userAndType & TYPE_MASK);
+    }
+
+    /**
+     * @return The key of an offset and of the user and type of a compactable key.
+     */
+    static long join(char offset, int userAndType) {
+        return firstKeyAt(offset) | (userAndType & 0xFFFFFFFFL);
+    }
+}
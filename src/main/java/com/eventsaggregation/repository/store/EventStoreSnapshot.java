@@ -0,0 +1,331 @@
+package com.eventsaggregation.repository.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a {@link ColumnarEventStore}, restored at startup instead of parsing the data files again.
+ * <p>
+ * The file holds a header, the two dictionaries in id order, then the sorted packed keys of each segment, and
+ * ends with the CRC32 of everything before it:
+ * <pre>
+ * magic:int version:int segmentSeconds:int fingerprint:long events:long users:int eventTypes:int segments:int
+ * users * (length:int utf8:byte[])
+ * eventTypes * (length:int utf8:byte[])
+ * segments * (start:long size:int keys:long[size])
+ * crc32:int
+ * </pre>
+ * The fingerprint identifies the data files the store was loaded from, a snapshot with another fingerprint or
+ * segment duration is stale. The sketches and the user event type index are rebuilt from the keys.
+ * Snapshots are read through memory-mapped windows, so a large snapshot never needs a heap copy of the file.
+ */
+public final class EventStoreSnapshot {
+    static final int MAGIC = 0x45564153;
+    static final int VERSION = 1;
+    private static final int MAX_NAME_BYTES = 1 << 20;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final long WINDOW_BYTES = 64L << 20;
+
+    private EventStoreSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of a store, replacing the file atomically once complete.
+     * Events inserted while writing may be missing from the snapshot.
+     *
+     * @param store       The store.
+     * @param fingerprint The fingerprint of the data loaded in the store.
+     * @param path        The file of the snapshot.
+     * @return The number of events written.
+     * @throws IOException if the file cannot be written.
+     */
+    public static long write(ColumnarEventStore store, long fingerprint, Path path) throws IOException {
+        NavigableMap<Long, SegmentRun> runs = store.segmentRuns();
+        // Dictionaries only grow, so their sizes read after the segments cover every key written.
+        int userCount = store.users().size();
+        int eventTypeCount = store.eventTypes().size();
+        long events = 0;
+        for (SegmentRun run : runs.values()) {
+            events += run.size();
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output output = new Output(channel);
+            output.putInt(MAGIC);
+            output.putInt(VERSION);
+            output.putInt(store.segmentSeconds());
+            output.putLong(fingerprint);
+            output.putLong(events);
+            output.putInt(userCount);
+            output.putInt(eventTypeCount);
+            output.putInt(runs.size());
+            for (int user = 0; user < userCount; user++) {
+                output.putName(store.users().nameOf(user));
+            }
+            for (int type = 0; type < eventTypeCount; type++) {
+                output.putName(store.eventTypes().nameOf(type));
+            }
+            for (Map.Entry<Long, SegmentRun> entry : runs.entrySet()) {
+                output.putLong(entry.getKey());
+                output.putInt(entry.getValue().size());
+                output.putLongs(entry.getValue().keys());
+            }
+            output.finish();
+            channel.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return events;
+    }
+
+    /**
+     * Restores a snapshot in an empty store, after verifying its checksum.
+     * No event may be inserted in the store until the restore returns, since a failed restore clears it.
+     *
+     * @param store       The store, which must be empty.
+     * @param fingerprint The fingerprint of the data the snapshot must hold.
+     * @param path        The file of the snapshot.
+     * @return true if the store was restored, false if the snapshot is missing or stale.
+     * @throws IOException if the snapshot cannot be read or is corrupt, the store being left empty.
+     */
+    public static boolean restore(ColumnarEventStore store, long fingerprint, Path path) throws IOException {
+        if (store.size() != 0 || store.users().size() != 0 || store.eventTypes().size() != 0) {
+            throw new IllegalStateException("Snapshots can only be restored in an empty store");
+        }
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long end = channel.size() - Integer.BYTES;
+            if (end < 0) {
+                throw new IOException("Snapshot " + path + " is truncated");
+            }
+            verifyChecksum(channel, end, path);
+            Input input = new Input(channel, end);
+            if (input.getInt() != MAGIC) {
+                throw new IOException(path + " is not a snapshot");
+            }
+            if (input.getInt() != VERSION || input.getInt() != store.segmentSeconds() || input.getLong() != fingerprint) {
+                return false;
+            }
+            read(input, store);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            store.clear();
+            throw e;
+        }
+    }
+
+    private static void verifyChecksum(FileChannel channel, long end, Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        for (long position = 0; position < end; position += WINDOW_BYTES) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, end - position)));
+        }
+        ByteBuffer stored = ByteBuffer.allocate(Integer.BYTES);
+        if (channel.read(stored, end) != Integer.BYTES || stored.getInt(0) != (int) crc.getValue()) {
+            throw new IOException("Checksum mismatch in snapshot " + path);
+        }
+    }
+
+    private static void read(Input input, ColumnarEventStore store) throws IOException {
+        long events = input.getLong();
+        int userCount = input.getInt();
+        int eventTypeCount = input.getInt();
+        int segmentCount = input.getInt();
+        if (userCount < 0 || eventTypeCount < 0 || eventTypeCount > EventTypeDictionary.MAX_EVENT_TYPES || segmentCount < 0) {
+            throw new IOException("Invalid snapshot header");
+        }
+        for (int user = 0; user < userCount; user++) {
+            if (store.users().getOrAdd(input.getName()) != user) {
+                throw new IOException("Duplicate user in snapshot");
+            }
+        }
+        for (int type = 0; type < eventTypeCount; type++) {
+            if (store.eventTypes().getOrAdd(input.getName()) != type) {
+                throw new IOException("Duplicate event type in snapshot");
+            }
+        }
+        long restored = 0;
+        long previousStart = Long.MIN_VALUE;
+        for (int segment = 0; segment < segmentCount; segment++) {
+            long start = input.getLong();
+            int size = input.getInt();
+            if (start <= previousStart || size < 0) {
+                throw new IOException("Invalid segment in snapshot");
+            }
+            long[] keys = new long[size];
+            input.getLongs(keys);
+            for (long key : keys) {
+                if (EventKeys.offset(key) >= store.segmentSeconds() || EventKeys.user(key) >= userCount
+                        || EventKeys.type(key) >= eventTypeCount) {
+                    throw new IOException("Invalid event in snapshot segment " + start);
+                }
+            }
+            try {
+                store.restoreSegment(start, SegmentRun.of(keys));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid segment in snapshot", e);
+            }
+            previousStart = start;
+            restored += size;
+        }
+        if (restored != events || !input.isAtEnd()) {
+            throw new IOException("Snapshot holds " + restored + " events instead of " + events);
+        }
+    }
+
+    /**
+     * Buffered writer of a file, computing the checksum of the bytes written.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        private final CRC32 crc = new CRC32();
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            require(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            require(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putLongs(long[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                require(Long.BYTES);
+                int count = Math.min(values.length - offset, buffer.remaining() / Long.BYTES);
+                buffer.asLongBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * Long.BYTES);
+                offset += count;
+            }
+        }
+
+        void putName(String name) throws IOException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                require(1);
+                int count = Math.min(bytes.length - offset, buffer.remaining());
+                buffer.put(bytes, offset, count);
+                offset += count;
+            }
+        }
+
+        /**
+         * Flushes the buffer then writes the checksum, which is not part of the checksummed bytes.
+         */
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reader of a file through a sliding memory-mapped window.
+     */
+    private static final class Input {
+        private final FileChannel channel;
+        private final long end;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+
+        private Input(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+        }
+
+        int getInt() throws IOException {
+            int value = window(Integer.BYTES).getInt(relative());
+            position += Integer.BYTES;
+            return value;
+        }
+
+        long getLong() throws IOException {
+            long value = window(Long.BYTES).getLong(relative());
+            position += Long.BYTES;
+            return value;
+        }
+
+        void getLongs(long[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ByteBuffer current = window(Long.BYTES);
+                int count = Math.min(values.length - offset, (current.limit() - relative()) / Long.BYTES);
+                current.slice(relative(), count * Long.BYTES).asLongBuffer().get(values, offset, count);
+                position += (long) count * Long.BYTES;
+                offset += count;
+            }
+        }
+
+        String getName() throws IOException {
+            int length = getInt();
+            if (length < 0 || length > MAX_NAME_BYTES) {
+                throw new IOException("Invalid name length in snapshot: " + length);
+            }
+            byte[] bytes = new byte[length];
+            window(length).get(relative(), bytes);
+            position += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        boolean isAtEnd() {
+            return position == end;
+        }
+
+        private int relative() {
+            return (int) (position - windowStart);
+        }
+
+        /**
+         * @return The window, moved if it does not hold the given number of bytes from the current position.
+         */
+        private MappedByteBuffer window(int bytes) throws IOException {
+            if (position + bytes > end) {
+                throw new IOException("Snapshot is truncated");
+            }
+            if (window == null || position + bytes > windowStart + window.limit()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, end - position));
+            }
+            return window;
+        }
+    }
+}
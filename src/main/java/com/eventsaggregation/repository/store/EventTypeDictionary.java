@@ -0,0 +1,105 @@
+package com.eventsaggregation.repository.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary encoding event types as byte codes.
+ * The number of event types is small (a maximum of 20 per the specification), so each code
+ * fits in a byte and a set of event types fits in an int bitmask.
+ */
+public final class EventTypeDictionary {
+    public static final int MAX_EVENT_TYPES = 32;
+    public static final byte UNKNOWN = -1;
+
+    private final ConcurrentMap<String, Byte> codes = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+
+    /**
+     * Returns the code of an event type.
+     *
+     * @param event The event type.
+     * @return The code of the event type, or {@link #UNKNOWN} if it was never seen.
+     */
+    public byte codeOf(String event) {
+        Byte code = codes.get(event);
+        return code == null ? UNKNOWN : code;
+    }
+
+    /**
+     * Returns the code of an event type, assigning a new one if it was never seen.
+     *
+     * @param event The event type.
+     * @return The code of the event type.
+     * @throws IllegalStateException if more than {@link #MAX_EVENT_TYPES} event types are registered.
+     */
+    public byte getOrAdd(String event) {
+        byte code = tryGetOrAdd(event);
+        if (code == UNKNOWN) {
+            throw new IllegalStateException("Too many event types, maximum is " + MAX_EVENT_TYPES + ": " + event);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of an event type, assigning a new one if it was never seen and there is room for it.
+     *
+     * @param event The event type.
+     * @return The code of the event type, or {@link #UNKNOWN} if it is new and {@link #MAX_EVENT_TYPES} event types
+     * are already registered.
+     */
+    public byte tryGetOrAdd(String event) {
+        Byte code = codes.get(event);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(event);
+            if (code != null) {
+                return code;
+            }
+            if (names.length >= MAX_EVENT_TYPES) {
+                return UNKNOWN;
+            }
+            String[] newNames = Arrays.copyOf(names, names.length + 1);
+            newNames[names.length] = event;
+            code = (byte) names.length;
+            names = newNames;
+            codes.put(event, code);
+            return code;
+        }
+    }
+
+    /**
+     * Returns the event type of a code.
+     *
+     * @param code The code of the event type.
+     * @return The event type.
+     */
+    public String nameOf(int code) {
+        return names[code];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            codes.clear();
+            names = new String[0];
+        }
+    }
+
+    /**
+     * @return An estimation of the heap used by the dictionary, in bytes.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (String name : names) {
+            bytes += MemoryEstimates.stringBytes(name) + MemoryEstimates.MAP_ENTRY_BYTES;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,68 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Counts of events, and optionally of distinct users, per time bucket and event type slot, built by
+ * {@link ColumnarEventStore#histogram}.
+ * Counters are primitive arrays indexed by bucket offset and slot, so a row is counted without any lookup.
+ */
+public final class Histogram {
+    private final long firstBucketStart;
+    private final int bucketSeconds;
+    private final int buckets;
+    private final int slots;
+    private final long[] counts;
+    // Distinct users per bucket and slot, null unless counted, and the (bucket, slot, user) triples already seen.
+    private final int[] distinctUsers;
+    private final LongHashSet seen;
+
+    Histogram(long firstBucketStart, int bucketSeconds, int buckets, int slots, boolean distinctUsers) {
+        this.firstBucketStart = firstBucketStart;
+        this.bucketSeconds = bucketSeconds;
+        this.buckets = buckets;
+        this.slots = slots;
+        this.counts = new long[buckets * slots];
+        this.distinctUsers = distinctUsers ? new int[buckets * slots] : null;
+        this.seen = distinctUsers ? new LongHashSet() : null;
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    /**
+     * @return The number of slots per bucket: one per event type code when grouped by event type, 1 otherwise.
+     */
+    public int slots() {
+        return slots;
+    }
+
+    /**
+     * @return The start of a bucket, in epoch seconds.
+     */
+    public long bucketStart(int bucket) {
+        return firstBucketStart + (long) bucket * bucketSeconds;
+    }
+
+    public long count(int bucket, int slot) {
+        return counts[bucket * slots + slot];
+    }
+
+    /**
+     * @return The number of distinct users of a bucket and slot, or -1 if distinct users are not counted.
+     */
+    public long distinctUsers(int bucket, int slot) {
+        return distinctUsers == null ? -1 : distinctUsers[bucket * slots + slot];
+    }
+
+    void add(int bucket, int slot, long count) {
+        counts[bucket * slots + slot] += count;
+    }
+
+    void addRow(int bucket, int slot, int user) {
+        int index = bucket * slots + slot;
+        counts[index]++;
+        if (seen != null && seen.add(((long) index << 31) | user)) {
+            distinctUsers[index]++;
+        }
+    }
+}
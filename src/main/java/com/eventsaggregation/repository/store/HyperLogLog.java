@@ -0,0 +1,203 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Mergeable HyperLogLog sketch estimating the number of distinct users.
+ * <p>
+ * A sketch of precision p has 2^p registers and a relative standard error of 1.04 / sqrt(2^p).
+ * Small sketches are kept sparse, as a table of the non-zero registers, and switch to a dense byte array
+ * once the table would be larger than it.
+ */
+public final class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    private static final int MIN_SPARSE_CAPACITY = 8;
+
+    private final int precision;
+    private byte[] registers;
+    // Sparse registers, each slot holds (index + 1) << 8 | value, 0 being an empty slot.
+    private int[] sparse;
+    private int sparseSize;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid HyperLogLog precision: " + precision);
+        }
+        this.precision = precision;
+        this.sparse = new int[MIN_SPARSE_CAPACITY];
+    }
+
+    /**
+     * Returns the smallest precision whose relative standard error does not exceed the given one.
+     *
+     * @param relativeError The target relative standard error, for instance 0.01 for 1%.
+     * @return The precision, clamped between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}.
+     */
+    public static int precisionFor(double relativeError) {
+        if (!(relativeError > 0)) {
+            throw new IllegalArgumentException("Invalid relative error: " + relativeError);
+        }
+        double registers = Math.pow(1.04 / relativeError, 2);
+        int precision = (int) Math.ceil(Math.log(registers) / Math.log(2));
+        return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    /**
+     * @return The relative standard error of the estimations of this sketch.
+     */
+    public double relativeError() {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * Adds a user to the sketch.
+     *
+     * @param user The user dictionary id.
+     */
+    public void addUser(int user) {
+        long hash = mix(user);
+        int index = (int) (hash >>> (64 - precision));
+        // The leading zeros of the remaining bits, bounded by a sentinel bit.
+        int value = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        set(index, value);
+    }
+
+    /**
+     * Merges another sketch of the same precision in this one.
+     *
+     * @param other The sketch to merge, left unchanged.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of precisions " + precision + " and " + other.precision);
+        }
+        if (other.registers != null) {
+            densify();
+            for (int index = 0; index < registers.length; index++) {
+                if (other.registers[index] > registers[index]) {
+                    registers[index] = other.registers[index];
+                }
+            }
+            return;
+        }
+        for (int entry : other.sparse) {
+            if (entry != 0) {
+                set((entry >>> 8) - 1, entry & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * @return The estimated number of distinct users added to the sketch.
+     */
+    public long estimate() {
+        int m = 1 << precision;
+        double sum = 0;
+        int zeros = 0;
+        if (registers != null) {
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+        } else {
+            zeros = m - sparseSize;
+            sum = zeros;
+            for (int entry : sparse) {
+                if (entry != 0) {
+                    sum += 1.0 / (1L << (entry & 0xFF));
+                }
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Linear counting is more accurate for small cardinalities.
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    long estimatedBytes() {
+        return MemoryEstimates.OBJECT_HEADER_BYTES + 16
+                + MemoryEstimates.ARRAY_HEADER_BYTES + (registers != null ? registers.length : (long) sparse.length * Integer.BYTES);
+    }
+
+    private void set(int index, int value) {
+        if (registers != null) {
+            if (value > registers[index]) {
+                registers[index] = (byte) value;
+            }
+            return;
+        }
+        int mask = sparse.length - 1;
+        int slot = (index * 0x9E3779B9) >>> 7 & mask;
+        while (sparse[slot] != 0) {
+            if ((sparse[slot] >>> 8) - 1 == index) {
+                if (value > (sparse[slot] & 0xFF)) {
+                    sparse[slot] = (index + 1) << 8 | value;
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        sparse[slot] = (index + 1) << 8 | value;
+        sparseSize++;
+        if (sparseSize * 2 > sparse.length) {
+            if ((long) sparse.length * 2 * Integer.BYTES >= 1 << precision) {
+                densify();
+            } else {
+                resizeSparse(sparse.length * 2);
+            }
+        }
+    }
+
+    private void resizeSparse(int capacity) {
+        int[] previous = sparse;
+        sparse = new int[capacity];
+        sparseSize = 0;
+        for (int entry : previous) {
+            if (entry != 0) {
+                set((entry >>> 8) - 1, entry & 0xFF);
+            }
+        }
+    }
+
+    private void densify() {
+        if (registers != null) {
+            return;
+        }
+        byte[] dense = new byte[1 << precision];
+        for (int entry : sparse) {
+            if (entry != 0) {
+                dense[(entry >>> 8) - 1] = (byte) (entry & 0xFF);
+            }
+        }
+        registers = dense;
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+
+    private static long mix(long value) {
+        // Finalizer of MurmurHash3, spreading consecutive dictionary ids over the whole hash space.
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
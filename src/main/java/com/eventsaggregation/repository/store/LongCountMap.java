@@ -0,0 +1,80 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Open addressing hash map of non-negative longs to int counters, without boxing.
+ */
+final class LongCountMap {
+    private static final long OCCUPIED = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] counts;
+    private int size;
+
+    LongCountMap() {
+        keys = new long[MIN_CAPACITY];
+        counts = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * Increments the counter of a key.
+     *
+     * @param key A non-negative key.
+     */
+    void increment(long key) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int slot = slot(keys, key | OCCUPIED);
+        if (keys[slot] == 0) {
+            keys[slot] = key | OCCUPIED;
+            size++;
+        }
+        counts[slot]++;
+    }
+
+    /**
+     * @return The counter of a key, 0 if it was never incremented.
+     */
+    int get(long key) {
+        int slot = slot(keys, key | OCCUPIED);
+        return keys[slot] == 0 ? 0 : counts[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long estimatedBytes() {
+        return 2L * MemoryEstimates.ARRAY_HEADER_BYTES + (long) keys.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    // The slot holding a key, or the empty slot where it would be inserted.
+    private static int slot(long[] table, long marked) {
+        int mask = table.length - 1;
+        int slot = mix(marked) & mask;
+        while (table[slot] != 0 && table[slot] != marked) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] previousKeys = keys;
+        int[] previousCounts = counts;
+        keys = new long[capacity];
+        counts = new int[capacity];
+        for (int index = 0; index < previousKeys.length; index++) {
+            if (previousKeys[index] != 0) {
+                int slot = slot(keys, previousKeys[index]);
+                keys[slot] = previousKeys[index];
+                counts[slot] = previousCounts[index];
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,72 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Open addressing hash set of non-negative longs, without boxing.
+ */
+final class LongHashSet {
+    private static final long OCCUPIED = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] slots;
+    private int size;
+
+    LongHashSet() {
+        slots = new long[MIN_CAPACITY];
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value A non-negative value.
+     * @return true if the value was added, false if it was already present.
+     */
+    boolean add(long value) {
+        if ((size + 1) * 2 > slots.length) {
+            resize(slots.length * 2);
+        }
+        return insert(slots, value | OCCUPIED);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        slots = new long[MIN_CAPACITY];
+        size = 0;
+    }
+
+    long estimatedBytes() {
+        return MemoryEstimates.ARRAY_HEADER_BYTES + (long) slots.length * Long.BYTES;
+    }
+
+    private boolean insert(long[] table, long marked) {
+        int mask = table.length - 1;
+        int slot = mix(marked) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == marked) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = marked;
+        size++;
+        return true;
+    }
+
+    private void resize(int capacity) {
+        long[] previous = slots;
+        slots = new long[capacity];
+        size = 0;
+        for (long marked : previous) {
+            if (marked != 0) {
+                insert(slots, marked);
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
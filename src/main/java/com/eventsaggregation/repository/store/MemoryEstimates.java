@@ -0,0 +1,24 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Approximate object sizes on a 64-bit JVM with compressed oops, used to report the memory footprint of the store.
+ */
+final class MemoryEstimates {
+    static final int REFERENCE_BYTES = 4;
+    static final int OBJECT_HEADER_BYTES = 12;
+    static final int ARRAY_HEADER_BYTES = 16;
+    static final int BOXED_INT_BYTES = 16;
+    static final int MAP_ENTRY_BYTES = 32 + REFERENCE_BYTES;
+
+    private MemoryEstimates() {
+    }
+
+    static long stringBytes(String value) {
+        // String object (24 bytes) plus its latin1 byte array.
+        return 24 + align(ARRAY_HEADER_BYTES + value.length());
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
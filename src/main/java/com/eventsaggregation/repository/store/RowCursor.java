@@ -0,0 +1,21 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Forward-only cursor over the rows of the store matching a query.
+ * The accessors return the columns of the current row, after {@link #next()} returned true.
+ */
+public interface RowCursor {
+
+    /**
+     * Moves the cursor to the next matching row.
+     *
+     * @return true if a row is available, false when the cursor is exhausted.
+     */
+    boolean next();
+
+    int user();
+
+    long epochSecond();
+
+    byte type();
+}
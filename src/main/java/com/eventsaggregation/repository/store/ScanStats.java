@@ -0,0 +1,38 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * Work done by a query, owned by the thread running it, or by each task of a parallel query: the rows of the edge
+ * segments read one by one, and the rows matching the query, including the ones counted from the rollups of covered
+ * segments.
+ */
+public final class ScanStats {
+    private long scanned;
+    private long matched;
+
+    void scanned(long rows) {
+        scanned += rows;
+    }
+
+    void matched(long rows) {
+        matched += rows;
+    }
+
+    void add(ScanStats other) {
+        scanned += other.scanned;
+        matched += other.matched;
+    }
+
+    /**
+     * @return The number of rows read.
+     */
+    public long scanned() {
+        return scanned;
+    }
+
+    /**
+     * @return The number of rows matching the query.
+     */
+    public long matched() {
+        return matched;
+    }
+}
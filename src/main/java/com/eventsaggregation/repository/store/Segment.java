@@ -0,0 +1,423 @@
+package com.eventsaggregation.repository.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Events of one time bucket of the store.
+ * <p>
+ * New events are appended to unsorted tails, one per stripe of users, each stripe having its own lock, so that
+ * writers of different users never contend. Each event of a tail is tagged with the sequence number of its batch, see
+ * {@link BatchSequence}. Tails are merged into an immutable run sorted by timestamp by the writers once they
+ * committed their batch, when a tail grows too large, or by the maintenance of the store. A merge only moves the
+ * events of the batches visible at the time, so a run never holds part of a batch. A run never changes once
+ * published.
+ * <p>
+ * Queries never merge: they capture the run and copy the events of the tails visible to them, under the segment
+ * lock, which only merges hold otherwise, see {@link #version}.
+ * <p>
+ * Each run counts its events per event type. The segment also keeps rollups of the events of its run, updated when
+ * tails are merged, under the segment lock: optionally the number of events per user and event type, and a
+ * HyperLogLog sketch of its users per event type, to estimate distinct users.
+ * <p>
+ * Locks are taken in a fixed order, stripes by index before the segment, so that merges never deadlock.
+ */
+final class Segment {
+    static final int DEFAULT_STRIPES = 8;
+    private static final int MIN_TAIL_CAPACITY = 16;
+    private static final int MIN_MERGE_THRESHOLD = 1024;
+
+    private final long start;
+    private final int sketchPrecision;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private volatile SegmentRun run = SegmentRun.EMPTY;
+    // The highest batch sequence number of the events of the run, guarded by the segment lock.
+    private long mergedSequence;
+    // Rollups of the run, guarded by the segment lock.
+    private final HyperLogLog[] sketches = new HyperLogLog[EventTypeDictionary.MAX_EVENT_TYPES];
+    // Number of events per user and event type, keyed by userTypeKey, null unless user rollups are enabled.
+    private final LongCountMap userTypeCounts;
+
+    /**
+     * @param stripes The number of tails, a power of two.
+     */
+    Segment(long start, int sketchPrecision, boolean userRollups, int stripes) {
+        if (stripes < 1 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+        }
+        this.start = start;
+        this.sketchPrecision = sketchPrecision;
+        this.userTypeCounts = userRollups ? new LongCountMap() : null;
+        this.stripes = new Stripe[stripes];
+        this.stripeMask = stripes - 1;
+        for (int index = 0; index < stripes; index++) {
+            this.stripes[index] = new Stripe();
+        }
+    }
+
+    /**
+     * Creates a segment holding the events of a run, rebuilding its rollups.
+     */
+    static Segment of(long start, int sketchPrecision, boolean userRollups, int stripes, SegmentRun run) {
+        Segment segment = new Segment(start, sketchPrecision, userRollups, stripes);
+        for (int index = 0; index < run.size(); index++) {
+            segment.rollUp(run.key(index));
+        }
+        segment.run = run;
+        return segment;
+    }
+
+    /**
+     * @return The start of the time bucket, in epoch seconds.
+     */
+    long start() {
+        return start;
+    }
+
+    /**
+     * Inserts an event, unless it is already in the segment.
+     *
+     * @param key      The packed key of the event, see {@link EventKeys}.
+     * @param sequence The sequence number of the batch of the event.
+     * @return true if the event was inserted.
+     */
+    boolean insert(long key, long sequence) {
+        Stripe stripe = stripes[EventKeys.user(key) & stripeMask];
+        stripe.lock();
+        try {
+            return add(stripe, key, sequence);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Inserts events, skipping the ones already in the segment.
+     * The events of each stripe are inserted under a single lock of the stripe, starting from a random stripe so that
+     * concurrent batches do not queue behind each other.
+     *
+     * @param keys     The packed keys of the events, see {@link EventKeys}. The keys of duplicates are replaced by -1.
+     * @param from     The index of the first key to insert.
+     * @param to       The index following the last key to insert.
+     * @param sequence The sequence number of the batch of the events.
+     * @return The number of inserted events.
+     */
+    int insertAll(long[] keys, int from, int to, long sequence) {
+        int inserted = 0;
+        int first = ThreadLocalRandom.current().nextInt(stripes.length);
+        for (int offset = 0; offset < stripes.length; offset++) {
+            int index = (first + offset) & stripeMask;
+            Stripe stripe = stripes[index];
+            stripe.lock();
+            try {
+                for (int row = from; row < to; row++) {
+                    long key = keys[row];
+                    if (key < 0 || (EventKeys.user(key) & stripeMask) != index) {
+                        continue;
+                    }
+                    if (add(stripe, key, sequence)) {
+                        inserted++;
+                    } else {
+                        keys[row] = -1;
+                    }
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Merges the tails grown past a fraction of the run, called by writers once their batch is committed.
+     *
+     * @param visible The sequence number of the last batch visible to queries.
+     */
+    void mergeLargeTails(long visible) {
+        // Merging when the tails reach a fraction of the run keeps the amortized cost of an insert logarithmic, and
+        // bounds the events queries copy from the tails whatever the number of stripes.
+        int threshold = Math.max(MIN_MERGE_THRESHOLD, run.size() / 4) / stripes.length;
+        for (Stripe stripe : stripes) {
+            if (stripe.tailSize >= threshold && stripe.tryLock()) {
+                try {
+                    synchronized (this) {
+                        mergeTails(visible, stripe);
+                    }
+                } finally {
+                    stripe.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the events of every tail visible to queries into the run.
+     *
+     * @param visible The sequence number of the last batch visible to queries.
+     * @return The run, holding every event of the batches up to {@code visible}.
+     */
+    SegmentRun merge(long visible) {
+        if (!hasTails()) {
+            return run;
+        }
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            synchronized (this) {
+                mergeTails(visible, stripes);
+                return run;
+            }
+        } finally {
+            for (Stripe stripe : stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Captures the events of the batches visible to a query, without merging: the run, and a copy of the events of
+     * the tails up to the given sequence number.
+     *
+     * @param visible The sequence number of the last batch visible to the query.
+     * @param type    The event type code of the rollups, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @param user    The user dictionary id of the rollups, or {@link UserDictionary#UNKNOWN} for none.
+     * @return The version, or null if the run already holds events of batches after {@code visible}.
+     */
+    synchronized Version version(long visible, byte type, int user) {
+        if (mergedSequence > visible) {
+            return null;
+        }
+        long[] tail = null;
+        int tailSize = 0;
+        for (Stripe stripe : stripes) {
+            // Only appends change the tails meanwhile, publishing the size after the rows.
+            int rows = stripe.tailSize;
+            long[] entries = stripe.tail;
+            for (int row = 0; row < rows; row++) {
+                if (entries[2 * row + 1] <= visible) {
+                    if (tail == null) {
+                        tail = new long[Math.max(MIN_TAIL_CAPACITY, rows)];
+                    } else if (tailSize == tail.length) {
+                        tail = Arrays.copyOf(tail, tailSize * 2);
+                    }
+                    tail[tailSize++] = entries[2 * row];
+                }
+            }
+        }
+        long userCount = user != UserDictionary.UNKNOWN && userTypeCounts != null
+                ? userTypeCounts.get(userTypeKey(user, type)) : -1;
+        return new Version(run, tail, tailSize, userCount);
+    }
+
+    /**
+     * Merges the visible events of the tails and replaces the run by its compacted form, see
+     * {@link SegmentRun#compact(ColumnStorage)}. A later merge turns the compacted run back into a hot one.
+     *
+     * @param visible The sequence number of the last batch visible to queries.
+     * @param storage The storage of the columns of the compacted run.
+     * @return true if the run was compacted.
+     */
+    boolean compact(long visible, ColumnStorage storage) {
+        SegmentRun current = merge(visible);
+        if (current.isCompacted()) {
+            return false;
+        }
+        SegmentRun compacted = current.compact(storage);
+        synchronized (this) {
+            // Events merged while compacting are kept, the segment is compacted again by a later call.
+            if (run != current || compacted == current) {
+                return false;
+            }
+            run = compacted;
+            return true;
+        }
+    }
+
+    /**
+     * Merges the sketch of the users of the run of the segment in another sketch.
+     *
+     * @param type   The event type code, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @param target The sketch receiving the users.
+     */
+    synchronized void mergeSketch(byte type, HyperLogLog target) {
+        for (int code = 0; code < sketches.length; code++) {
+            if (sketches[code] != null && (type == EventTypeDictionary.UNKNOWN || type == code)) {
+                target.merge(sketches[code]);
+            }
+        }
+    }
+
+    long offHeapBytes() {
+        return run.offHeapBytes();
+    }
+
+    synchronized long estimatedBytes() {
+        long bytes = run.estimatedBytes();
+        for (Stripe stripe : stripes) {
+            bytes += stripe.estimatedBytes();
+        }
+        if (userTypeCounts != null) {
+            bytes += userTypeCounts.estimatedBytes();
+        }
+        for (HyperLogLog sketch : sketches) {
+            if (sketch != null) {
+                bytes += sketch.estimatedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private boolean hasTails() {
+        for (Stripe stripe : stripes) {
+            if (stripe.tailSize > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Called under the lock of the stripe, the only one holding the keys of its users.
+    private boolean add(Stripe stripe, long key, long sequence) {
+        return !run.contains(key) && stripe.append(key, sequence);
+    }
+
+    // Called under the locks of the stripes and of the segment, moves the events of the visible batches to the run.
+    private void mergeTails(long visible, Stripe... merged) {
+        int size = 0;
+        for (Stripe stripe : merged) {
+            size += stripe.tailSize;
+        }
+        if (size == 0) {
+            return;
+        }
+        long[] added = new long[size];
+        int addedSize = 0;
+        for (Stripe stripe : merged) {
+            addedSize = stripe.removeVisible(visible, added, addedSize);
+        }
+        if (addedSize == 0) {
+            return;
+        }
+        for (int index = 0; index < addedSize; index++) {
+            rollUp(added[index]);
+        }
+        run = run.merge(added, addedSize);
+        mergedSequence = Math.max(mergedSequence, visible);
+    }
+
+    private void rollUp(long key) {
+        byte type = EventKeys.type(key);
+        int user = EventKeys.user(key);
+        if (userTypeCounts != null) {
+            userTypeCounts.increment(userTypeKey(user, type));
+            userTypeCounts.increment(userTypeKey(user, EventTypeDictionary.UNKNOWN));
+        }
+        sketch(type).addUser(user);
+    }
+
+    // Key of the counter of a user and event type, the counter of all the events of the user following the types.
+    private static long userTypeKey(int user, byte type) {
+        int slot = type == EventTypeDictionary.UNKNOWN ? EventTypeDictionary.MAX_EVENT_TYPES : type;
+        return (long) user * (EventTypeDictionary.MAX_EVENT_TYPES + 1) + slot;
+    }
+
+    private HyperLogLog sketch(byte type) {
+        if (sketches[type] == null) {
+            sketches[type] = new HyperLogLog(sketchPrecision);
+        }
+        return sketches[type];
+    }
+
+    /**
+     * Version of a segment captured by a query.
+     *
+     * @param run       The sorted events of the segment merged so far.
+     * @param tail      The unsorted events of the tails visible to the query, null if none.
+     * @param tailSize  The number of events of the tail.
+     * @param userCount The number of events of the user of the query in the run, from the rollups of the segment, or
+     *                  -1 if they are not used.
+     */
+    record Version(SegmentRun run, long[] tail, int tailSize, long userCount) {
+    }
+
+    /**
+     * Unsorted tail of the new events of the users whose dictionary id falls in the stripe, guarded by its lock.
+     * Each event takes two longs of the tail, its key then the sequence number of its batch. Queries read the tail
+     * without the lock of the stripe, under the segment lock: appends write the rows before publishing the size, and
+     * only merges, under the segment lock, remove rows. Stripes are never serialized, although locks are serializable.
+     */
+    @SuppressWarnings("serial")
+    private static final class Stripe extends ReentrantLock {
+        private static final long[] EMPTY_TAIL = new long[0];
+
+        private volatile long[] tail = EMPTY_TAIL;
+        private volatile int tailSize;
+        // Null while the tail is empty, as most segments are only written for a while.
+        private LongHashSet tailKeys;
+
+        /**
+         * @return false if the key is already in the tail.
+         */
+        boolean append(long key, long sequence) {
+            if (tailKeys == null) {
+                tailKeys = new LongHashSet();
+            }
+            if (!tailKeys.add(key)) {
+                return false;
+            }
+            int size = tailSize;
+            long[] entries = tail;
+            if (2 * size == entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(2 * MIN_TAIL_CAPACITY, entries.length * 2));
+                tail = entries;
+            }
+            entries[2 * size] = key;
+            entries[2 * size + 1] = sequence;
+            tailSize = size + 1;
+            return true;
+        }
+
+        /**
+         * Moves the keys of the visible batches out of the tail, keeping the other ones.
+         *
+         * @return The number of keys in {@code target}.
+         */
+        int removeVisible(long visible, long[] target, int targetSize) {
+            long[] entries = tail;
+            int size = tailSize;
+            int kept = 0;
+            for (int row = 0; row < size; row++) {
+                if (entries[2 * row + 1] <= visible) {
+                    target[targetSize++] = entries[2 * row];
+                } else {
+                    entries[2 * kept] = entries[2 * row];
+                    entries[2 * kept + 1] = entries[2 * row + 1];
+                    kept++;
+                }
+            }
+            if (kept == 0) {
+                tail = EMPTY_TAIL;
+                tailSize = 0;
+                tailKeys = null;
+            } else if (kept < size) {
+                tailSize = kept;
+                tailKeys = new LongHashSet();
+                for (int row = 0; row < kept; row++) {
+                    tailKeys.add(entries[2 * row]);
+                }
+            }
+            return targetSize;
+        }
+
+        long estimatedBytes() {
+            // Read without the lock of the stripe, the fields may change concurrently.
+            long[] currentTail = tail;
+            LongHashSet currentKeys = tailKeys;
+            long bytes = MemoryEstimates.ARRAY_HEADER_BYTES + (long) currentTail.length * Long.BYTES;
+            return currentKeys == null ? bytes : bytes + currentKeys.estimatedBytes();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.eventsaggregation.repository.store;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable, sorted content of a {@link Segment}: the packed keys of its events, see {@link EventKeys},
+ * their number per event type and the posting list of the users of each event type, a compressed bitmap of their
+ * dictionary ids, so that a run is a consistent point-in-time version of its segment.
+ * <p>
+ * A run is either hot, its keys being stored as longs, or compacted, each key being split in a char offset and an int
+ * of its user and type, 6 bytes instead of 8, see {@link #compact(ColumnStorage)}. The columns of compacted runs may
+ * be off the heap. Both forms hold the same events in the same order, and scans of compacted runs match users and
+ * types on the ints, without decoding the keys.
+ */
+final class SegmentRun {
+    static final SegmentRun EMPTY = new SegmentRun(new long[0], new int[EventTypeDictionary.MAX_EVENT_TYPES],
+            new RoaringBitmap[EventTypeDictionary.MAX_EVENT_TYPES]);
+
+    // Heap footprint of a view of a direct buffer, its content being off the heap.
+    private static final int DIRECT_BUFFER_BYTES = 64;
+
+    // Null when the run is compacted.
+    private final long[] keys;
+    // Null unless the run is compacted.
+    private final CharBuffer offsets;
+    private final IntBuffer userAndTypes;
+    private final int size;
+    private final int[] typeCounts;
+    // Users per event type code, null for the types without events. Never modified once the run is created.
+    private final RoaringBitmap[] users;
+
+    private SegmentRun(long[] keys, int[] typeCounts, RoaringBitmap[] users) {
+        this.keys = keys;
+        this.offsets = null;
+        this.userAndTypes = null;
+        this.size = keys.length;
+        this.typeCounts = typeCounts;
+        this.users = users;
+    }
+
+    private SegmentRun(CharBuffer offsets, IntBuffer userAndTypes, int[] typeCounts, RoaringBitmap[] users) {
+        this.keys = null;
+        this.offsets = offsets;
+        this.userAndTypes = userAndTypes;
+        this.size = offsets.capacity();
+        this.typeCounts = typeCounts;
+        this.users = users;
+    }
+
+    /**
+     * Creates a run from keys already sorted, for instance read from a snapshot.
+     *
+     * @param keys The keys of the run, in strictly increasing order. The array is not copied.
+     * @return The run.
+     * @throws IllegalArgumentException if the keys are not strictly increasing.
+     */
+    static SegmentRun of(long[] keys) {
+        for (int index = 0; index < keys.length; index++) {
+            if (keys[index] < 0 || (index > 0 && keys[index] <= keys[index - 1])) {
+                throw new IllegalArgumentException("Keys are not sorted at index " + index);
+            }
+        }
+        int[] typeCounts = new int[EventTypeDictionary.MAX_EVENT_TYPES];
+        for (long key : keys) {
+            typeCounts[EventKeys.type(key)]++;
+        }
+        RoaringBitmap[] users = new RoaringBitmap[EventTypeDictionary.MAX_EVENT_TYPES];
+        addUsers(users, keys, keys.length);
+        return new SegmentRun(keys, typeCounts, users);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param type The event type code, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @return The number of events of the type.
+     */
+    int count(byte type) {
+        return type == EventTypeDictionary.UNKNOWN ? size : typeCounts[type];
+    }
+
+    /**
+     * Adds the users having events of a type to a bitmap, from the posting lists of the run.
+     *
+     * @param type   The event type code, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @param target The bitmap receiving the user dictionary ids.
+     */
+    void addUsers(byte type, RoaringBitmap target) {
+        for (int code = 0; code < users.length; code++) {
+            if (users[code] != null && (type == EventTypeDictionary.UNKNOWN || type == code)) {
+                target.or(users[code]);
+            }
+        }
+    }
+
+    /**
+     * @return The keys of the run, which must not be modified, decoded in a new array when the run is compacted.
+     */
+    long[] keys() {
+        if (keys != null) {
+            return keys;
+        }
+        long[] decoded = new long[size];
+        for (int index = 0; index < size; index++) {
+            decoded[index] = EventKeys.join(offsets.get(index), userAndTypes.get(index));
+        }
+        return decoded;
+    }
+
+    long key(int index) {
+        return keys != null ? keys[index] : EventKeys.join(offsets.get(index), userAndTypes.get(index));
+    }
+
+    /**
+     * Finds the next event matching a type and a user, reading compacted runs without decoding their keys.
+     *
+     * @param from The index of the first event to read.
+     * @param to   The index following the last event to read.
+     * @param type The event type code, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+     * @param user The user dictionary id, or {@link UserDictionary#UNKNOWN} for all users.
+     * @return The index of the first matching event, or {@code to} if none.
+     */
+    int next(int from, int to, byte type, int user) {
+        if (keys != null) {
+            for (int index = from; index < to; index++) {
+                if (matches(keys[index], type, user)) {
+                    return index;
+                }
+            }
+            return to;
+        }
+        for (int index = from; index < to; index++) {
+            if (matches(userAndTypes.get(index), type, user)) {
+                return index;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Counts the events matching a type and a user in a range of indexes.
+     *
+     * @see #next(int, int, byte, int)
+     */
+    int count(int from, int to, byte type, int user) {
+        int count = 0;
+        if (keys != null) {
+            for (int index = from; index < to; index++) {
+                if (matches(keys[index], type, user)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        for (int index = from; index < to; index++) {
+            if (matches(userAndTypes.get(index), type, user)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    boolean contains(long key) {
+        if (keys != null) {
+            return Arrays.binarySearch(keys, key) >= 0;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long candidate = key(middle);
+            if (candidate < key) {
+                low = middle + 1;
+            } else if (candidate > key) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The index of the first event whose offset is greater than or equal to the given one.
+     */
+    int lowerBound(int offset) {
+        int low = 0;
+        int high = size;
+        if (keys == null) {
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (offsets.get(middle) < offset) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+        long target = EventKeys.firstKeyAt(offset);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return true if the keys of the run are split in offsets and users and types.
+     */
+    boolean isCompacted() {
+        return keys == null;
+    }
+
+    /**
+     * Compacts the run, sharing its counts and posting lists.
+     *
+     * @param storage The storage of the columns of the compacted run.
+     * @return The compacted run holding the same events, or this run if it is already compacted, holds an offset or
+     * a user too large to be compacted, see {@link EventKeys#isCompactable(long)}, or too many events for the storage,
+     * see {@link ColumnStorage#canAllocate(int)}.
+     * @throws java.io.UncheckedIOException if the columns cannot be allocated.
+     */
+    SegmentRun compact(ColumnStorage storage) {
+        if (keys == null || !storage.canAllocate(size)) {
+            return this;
+        }
+        for (long key : keys) {
+            if (!EventKeys.isCompactable(key)) {
+                return this;
+            }
+        }
+        ColumnStorage.Columns columns = storage.allocate(size);
+        for (int index = 0; index < size; index++) {
+            columns.offsets().put(index, (char) EventKeys.offset(keys[index]));
+            columns.userAndTypes().put(index, EventKeys.userAndType(keys[index]));
+        }
+        return new SegmentRun(columns.offsets(), columns.userAndTypes(), typeCounts, users);
+    }
+
+    /**
+     * @return The bytes of the run on the heap.
+     */
+    long estimatedBytes() {
+        long bytes;
+        if (keys != null) {
+            bytes = MemoryEstimates.align(MemoryEstimates.ARRAY_HEADER_BYTES + (long) size * Long.BYTES);
+        } else if (offsets.isDirect()) {
+            bytes = 2 * DIRECT_BUFFER_BYTES;
+        } else {
+            bytes = MemoryEstimates.align(MemoryEstimates.ARRAY_HEADER_BYTES + (long) size * Character.BYTES)
+                    + MemoryEstimates.align(MemoryEstimates.ARRAY_HEADER_BYTES + (long) size * Integer.BYTES);
+        }
+        bytes += MemoryEstimates.ARRAY_HEADER_BYTES + (long) typeCounts.length * Integer.BYTES
+                + MemoryEstimates.ARRAY_HEADER_BYTES + (long) users.length * MemoryEstimates.REFERENCE_BYTES;
+        for (RoaringBitmap bitmap : users) {
+            if (bitmap != null) {
+                bytes += bitmap.getLongSizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The bytes of the columns of the run off the heap, in direct buffers or mapped files.
+     */
+    long offHeapBytes() {
+        return keys == null && offsets.isDirect() ? (long) size * (Character.BYTES + Integer.BYTES) : 0;
+    }
+
+    /**
+     * Merges new events in a run. The merged run is hot, even if this one is compacted.
+     *
+     * @param added     The keys of the new events, unsorted and absent from this run. The array is sorted in place.
+     * @param addedSize The number of keys to merge.
+     * @return A new run containing the events of both.
+     */
+    SegmentRun merge(long[] added, int addedSize) {
+        Arrays.sort(added, 0, addedSize);
+        int[] mergedCounts = typeCounts.clone();
+        for (int index = 0; index < addedSize; index++) {
+            mergedCounts[EventKeys.type(added[index])]++;
+        }
+        // The posting lists of this run may be read concurrently, the ones of the types receiving users are copied.
+        RoaringBitmap[] mergedUsers = users.clone();
+        for (int code = 0; code < mergedUsers.length; code++) {
+            if (mergedCounts[code] != typeCounts[code] && mergedUsers[code] != null) {
+                mergedUsers[code] = mergedUsers[code].clone();
+            }
+        }
+        addUsers(mergedUsers, added, addedSize);
+        long[] merged = new long[size + addedSize];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < size && j < addedSize) {
+            long key = key(i);
+            if (key < added[j]) {
+                merged[k++] = key;
+                i++;
+            } else {
+                merged[k++] = added[j++];
+            }
+        }
+        while (i < size) {
+            merged[k++] = key(i++);
+        }
+        System.arraycopy(added, j, merged, k, addedSize - j);
+        return new SegmentRun(merged, mergedCounts, mergedUsers);
+    }
+
+    private static boolean matches(long key, byte type, int user) {
+        return (type == EventTypeDictionary.UNKNOWN || EventKeys.type(key) == type)
+                && (user == UserDictionary.UNKNOWN || EventKeys.user(key) == user);
+    }
+
+    private static boolean matches(int userAndType, byte type, int user) {
+        return (type == EventTypeDictionary.UNKNOWN || EventKeys.typeOf(userAndType) == type)
+                && (user == UserDictionary.UNKNOWN || EventKeys.userOf(userAndType) == user);
+    }
+
+    // Adds the users of keys to the posting lists of their event types, creating the missing ones.
+    private static void addUsers(RoaringBitmap[] users, long[] keys, int size) {
+        boolean[] changed = new boolean[users.length];
+        for (int index = 0; index < size; index++) {
+            byte type = EventKeys.type(keys[index]);
+            if (users[type] == null) {
+                users[type] = new RoaringBitmap();
+            }
+            users[type].add(EventKeys.user(keys[index]));
+            changed[type] = true;
+        }
+        for (int code = 0; code < users.length; code++) {
+            if (changed[code]) {
+                users[code].runOptimize();
+            }
+        }
+    }
+}
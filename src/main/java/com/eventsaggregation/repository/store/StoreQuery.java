@@ -0,0 +1,21 @@
+package com.eventsaggregation.repository.store;
+
+/**
+ * A count of a batch evaluated by {@link ColumnarEventStore#evaluate}.
+ *
+ * @param from          The start of the period, in epoch seconds, inclusive.
+ * @param to            The end of the period, in epoch seconds, inclusive.
+ * @param type          The event type code, or {@link EventTypeDictionary#UNKNOWN} for all event types.
+ * @param user          The user dictionary id, or {@link UserDictionary#UNKNOWN} for all users.
+ * @param distinctUsers true to count the distinct users of the matching events instead of the events.
+ */
+public record StoreQuery(long from, long to, byte type, int user, boolean distinctUsers) {
+
+    public static StoreQuery count(long from, long to, byte type, int user) {
+        return new StoreQuery(from, to, type, user, false);
+    }
+
+    public static StoreQuery countDistinctUsers(long from, long to, byte type) {
+        return new StoreQuery(from, to, type, UserDictionary.UNKNOWN, true);
+    }
+}
@@ -0,0 +1,91 @@
+package com.eventsaggregation.repository.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary encoding user ids as dense int ids, assigned in insertion order.
+ * Each distinct user id string is stored once, events only reference its int id.
+ */
+public final class UserDictionary {
+    public static final int UNKNOWN = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private volatile int size;
+
+    /**
+     * Returns the id of a user.
+     *
+     * @param userId The user id.
+     * @return The dictionary id of the user, or {@link #UNKNOWN} if it was never seen.
+     */
+    public int idOf(String userId) {
+        Integer id = ids.get(userId);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * Returns the id of a user, assigning a new one if it was never seen.
+     *
+     * @param userId The user id.
+     * @return The dictionary id of the user.
+     */
+    public int getOrAdd(String userId) {
+        Integer id = ids.get(userId);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(userId);
+            if (id != null) {
+                return id;
+            }
+            int newId = size;
+            if (newId == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[newId] = userId;
+            size = newId + 1;
+            ids.put(userId, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Returns the user id of a dictionary id.
+     *
+     * @param id The dictionary id.
+     * @return The user id.
+     */
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            ids.clear();
+            names = new String[INITIAL_CAPACITY];
+            size = 0;
+        }
+    }
+
+    /**
+     * @return An estimation of the heap used by the dictionary, in bytes.
+     */
+    public long estimatedBytes() {
+        long bytes = (long) names.length * MemoryEstimates.REFERENCE_BYTES;
+        int count = size;
+        String[] current = names;
+        for (int i = 0; i < count; i++) {
+            bytes += MemoryEstimates.stringBytes(current[i]) + MemoryEstimates.MAP_ENTRY_BYTES + MemoryEstimates.BOXED_INT_BYTES;
+        }
+        return bytes;
+    }
+}
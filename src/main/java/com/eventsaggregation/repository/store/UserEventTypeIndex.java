@@ -0,0 +1,102 @@
+package com.eventsaggregation.repository.store;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Bitmask of the event types seen for each user, indexed by user dictionary id.
+ * There are at most {@link EventTypeDictionary#MAX_EVENT_TYPES} event types, so a user costs a single int.
+ * <p>
+ * Masks are kept in fixed-size pages that are never copied, so concurrent updates are never lost when the index
+ * grows: only the page directory is reallocated.
+ */
+final class UserEventTypeIndex {
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final VarHandle MASKS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private volatile int[][] pages = new int[16][];
+
+    /**
+     * Records that a user has an event of the given type.
+     *
+     * @param user The user dictionary id.
+     * @param type The event type code.
+     */
+    void add(int user, byte type) {
+        int[] page = page(user >>> PAGE_SHIFT);
+        int bit = 1 << type;
+        if (((int) MASKS.getVolatile(page, user & PAGE_MASK) & bit) == 0) {
+            MASKS.getAndBitwiseOr(page, user & PAGE_MASK, bit);
+        }
+    }
+
+    /**
+     * Forgets that a user has events of the given type.
+     *
+     * @param user The user dictionary id.
+     * @param type The event type code.
+     */
+    void remove(int user, byte type) {
+        int[][] current = pages;
+        int index = user >>> PAGE_SHIFT;
+        if (index < current.length && current[index] != null) {
+            MASKS.getAndBitwiseAnd(current[index], user & PAGE_MASK, ~(1 << type));
+        }
+    }
+
+    /**
+     * @param user The user dictionary id.
+     * @return The bitmask of the event type codes seen for the user, 0 if none.
+     */
+    int mask(int user) {
+        int[][] current = pages;
+        int index = user >>> PAGE_SHIFT;
+        if (index >= current.length || current[index] == null) {
+            return 0;
+        }
+        return (int) MASKS.getVolatile(current[index], user & PAGE_MASK);
+    }
+
+    /**
+     * @return true if the user has at least one event of the given type.
+     */
+    boolean contains(int user, byte type) {
+        return (mask(user) & (1 << type)) != 0;
+    }
+
+    synchronized void clear() {
+        pages = new int[16][];
+    }
+
+    long estimatedBytes() {
+        int[][] current = pages;
+        long bytes = MemoryEstimates.ARRAY_HEADER_BYTES + (long) current.length * MemoryEstimates.REFERENCE_BYTES;
+        for (int[] page : current) {
+            if (page != null) {
+                bytes += MemoryEstimates.ARRAY_HEADER_BYTES + (long) PAGE_SIZE * Integer.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    private int[] page(int index) {
+        int[][] current = pages;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = pages;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, index + 1));
+            }
+            if (current[index] == null) {
+                current[index] = new int[PAGE_SIZE];
+            }
+            pages = current;
+            return current[index];
+        }
+    }
+}
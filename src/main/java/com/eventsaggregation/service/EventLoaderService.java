@@ -1,76 +1,262 @@
 package com.eventsaggregation.service;
 
-import com.eventsaggregation.model.Event;
+import com.eventsaggregation.config.LoaderProperties;
+import com.eventsaggregation.dto.SnapshotDto;
 import com.eventsaggregation.repository.ReactiveEventRepository;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class EventLoaderService {
 
     private static final Logger logger = LoggerFactory.getLogger(EventLoaderService.class);
     public static final String DATA_FILE_PATH = "/Users/pauhappy/data";
+    static final int BATCH_SIZE = 8192;
+    // A chunk is mapped and parsed as a single buffer, indexed by int.
+    static final long MAX_CHUNK_SIZE = 1L << 30;
     private final ReactiveEventRepository eventRepository;
+    private final LoadProgress loadProgress;
+    private final SnapshotService snapshotService;
+    private final long chunkSize;
 
-    public EventLoaderService(ReactiveEventRepository eventRepository) {
+    @Autowired
+    public EventLoaderService(ReactiveEventRepository eventRepository, LoadProgress loadProgress,
+                              SnapshotService snapshotService, LoaderProperties properties) {
+        this(eventRepository, loadProgress, snapshotService, properties.chunkSize().toBytes());
+    }
+
+    EventLoaderService(ReactiveEventRepository eventRepository, LoadProgress loadProgress,
+                       SnapshotService snapshotService, long chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("The chunk size must be between 1 byte and " + MAX_CHUNK_SIZE
+                    + " bytes: " + chunkSize);
+        }
         this.eventRepository = eventRepository;
+        this.loadProgress = loadProgress;
+        this.snapshotService = snapshotService;
+        this.chunkSize = chunkSize;
     }
 
     /**
      * Method executed after the bean's initialization.
-     * It loads events from files in the specified data directory.
-     *
-     * @throws IOException if an I/O error occurs during file reading.
+     * It loads events from files in the specified data directory, in the background,
+     * the progress of the load being tracked by {@link LoadProgress}.
      */
     @PostConstruct
-    public void loadEventsFromFiles() throws IOException {
+    public void loadEventsFromFiles() {
         logger.info("Start loading events from files");
         File folder = new File(DATA_FILE_PATH);
 
         if (folder.exists() && folder.isDirectory()) {
-            for (File file : folder.listFiles()) {
-                logger.info("Processing file: " + file.getName());
-                processFile(file);
-            }
+            restoreOrLoad(dataFiles()).subscribe(
+                    null,
+                    error -> logger.error("Loading events from files failed", error));
         } else {
             logger.info("Data folder not found.");
+            loadProgress.start(0, 0);
+            loadProgress.complete();
         }
     }
 
     /**
-     * Processes a single file to extract events and save them to the repository.
+     * Restores the snapshot of the data files if it is up to date, otherwise loads the files then writes
+     * their snapshot, for the next start. The load is marked restoring as soon as the Mono is subscribed, so that
+     * no event is ingested in the store being restored.
      *
-     * @param file The file to be processed.
-     * @throws IOException if an I/O error occurs during file reading.
+     * @param files The data files.
+     * @return A Mono completing once the repository holds the events of the files.
      */
-    private void processFile(File file) throws IOException {
-        BufferedReader reader = new BufferedReader(
-                new FileReader(file, StandardCharsets.UTF_8));
-
-        Flux.fromStream(reader.lines())
-                .publishOn(Schedulers.boundedElastic())
-                .map(line -> {
-                    String[] parts = line.split("\t");
-                    String userId = parts[0];
-                    LocalDateTime timestamp = LocalDateTime.parse(parts[1], DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                    String event = parts[2];
-                    return new Event(userId, timestamp, event);
+    public Mono<Void> restoreOrLoad(List<Path> files) {
+        return Mono.defer(() -> {
+                    if (snapshotService.isEnabled()) {
+                        loadProgress.restoring();
+                    }
+                    return Mono.fromCallable(() -> snapshotService.restore(files))
+                            .subscribeOn(Schedulers.boundedElastic());
+                })
+                .flatMap(restored -> {
+                    if (restored) {
+                        loadProgress.restored(files.size(), eventRepository.size());
+                        return Mono.empty();
+                    }
+                    return loadFiles(files)
+                            .doOnNext(this::logReport)
+                            .filter(report -> snapshotService.isEnabled())
+                            .flatMap(report -> snapshotService.write(files)
+                                    .onErrorResume(error -> {
+                                        logger.warn("Writing the snapshot failed", error);
+                                        return Mono.empty();
+                                    }));
                 })
-                .flatMap(eventRepository::save)
-                .then()
-                .subscribe();
+                .then();
+    }
+
+    /**
+     * Writes a snapshot of the repository, restored at the next start as long as the data files do not change.
+     *
+     * @return A Mono emitting the description of the snapshot once written.
+     */
+    public Mono<SnapshotDto> writeSnapshot() {
+        return Mono.defer(() -> snapshotService.write(dataFiles()));
+    }
+
+    /**
+     * @return The files of the data directory, sorted by name, empty if the directory does not exist.
+     */
+    static List<Path> dataFiles() {
+        File[] files = new File(DATA_FILE_PATH).listFiles();
+        if (files == null) {
+            return List.of();
+        }
+        return Arrays.stream(files)
+                .filter(File::isFile)
+                .map(File::toPath)
+                .sorted(Comparator.naturalOrder())
+                .toList();
+    }
+
+    private void logReport(LoadReport report) {
+        logger.info("Loaded {} rows ({} new events, {} malformed) from {} files, {} MB in {} ms: {} rows/s, {} MB/s, {} bytes per event",
+                report.rows(), report.inserted(), report.skipped(), report.files(),
+                String.format("%.1f", report.bytes() / (1024.0 * 1024.0)), report.elapsed().toMillis(),
+                String.format("%.0f", report.rowsPerSecond()), String.format("%.1f", report.megabytesPerSecond()),
+                String.format("%.1f", eventRepository.bytesPerEvent()));
+    }
+
+    /**
+     * Loads events from TSV files using all the cores.
+     * Each file is memory-mapped and split in newline-aligned chunks parsed in parallel, every chunk saving its
+     * events to the repository in batches. A worker only requests a new chunk once it is done with the previous one,
+     * so at most one chunk per core is mapped and one batch per core is in flight.
+     *
+     * @param files The files to load.
+     * @return A Mono emitting the report of the load once every file is loaded.
+     */
+    public Mono<LoadReport> loadFiles(List<Path> files) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            loadProgress.start(files.size(), totalSize(files));
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            Scheduler scheduler = Schedulers.newParallel("event-loader", parallelism);
+            return Flux.fromIterable(files)
+                    .concatMapIterable(this::split)
+                    .subscribeOn(scheduler)
+                    .parallel(parallelism, 1)
+                    .runOn(scheduler, 1)
+                    .map(this::loadChunk)
+                    .sequential()
+                    .reduce(ChunkStats.EMPTY, ChunkStats::plus)
+                    .map(total -> new LoadReport(files.size(), total.bytes(), total.rows(), total.inserted(),
+                            total.skipped(), Duration.ofNanos(System.nanoTime() - start)))
+                    .doOnSuccess(report -> loadProgress.complete())
+                    .doOnError(loadProgress::fail)
+                    .doFinally(signal -> scheduler.dispose());
+        });
+    }
+
+    private static long totalSize(List<Path> files) {
+        long size = 0;
+        for (Path file : files) {
+            size += file.toFile().length();
+        }
+        return size;
+    }
+
+    /**
+     * Splits a file in chunks of about the chunk size, each one ending after a newline or at the end of the file,
+     * and shorter than 2 GB.
+     */
+    private List<Chunk> split(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Chunk> chunks = new ArrayList<>();
+            AtomicInteger remainingChunks = new AtomicInteger();
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            long start = 0;
+            while (start < size) {
+                long end = nextLineStart(channel, Math.min(start + chunkSize, size), size, probe);
+                if (end - start > Integer.MAX_VALUE) {
+                    // A line of more than a GB, cut so that its parts are skipped as malformed lines.
+                    end = start + chunkSize;
+                }
+                chunks.add(new Chunk(file, start, end - start, remainingChunks));
+                start = end;
+            }
+            remainingChunks.set(chunks.size());
+            if (chunks.isEmpty()) {
+                loadProgress.fileLoaded();
+            }
+            logger.info("Processing file: {} in {} chunks", file.getFileName(), chunks.size());
+            return chunks;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer probe) throws IOException {
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            for (int index = 0; index < read; index++) {
+                if (probe.get(index) == '\n') {
+                    return position + index + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
     }
-}
 
+    /**
+     * Processes a chunk of a file to extract events and save them to the repository.
+     */
+    private ChunkStats loadChunk(Chunk chunk) {
+        try (FileChannel channel = FileChannel.open(chunk.file(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start(), chunk.length());
+            TsvParser parser = new TsvParser(eventRepository, BATCH_SIZE);
+            parser.parse(buffer, 0, (int) chunk.length(), true);
+            parser.flush();
+            loadProgress.chunkLoaded(chunk.length(), parser.rows());
+            if (chunk.remainingChunks().decrementAndGet() == 0) {
+                loadProgress.fileLoaded();
+                logger.info("File {} loaded", chunk.file().getFileName());
+            }
+            return new ChunkStats(chunk.length(), parser.rows(), parser.inserted(), parser.skipped());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + chunk.file(), e);
+        }
+    }
+
+    private record Chunk(Path file, long start, long length, AtomicInteger remainingChunks) {
+    }
+
+    private record ChunkStats(long bytes, long rows, long inserted, long skipped) {
+        static final ChunkStats EMPTY = new ChunkStats(0, 0, 0, 0);
+
+        ChunkStats plus(ChunkStats other) {
+            return new ChunkStats(bytes + other.bytes, rows + other.rows, inserted + other.inserted, skipped + other.skipped);
+        }
+    }
+}
@@ -1,24 +1,41 @@
 package com.eventsaggregation.service;
 
+import com.eventsaggregation.dto.AggregationBucketDto;
 import com.eventsaggregation.dto.CountDistinctUsersDto;
 import com.eventsaggregation.dto.CountEventsDto;
 import com.eventsaggregation.dto.EventExistsDto;
+import com.eventsaggregation.model.BatchQuery;
 import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.service.QueryCache.QueryKey;
+import com.eventsaggregation.service.QueryCache.QueryKind;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
 public class EventService {
     private final ReactiveEventRepository eventRepository;
+    private final QueryCache queryCache;
 
     public EventService(ReactiveEventRepository eventRepository) {
+        this(eventRepository, QueryCache.disabled());
+    }
+
+    @Autowired
+    public EventService(ReactiveEventRepository eventRepository, QueryCache queryCache) {
         this.eventRepository = eventRepository;
+        this.queryCache = queryCache;
     }
 
     /**
      * Counts the number of events matching the specified criteria.
+     * Counts are cached until an event they would count is inserted.
      *
      * @param from   The start time of the period to search for events.
      * @param to     The end time of the period to search for events.
@@ -27,9 +44,23 @@ public class EventService {
      * @return A Mono emitting the count of events matching the criteria.
      */
     public Mono<CountEventsDto> countEvents(LocalDateTime from, LocalDateTime to, String event, String userId) {
-        return eventRepository
-                .findEvents(from, to, event, userId)
-                .count()
+        return countEvents(Timestamps.lowerBound(from), Timestamps.upperBound(to), event, userId);
+    }
+
+    /**
+     * Counts the number of events matching the specified criteria, in a period already converted to epoch seconds.
+     *
+     * @param from   The start of the period, in epoch seconds, inclusive.
+     * @param to     The end of the period, in epoch seconds, inclusive.
+     * @param event  The event type to count.
+     * @param userId The ID of the user whose events to count.
+     * @return A Mono emitting the count of events matching the criteria.
+     * @see #countEvents(LocalDateTime, LocalDateTime, String, String)
+     */
+    public Mono<CountEventsDto> countEvents(long from, long to, String event, String userId) {
+        return queryCache
+                .get(new QueryKey(QueryKind.COUNT_EVENTS, from, to, event, userId),
+                        () -> eventRepository.countEvents(from, to, event, userId))
                 .map(countEvent -> new CountEventsDto(countEvent));
     }
 
@@ -43,12 +74,122 @@ public class EventService {
      * @return A Mono emitting the count of distinct users.
      */
     public Mono<CountDistinctUsersDto> countDistinctUsers(LocalDateTime from, LocalDateTime to, String event) {
-        return eventRepository
-                .findDistinctUsers(from, to, event)
-                .count()
+        return countDistinctUsers(Timestamps.lowerBound(from), Timestamps.upperBound(to), event);
+    }
+
+    /**
+     * Counts the number of distinct users who performed a specific event within a period of epoch seconds.
+     *
+     * @param from  The start of the period, in epoch seconds, inclusive.
+     * @param to    The end of the period, in epoch seconds, inclusive.
+     * @param event The event type to count distinct users for.
+     * @return A Mono emitting the count of distinct users.
+     * @see #countDistinctUsers(LocalDateTime, LocalDateTime, String)
+     */
+    public Mono<CountDistinctUsersDto> countDistinctUsers(long from, long to, String event) {
+        return queryCache
+                .get(new QueryKey(QueryKind.COUNT_DISTINCT_USERS, from, to, event, null),
+                        () -> eventRepository.countDistinctUsers(from, to, event))
                 .map(countDistinctUsers -> new CountDistinctUsersDto(countDistinctUsers));
     }
 
+    /**
+     * Counts the number of distinct users who performed every given event within the given time period.
+     * The results are not cached, as they depend on several event types.
+     *
+     * @param from   The start time of the period to search for events.
+     * @param to     The end time of the period to search for events.
+     * @param events The event types the users must all have performed.
+     * @return A Mono emitting the count of distinct users.
+     */
+    public Mono<CountDistinctUsersDto> countUsersWithAllEvents(LocalDateTime from, LocalDateTime to, List<String> events) {
+        return countUsersWithAllEvents(Timestamps.lowerBound(from), Timestamps.upperBound(to), events);
+    }
+
+    /**
+     * Counts the number of distinct users who performed every given event within a period of epoch seconds.
+     *
+     * @param from   The start of the period, in epoch seconds, inclusive.
+     * @param to     The end of the period, in epoch seconds, inclusive.
+     * @param events The event types the users must all have performed.
+     * @return A Mono emitting the count of distinct users.
+     * @see #countUsersWithAllEvents(LocalDateTime, LocalDateTime, List)
+     */
+    public Mono<CountDistinctUsersDto> countUsersWithAllEvents(long from, long to, List<String> events) {
+        return eventRepository.countUsersWithAllEvents(from, to, events)
+                .map(countDistinctUsers -> new CountDistinctUsersDto(countDistinctUsers));
+    }
+
+    /**
+     * Estimates the number of distinct users who performed a specific event within the given time period.
+     * Faster and lighter than {@link #countDistinctUsers}, at the cost of a relative error given with the count.
+     *
+     * @param from  The start time of the period to search for events.
+     * @param to    The end time of the period to search for events.
+     * @param event The event type to count distinct users for.
+     * @return A Mono emitting the estimated count of distinct users.
+     */
+    public Mono<CountDistinctUsersDto> estimateDistinctUsers(LocalDateTime from, LocalDateTime to, String event) {
+        return estimateDistinctUsers(Timestamps.lowerBound(from), Timestamps.upperBound(to), event);
+    }
+
+    /**
+     * Estimates the number of distinct users who performed a specific event within a period of epoch seconds.
+     *
+     * @param from  The start of the period, in epoch seconds, inclusive.
+     * @param to    The end of the period, in epoch seconds, inclusive.
+     * @param event The event type to count distinct users for.
+     * @return A Mono emitting the estimated count of distinct users.
+     * @see #estimateDistinctUsers(LocalDateTime, LocalDateTime, String)
+     */
+    public Mono<CountDistinctUsersDto> estimateDistinctUsers(long from, long to, String event) {
+        return queryCache
+                .get(new QueryKey(QueryKind.ESTIMATE_DISTINCT_USERS, from, to, event, null),
+                        () -> eventRepository.estimateDistinctUsers(from, to, event))
+                .map(estimate -> new CountDistinctUsersDto(estimate.estimate(), estimate.relativeError()));
+    }
+
+    /**
+     * Aggregates the events of a period per time bucket, and optionally per event type, in a single pass.
+     *
+     * @param from          The start of the period to aggregate, in epoch seconds, inclusive.
+     * @param to            The end of the period to aggregate, in epoch seconds, inclusive.
+     * @param interval      The duration of a time bucket.
+     * @param event         (Optional) The event type to aggregate.
+     * @param byEvent       true to aggregate each event type separately.
+     * @param distinctUsers true to also count the distinct users of each bucket.
+     * @return A Flux emitting the non-empty buckets in time order, as they are computed.
+     */
+    public Flux<AggregationBucketDto> aggregate(long from, long to, Duration interval, String event,
+                                                boolean byEvent, boolean distinctUsers) {
+        return eventRepository
+                .aggregate(from, to, interval, event, byEvent, distinctUsers)
+                .map(bucket -> new AggregationBucketDto(bucket.start(), bucket.event(), bucket.count(), bucket.distinctUsers()));
+    }
+
+    /**
+     * Answers a batch of queries at once, the counts being evaluated in a single pass over the store.
+     *
+     * @param queries The queries.
+     * @return A Mono emitting the result of each query, in order, as answered by its own endpoint:
+     * a {@link CountEventsDto}, {@link CountDistinctUsersDto} or {@link EventExistsDto}.
+     */
+    public Mono<List<Object>> evaluate(List<BatchQuery> queries) {
+        return eventRepository
+                .evaluate(queries)
+                .map(results -> {
+                    List<Object> dtos = new ArrayList<>(results.length);
+                    for (int index = 0; index < results.length; index++) {
+                        dtos.add(switch (queries.get(index).kind()) {
+                            case COUNT -> new CountEventsDto(results[index]);
+                            case COUNT_DISTINCT_USERS -> new CountDistinctUsersDto(results[index]);
+                            case EXISTS -> new EventExistsDto(results[index] != 0);
+                        });
+                    }
+                    return dtos;
+                });
+    }
+
     /**
      * Checks if a specific event exists for a given user.
      *
@@ -57,8 +198,6 @@ public class EventService {
      * @return A Mono emitting true if the event exists for the user, false otherwise.
      */
     public Mono<EventExistsDto> eventExists(String userId, String event) {
-        return eventRepository
-                .existsByUserIdAndEvent(userId, event)
-                .map(eventExists -> new EventExistsDto(eventExists));
+        return Mono.just(new EventExistsDto(eventRepository.exists(userId, event)));
     }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.repository.EventWriter;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+
+/**
+ * Exports the stored events as TSV or NDJSON lines, the formats ingested by {@link IngestionService}.
+ * <p>
+ * Rows are encoded straight from the columns of the store into buffers of the given factory, pooled by the server,
+ * without building a string or a JSON object per event. A buffer is only filled when the client requests it, so an
+ * export of any size holds a few buffers at once and goes at the pace of the client.
+ */
+@Service
+public class ExportService {
+
+    public enum Format {
+        TSV, NDJSON
+    }
+
+    static final int CHUNK_BYTES = 32 * 1024;
+    private final ReactiveEventRepository eventRepository;
+
+    public ExportService(ReactiveEventRepository eventRepository) {
+        this.eventRepository = eventRepository;
+    }
+
+    /**
+     * Streams the events matching the specified criteria, in time order.
+     *
+     * @param from          The start of the period, in epoch seconds, inclusive.
+     * @param to            The end of the period, in epoch seconds, inclusive.
+     * @param event         (Optional) The event type to export.
+     * @param userId        (Optional) The ID of the user whose events to export.
+     * @param format        The format of the lines.
+     * @param bufferFactory The factory of the buffers of the lines.
+     * @return A Flux emitting buffers of whole lines, of about {@value #CHUNK_BYTES} bytes, to be released by the
+     * subscriber.
+     */
+    public Flux<DataBuffer> export(long from, long to, String event, String userId, Format format,
+                                   DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> eventRepository.exportEvents(from, to, event, userId, new LineWriter(format, bufferFactory)))
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    /**
+     * Encoder of the lines of an export, reusing a single array for the bytes of a line.
+     */
+    private static final class LineWriter implements EventWriter<DataBuffer> {
+        private final Format format;
+        private final DataBufferFactory bufferFactory;
+        private byte[] line = new byte[256];
+
+        private LineWriter(Format format, DataBufferFactory bufferFactory) {
+            this.format = format;
+            this.bufferFactory = bufferFactory;
+        }
+
+        @Override
+        public DataBuffer newChunk() {
+            return bufferFactory.allocateBuffer(CHUNK_BYTES);
+        }
+
+        @Override
+        public boolean write(DataBuffer chunk, int user, String userId, long epochSecond, String event) {
+            // 6 bytes per char is the longest JSON escape, the timestamp and the separators fitting in 128 bytes.
+            int maxLength = 6 * (userId.length() + event.length()) + 128;
+            if (line.length < maxLength) {
+                line = Arrays.copyOf(line, Math.max(maxLength, line.length * 2));
+            }
+            int length = format == Format.TSV ? tsv(userId, epochSecond, event) : ndjson(userId, epochSecond, event);
+            chunk.write(line, 0, length);
+            return chunk.readableByteCount() < CHUNK_BYTES;
+        }
+
+        private int tsv(String userId, long epochSecond, String event) {
+            int offset = utf8(userId, false, 0);
+            line[offset++] = '\t';
+            offset = Timestamps.format(epochSecond, line, offset);
+            line[offset++] = '\t';
+            offset = utf8(event, false, offset);
+            line[offset++] = '\n';
+            return offset;
+        }
+
+        private int ndjson(String userId, long epochSecond, String event) {
+            int offset = ascii("{\"user_id\":\"", 0);
+            offset = utf8(userId, true, offset);
+            offset = ascii("\",\"timestamp\":\"", offset);
+            offset = Timestamps.format(epochSecond, line, offset);
+            offset = ascii("\",\"event\":\"", offset);
+            offset = utf8(event, true, offset);
+            return ascii("\"}\n", offset);
+        }
+
+        private int ascii(String text, int offset) {
+            for (int index = 0; index < text.length(); index++) {
+                line[offset++] = (byte) text.charAt(index);
+            }
+            return offset;
+        }
+
+        // Encodes a string in UTF-8, escaping it as the content of a JSON string, or replacing the tabs and line
+        // breaks which would split a TSV line by spaces.
+        private int utf8(String text, boolean json, int offset) {
+            for (int index = 0; index < text.length(); index++) {
+                char c = text.charAt(index);
+                if (c < 0x80) {
+                    if (json && (c == '"' || c == '\\' || c < 0x20)) {
+                        offset = escape(c, offset);
+                    } else {
+                        line[offset++] = !json && (c == '\t' || c == '\n' || c == '\r') ? (byte) ' ' : (byte) c;
+                    }
+                } else if (c < 0x800) {
+                    line[offset++] = (byte) (0xC0 | c >> 6);
+                    line[offset++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && index + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(index + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++index));
+                    line[offset++] = (byte) (0xF0 | codePoint >> 18);
+                    line[offset++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    line[offset++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    line[offset++] = (byte) (0x80 | codePoint & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    // An unpaired surrogate, encoded as '?' like String.getBytes does.
+                    line[offset++] = '?';
+                } else {
+                    line[offset++] = (byte) (0xE0 | c >> 12);
+                    line[offset++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    line[offset++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            return offset;
+        }
+
+        private int escape(char c, int offset) {
+            line[offset++] = '\\';
+            switch (c) {
+                case '"', '\\' -> line[offset++] = (byte) c;
+                case '\n' -> line[offset++] = 'n';
+                case '\r' -> line[offset++] = 'r';
+                case '\t' -> line[offset++] = 't';
+                default -> {
+                    line[offset++] = 'u';
+                    line[offset++] = '0';
+                    line[offset++] = '0';
+                    line[offset++] = (byte) Character.forDigit(c >> 4, 16);
+                    line[offset++] = (byte) Character.forDigit(c & 0xF, 16);
+                }
+            }
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.dto.IngestionReportDto;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Ingests streams of events sent over HTTP, as TSV or NDJSON lines.
+ * <p>
+ * The body is parsed as it arrives: only the incomplete last line of a buffer is kept until the next one,
+ * and the events of each buffer are saved as a micro-batch before the next buffer is requested, so that
+ * a large upload is never held in memory and becomes visible to queries while it is received.
+ */
+@Service
+public class IngestionService {
+
+    public enum Format {
+        TSV, NDJSON
+    }
+
+    static final int MAX_LINE_BYTES = 1 << 20;
+    private static final int PREFETCH_BUFFERS = 4;
+    private final ReactiveEventRepository eventRepository;
+
+    public IngestionService(ReactiveEventRepository eventRepository) {
+        this.eventRepository = eventRepository;
+    }
+
+    /**
+     * Saves the events of a stream, skipping the events already stored. The events parsed before an error stay stored.
+     *
+     * @param body   The stream of bytes of the lines.
+     * @param format The format of the lines.
+     * @return A Mono emitting the numbers of accepted, duplicate and malformed events once the stream is complete,
+     * or an {@link IllegalArgumentException} if a line is longer than {@link #MAX_LINE_BYTES}.
+     */
+    public Mono<IngestionReportDto> ingest(Flux<DataBuffer> body, Format format) {
+        return Mono.defer(() -> {
+            Ingestion ingestion = new Ingestion(switch (format) {
+                case TSV -> new TsvParser(eventRepository, EventLoaderService.BATCH_SIZE);
+                case NDJSON -> new NdjsonParser(eventRepository, EventLoaderService.BATCH_SIZE);
+            });
+            return body.publishOn(Schedulers.boundedElastic(), PREFETCH_BUFFERS)
+                    .doOnNext(ingestion::feed)
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .then(Mono.fromCallable(ingestion::finish));
+        });
+    }
+
+    /**
+     * State of the ingestion of a stream: its parser and the bytes of its incomplete last line.
+     */
+    private static final class Ingestion {
+        private final LineEventParser parser;
+        private byte[] pending = new byte[8192];
+        private int pendingSize;
+
+        private Ingestion(LineEventParser parser) {
+            this.parser = parser;
+        }
+
+        void feed(DataBuffer buffer) {
+            try {
+                int readable = buffer.readableByteCount();
+                if (pendingSize + readable > pending.length) {
+                    pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + readable));
+                }
+                buffer.read(pending, pendingSize, readable);
+                pendingSize += readable;
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+            int consumed = parser.parse(ByteBuffer.wrap(pending), 0, pendingSize, false);
+            System.arraycopy(pending, consumed, pending, 0, pendingSize - consumed);
+            pendingSize -= consumed;
+            if (pendingSize > MAX_LINE_BYTES) {
+                throw new IllegalArgumentException("Line longer than " + MAX_LINE_BYTES + " bytes");
+            }
+            parser.flush();
+        }
+
+        IngestionReportDto finish() {
+            parser.parse(ByteBuffer.wrap(pending), 0, pendingSize, true);
+            parser.flush();
+            return new IngestionReportDto(parser.inserted(), parser.rows() - parser.inserted(), parser.skipped());
+        }
+    }
+}
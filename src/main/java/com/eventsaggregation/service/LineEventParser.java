@@ -0,0 +1,146 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.repository.store.EventBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser of events written one per line, working directly on bytes and owned by a single thread.
+ * <p>
+ * Events are accumulated in a batch saved to the repository when full or flushed, malformed lines are skipped.
+ * Subclasses decode the fields of a line.
+ */
+public abstract class LineEventParser {
+    private static final Logger logger = LoggerFactory.getLogger(LineEventParser.class);
+
+    private final ReactiveEventRepository eventRepository;
+    private final EventBatch batch;
+    private long rows;
+    private long inserted;
+    private long skipped;
+
+    protected LineEventParser(ReactiveEventRepository eventRepository, int batchSize) {
+        this.eventRepository = eventRepository;
+        this.batch = eventRepository.newBatch(batchSize);
+    }
+
+    /**
+     * Parses the lines between two indexes of a buffer. A line is complete when it ends with a newline,
+     * or when it ends the input.
+     *
+     * @param buffer      The buffer to parse, its position and limit are ignored.
+     * @param start       The index of the first byte to parse.
+     * @param end         The index following the last byte to parse.
+     * @param endOfInput  true if no byte follows the end, so that the last line is complete without a newline.
+     * @return The index following the last complete line parsed, where parsing should resume.
+     */
+    public int parse(ByteBuffer buffer, int start, int end, boolean endOfInput) {
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = indexOf(buffer, (byte) '\n', lineStart, end);
+            if (lineEnd == end && !endOfInput) {
+                break;
+            }
+            int contentEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd > lineStart) {
+                parseLine(buffer, lineStart, contentEnd);
+            }
+            lineStart = Math.min(lineEnd + 1, end);
+        }
+        return lineStart;
+    }
+
+    /**
+     * Saves the events remaining in the batch.
+     */
+    public void flush() {
+        if (batch.size() > 0) {
+            inserted += eventRepository.saveAll(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return The number of well-formed lines parsed.
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * @return The number of events inserted, duplicates excluded.
+     */
+    public long inserted() {
+        return inserted;
+    }
+
+    /**
+     * @return The number of malformed lines skipped.
+     */
+    public long skipped() {
+        return skipped;
+    }
+
+    /**
+     * Parses a non-empty line, without its line terminator, then calls {@link #accept} or {@link #skip}.
+     */
+    protected abstract void parseLine(ByteBuffer buffer, int start, int end);
+
+    /**
+     * Adds the event of a line whose user id and event type are UTF-8 bytes of the buffer, or skips the line if its
+     * event type is new while the store holds the maximum number of event types.
+     */
+    protected void accept(ByteBuffer buffer, int start, int end,
+                          int userStart, int userEnd, long epochSecond, int eventStart, int eventEnd) {
+        if (batch.add(buffer, userStart, userEnd, epochSecond, eventStart, eventEnd)) {
+            accepted();
+        } else {
+            skip(buffer, start, end);
+        }
+    }
+
+    /**
+     * Adds the event of a line, or skips the line if its event type is new while the store holds the maximum number
+     * of event types.
+     */
+    protected void accept(ByteBuffer buffer, int start, int end, String userId, long epochSecond, String event) {
+        if (batch.add(userId, epochSecond, event)) {
+            accepted();
+        } else {
+            skip(buffer, start, end);
+        }
+    }
+
+    protected void skip(ByteBuffer buffer, int start, int end) {
+        skipped++;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Skipping malformed line: {}", decode(buffer, start, end));
+        }
+    }
+
+    private void accepted() {
+        rows++;
+        if (batch.isFull()) {
+            flush();
+        }
+    }
+
+    static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+        for (int index = start; index < end; index++) {
+            if (buffer.get(index) == value) {
+                return index;
+            }
+        }
+        return end;
+    }
+
+    static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,444 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.config.EventStoreProperties;
+import com.eventsaggregation.config.LiveCountProperties;
+import com.eventsaggregation.dto.LiveCountDto;
+import com.eventsaggregation.repository.EventWriter;
+import com.eventsaggregation.repository.InsertListener;
+import com.eventsaggregation.repository.InsertedEvents;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.repository.store.HyperLogLog;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters of the events of sliding windows ending now, maintained as events are saved and pushed to their subscribers.
+ * <p>
+ * The subscribers of a same filter (event type, user and window) share a single counter: it is seeded by one scan of
+ * the store when its first subscriber arrives, then updated with each new event saved, without scanning the store
+ * again, and dropped with its last subscriber. The counter starts receiving the new events when the view of its scan
+ * is captured, atomically, so that each event is counted once, and the scan runs out of the lock of the counters.
+ * <p>
+ * A window is split in up to {@value #SLOTS} slots, each counting its events and sketching its users, so that the
+ * slots older than the window expire whole as time passes. Events timestamped after now are kept in future slots,
+ * up to the length of the window ahead, and counted once the window reaches them. Events before the window or more
+ * than a window ahead are not counted.
+ * <p>
+ * The counters whose counts changed are published together every interval, each update being delivered to
+ * every subscriber of the counter, the latest one being replayed to new subscribers.
+ */
+@Component
+public class LiveCounters implements InsertListener, MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(LiveCounters.class);
+    static final int SLOTS = 60;
+
+    private final ReactiveEventRepository eventRepository;
+    private final int sketchPrecision;
+    private final LongSupplier clock;
+    private final Duration interval;
+    // Thread publishing the counters, null when disabled.
+    private final Scheduler publisher;
+    // Guarded by this.
+    private final Map<Filter, LiveCounter> counters = new HashMap<>();
+    // Registered counters by event type then by user, null standing for any, replaced by a new map on each change.
+    private volatile Map<String, Map<String, LiveCounter[]>> index = Map.of();
+
+    @Autowired
+    public LiveCounters(ReactiveEventRepository eventRepository, LiveCountProperties properties,
+                        EventStoreProperties storeProperties) {
+        this(eventRepository, properties.interval(), HyperLogLog.precisionFor(storeProperties.distinctUsersRelativeError()),
+                () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @param interval        The period of the publications, 0 to only publish on calls to {@link #publish()}.
+     * @param sketchPrecision The precision of the sketches of the users.
+     * @param clock           The current time, in epoch seconds.
+     */
+    LiveCounters(ReactiveEventRepository eventRepository, Duration interval, int sketchPrecision, LongSupplier clock) {
+        this.eventRepository = eventRepository;
+        this.sketchPrecision = sketchPrecision;
+        this.clock = clock;
+        this.interval = interval;
+        this.publisher = interval.isPositive() ? Schedulers.newSingle("live-counters", true) : null;
+    }
+
+    /**
+     * Starts counting the saved events and publishing the counters, once constructed.
+     */
+    @PostConstruct
+    public void start() {
+        eventRepository.addInsertListener(this);
+        if (publisher != null) {
+            publisher.schedulePeriodically(this::publish, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (publisher != null) {
+            publisher.dispose();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("eventsaggregation.live.counters", this, LiveCounters::size)
+                .description("Live counters shared by the subscribers of a same filter")
+                .register(registry);
+        Gauge.builder("eventsaggregation.live.subscribers", this, LiveCounters::subscribers)
+                .description("Subscribers of the live counters")
+                .register(registry);
+    }
+
+    /**
+     * Subscribes to the counts of the events of a sliding window ending now.
+     *
+     * @param event  (Optional) The event type to count.
+     * @param userId (Optional) The ID of the user whose events to count.
+     * @param window The length of the window, rounded up to a whole number of slots of at least one second.
+     * @return A Flux emitting the counts of the window when they change, starting with the current ones once the
+     * counter is seeded, until it is cancelled.
+     */
+    public Flux<LiveCountDto> subscribe(String event, String userId, Duration window) {
+        long windowSeconds = Math.max(1, window.toSeconds());
+        int slotSeconds = (int) Math.max(1, (windowSeconds + SLOTS - 1) / SLOTS);
+        int slots = (int) ((windowSeconds + slotSeconds - 1) / slotSeconds);
+        Filter filter = new Filter(event, userId, slotSeconds, slots);
+        return Flux.defer(() -> {
+            LiveCounter counter = acquire(filter);
+            return counter.updates.asFlux().doFinally(signal -> release(counter));
+        });
+    }
+
+    /**
+     * Publishes the counters whose counts changed since their last publication.
+     */
+    public void publish() {
+        try {
+            long now = clock.getAsLong();
+            for (LiveCounter counter : snapshot()) {
+                LiveCountDto update = counter.update(now);
+                if (update != null) {
+                    counter.updates.tryEmitNext(update);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of a periodic task, the error would cancel the next runs.
+            logger.error("Publication of the live counters failed", e);
+        }
+    }
+
+    @Override
+    public void inserted(InsertedEvents events) {
+        Map<String, Map<String, LiveCounter[]>> current = index;
+        if (current.isEmpty()) {
+            return;
+        }
+        long now = clock.getAsLong();
+        Map<String, LiveCounter[]> anyEvent = current.get(null);
+        for (int row = 0; row < events.size(); row++) {
+            add(current.get(events.event(row)), events, row, now);
+            add(anyEvent, events, row, now);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (LiveCounter counter : snapshot()) {
+            seed(counter);
+        }
+    }
+
+    synchronized int size() {
+        return counters.size();
+    }
+
+    synchronized int subscribers() {
+        int subscribers = 0;
+        for (LiveCounter counter : counters.values()) {
+            subscribers += counter.subscribers;
+        }
+        return subscribers;
+    }
+
+    private static void add(Map<String, LiveCounter[]> byUser, InsertedEvents events, int row, long now) {
+        if (byUser == null) {
+            return;
+        }
+        add(byUser.get(events.userId(row)), events, row, now);
+        add(byUser.get(null), events, row, now);
+    }
+
+    private static void add(LiveCounter[] counters, InsertedEvents events, int row, long now) {
+        if (counters == null) {
+            return;
+        }
+        for (LiveCounter counter : counters) {
+            counter.add(events.user(row), events.epochSecond(row), now);
+        }
+    }
+
+    private LiveCounter acquire(Filter filter) {
+        LiveCounter counter;
+        boolean created;
+        synchronized (this) {
+            counter = counters.get(filter);
+            created = counter == null;
+            if (created) {
+                counter = new LiveCounter(filter, sketchPrecision);
+                counters.put(filter, counter);
+            }
+            counter.subscribers++;
+        }
+        if (created) {
+            // Out of the lock, as the scan runs on the calling thread when queries are not parallel.
+            seed(counter);
+        }
+        return counter;
+    }
+
+    // Called when the view of the seeding scan of the counter is captured, see seed.
+    private synchronized void register(LiveCounter counter) {
+        if (!counter.registered && counters.get(counter.filter) == counter) {
+            counter.registered = true;
+            reindex();
+        }
+    }
+
+    private synchronized void release(LiveCounter counter) {
+        if (--counter.subscribers == 0) {
+            counters.remove(counter.filter);
+            reindex();
+        }
+    }
+
+    private synchronized LiveCounter[] snapshot() {
+        return counters.values().toArray(new LiveCounter[0]);
+    }
+
+    // Called under the lock of this.
+    private void reindex() {
+        Map<String, Map<String, LiveCounter[]>> rebuilt = new HashMap<>();
+        for (LiveCounter counter : counters.values()) {
+            if (!counter.registered) {
+                continue;
+            }
+            Map<String, LiveCounter[]> byUser = rebuilt.computeIfAbsent(counter.filter.event(), event -> new HashMap<>());
+            LiveCounter[] previous = byUser.getOrDefault(counter.filter.userId(), new LiveCounter[0]);
+            LiveCounter[] added = Arrays.copyOf(previous, previous.length + 1);
+            added[previous.length] = counter;
+            byUser.put(counter.filter.userId(), added);
+        }
+        index = rebuilt;
+    }
+
+    private void seed(LiveCounter counter) {
+        long now = clock.getAsLong();
+        Seeding seeding = new Seeding(counter, now);
+        eventRepository.exportEvents(counter.windowStart(now), counter.horizon(now), counter.filter.event(),
+                        counter.filter.userId(), seeding, seeding)
+                .then()
+                .subscribe(null,
+                        e -> logger.error("Seeding of the live counter {} failed", counter.filter, e),
+                        () -> counter.seeded(seeding.generation));
+    }
+
+    /**
+     * Scan of the store seeding a counter. When the view of the scan is captured, the counter is cleared, and
+     * registered to receive the events saved from then on.
+     */
+    private final class Seeding implements EventWriter<LiveCounter>, Runnable {
+        private final LiveCounter counter;
+        private final long now;
+        private int generation;
+
+        private Seeding(LiveCounter counter, long now) {
+            this.counter = counter;
+            this.now = now;
+        }
+
+        @Override
+        public void run() {
+            generation = counter.clear();
+            register(counter);
+        }
+
+        @Override
+        public LiveCounter newChunk() {
+            return counter;
+        }
+
+        @Override
+        public boolean write(LiveCounter chunk, int user, String userId, long epochSecond, String event) {
+            chunk.seed(generation, user, epochSecond, now);
+            return true;
+        }
+    }
+
+    /**
+     * @param event       The event type, or null for all event types.
+     * @param userId      The ID of the user, or null for all users.
+     * @param slotSeconds The length of a slot of the window.
+     * @param slots       The number of slots of the window.
+     */
+    private record Filter(String event, String userId, int slotSeconds, int slots) {
+    }
+
+    /**
+     * The slots of the window of a filter and of the next window, each holding its events and users when its index is
+     * in one of them, guarded by the lock of the counter.
+     */
+    private static final class LiveCounter {
+        private final Filter filter;
+        private final int sketchPrecision;
+        private final Sinks.Many<LiveCountDto> updates = Sinks.many().replay().latest();
+        // Slot index, epoch second divided by the slot length, held by each position of the ring.
+        private final long[] slotIndexes;
+        private final long[] counts;
+        private final HyperLogLog[] sketches;
+        // Guarded by the lock of LiveCounters.
+        private int subscribers;
+        // true once the counter receives the new events, guarded by the lock of LiveCounters.
+        private boolean registered;
+        // Incremented when the counter is cleared, so that the rows of a previous seeding are ignored.
+        private int generation;
+        private boolean seeded;
+        // true when an event was added since the last update.
+        private boolean changed;
+        private long lastSlot = Long.MIN_VALUE;
+        // Counts of the last update, which is skipped when they are unchanged.
+        private boolean published;
+        private long lastCount;
+        private long lastDistinctUsers;
+
+        private LiveCounter(Filter filter, int sketchPrecision) {
+            this.filter = filter;
+            this.sketchPrecision = sketchPrecision;
+            this.slotIndexes = new long[2 * filter.slots()];
+            this.counts = new long[2 * filter.slots()];
+            this.sketches = new HyperLogLog[2 * filter.slots()];
+        }
+
+        long windowStart(long now) {
+            return (slotOf(now) - filter.slots() + 1) * filter.slotSeconds();
+        }
+
+        /**
+         * @return The last second of the future slots, a window after the end of the current one.
+         */
+        long horizon(long now) {
+            return (slotOf(now) + filter.slots() + 1) * filter.slotSeconds() - 1;
+        }
+
+        synchronized int clear() {
+            Arrays.fill(slotIndexes, Long.MIN_VALUE);
+            Arrays.fill(counts, 0);
+            Arrays.fill(sketches, null);
+            seeded = false;
+            published = false;
+            return ++generation;
+        }
+
+        synchronized void seed(int seedGeneration, int user, long epochSecond, long now) {
+            if (seedGeneration == generation) {
+                addLocked(user, epochSecond, now);
+            }
+        }
+
+        synchronized void seeded(int seedGeneration) {
+            if (seedGeneration == generation) {
+                seeded = true;
+                changed = true;
+            }
+        }
+
+        synchronized void add(int user, long epochSecond, long now) {
+            addLocked(user, epochSecond, now);
+        }
+
+        /**
+         * @return The counts of the window ending now, or null if they did not change since the last update or if the
+         * counter is being seeded. The window sliding without changing the counts is not an update.
+         */
+        synchronized LiveCountDto update(long now) {
+            long currentSlot = slotOf(now);
+            if (!seeded || (!changed && currentSlot == lastSlot)) {
+                return null;
+            }
+            changed = false;
+            lastSlot = currentSlot;
+            long count = 0;
+            HyperLogLog users = new HyperLogLog(sketchPrecision);
+            for (int position = 0; position < slotIndexes.length; position++) {
+                if (isInWindow(slotIndexes[position], currentSlot)) {
+                    count += counts[position];
+                    if (sketches[position] != null) {
+                        users.merge(sketches[position]);
+                    }
+                }
+            }
+            long distinctUsers = users.estimate();
+            if (published && count == lastCount && distinctUsers == lastDistinctUsers) {
+                return null;
+            }
+            published = true;
+            lastCount = count;
+            lastDistinctUsers = distinctUsers;
+            long start = (currentSlot - filter.slots() + 1) * filter.slotSeconds();
+            long end = (currentSlot + 1) * filter.slotSeconds() - 1;
+            return new LiveCountDto(LocalDateTime.ofEpochSecond(start, 0, ZoneOffset.UTC),
+                    LocalDateTime.ofEpochSecond(end, 0, ZoneOffset.UTC), count, distinctUsers, users.relativeError());
+        }
+
+        // Users are sketched by dictionary id, like in the sketches of the store.
+        private void addLocked(int user, long epochSecond, long now) {
+            long slot = slotOf(epochSecond);
+            long currentSlot = slotOf(now);
+            if (slot <= currentSlot - filter.slots() || slot > currentSlot + filter.slots()) {
+                return;
+            }
+            int position = (int) Math.floorMod(slot, (long) slotIndexes.length);
+            if (slotIndexes[position] != slot) {
+                // The slot previously held by the position left the window.
+                slotIndexes[position] = slot;
+                counts[position] = 0;
+                sketches[position] = null;
+            }
+            counts[position]++;
+            if (sketches[position] == null) {
+                sketches[position] = new HyperLogLog(sketchPrecision);
+            }
+            sketches[position].addUser(user);
+            changed = true;
+        }
+
+        private boolean isInWindow(long slot, long currentSlot) {
+            return slot <= currentSlot && slot > currentSlot - filter.slots();
+        }
+
+        private long slotOf(long epochSecond) {
+            return Math.floorDiv(epochSecond, filter.slotSeconds());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.dto.LoadStatusDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of the loading of the data files at startup, telling whether the store holds all the data.
+ * Its state and throughput are also published as gauges.
+ */
+@Component
+public class LoadProgress implements MeterBinder {
+
+    public enum State {
+        PENDING, RESTORING, LOADING, READY, FAILED
+    }
+
+    private volatile State state = State.PENDING;
+    private volatile int filesTotal;
+    private volatile long bytesTotal;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile String error;
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder rowsLoaded = new LongAdder();
+
+    /**
+     * Marks the start of a load.
+     *
+     * @param files The number of files to load.
+     * @param bytes The total size of the files.
+     */
+    public void start(int files, long bytes) {
+        filesTotal = files;
+        bytesTotal = bytes;
+        filesDone.set(0);
+        bytesDone.reset();
+        rowsLoaded.reset();
+        error = null;
+        startNanos = System.nanoTime();
+        state = State.LOADING;
+    }
+
+    /**
+     * Marks the start of the restore of a snapshot, during which events cannot be ingested, a failed restore
+     * clearing the store.
+     */
+    public void restoring() {
+        state = State.RESTORING;
+    }
+
+    /**
+     * Records the load of a chunk of a file.
+     *
+     * @param bytes The size of the chunk.
+     * @param rows  The number of rows of the chunk.
+     */
+    public void chunkLoaded(long bytes, long rows) {
+        bytesDone.add(bytes);
+        rowsLoaded.add(rows);
+    }
+
+    public void fileLoaded() {
+        filesDone.incrementAndGet();
+    }
+
+    /**
+     * Marks a load completed from a snapshot of the files instead of the files themselves.
+     *
+     * @param files  The number of files of the snapshot.
+     * @param events The number of events restored.
+     */
+    public void restored(int files, long events) {
+        start(files, 0);
+        filesDone.set(files);
+        rowsLoaded.add(events);
+        complete();
+    }
+
+    public void complete() {
+        endNanos = System.nanoTime();
+        state = State.READY;
+    }
+
+    public void fail(Throwable cause) {
+        endNanos = System.nanoTime();
+        error = String.valueOf(cause.getMessage());
+        state = State.FAILED;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("eventsaggregation.load.rows.per.second", this, progress -> progress.status().rows_per_second())
+                .description("Throughput of the loading of the data files")
+                .register(registry);
+        Gauge.builder("eventsaggregation.load.ready", this, progress -> progress.isReady() ? 1 : 0)
+                .description("1 once every data file is loaded")
+                .register(registry);
+    }
+
+    /**
+     * @return true once every file is loaded.
+     */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * @return true while a snapshot is being restored.
+     */
+    public boolean isRestoring() {
+        return state == State.RESTORING;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return The progress of the load, with its throughput and, while loading, its estimated time of completion.
+     */
+    public LoadStatusDto status() {
+        State current = state;
+        long rows = rowsLoaded.sum();
+        long bytes = bytesDone.sum();
+        double seconds = switch (current) {
+            case PENDING, RESTORING -> 0;
+            case LOADING -> (System.nanoTime() - startNanos) / 1e9;
+            case READY, FAILED -> (endNanos - startNanos) / 1e9;
+        };
+        double rowsPerSecond = seconds > 0 ? rows / seconds : 0;
+        Long etaSeconds = null;
+        if (current == State.LOADING && bytes > 0) {
+            etaSeconds = Math.round((bytesTotal - bytes) * seconds / bytes);
+        }
+        return new LoadStatusDto(current.name(), filesDone.get(), filesTotal, rows, rowsPerSecond, etaSeconds,
+                current == State.FAILED ? error : null);
+    }
+}
@@ -0,0 +1,28 @@
+package com.eventsaggregation.service;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a load of TSV files.
+ *
+ * @param files    The number of files loaded.
+ * @param bytes    The number of bytes read.
+ * @param rows     The number of well-formed rows parsed.
+ * @param inserted The number of events inserted, duplicates excluded.
+ * @param skipped  The number of malformed rows skipped.
+ * @param elapsed  The duration of the load.
+ */
+public record LoadReport(int files, long bytes, long rows, long inserted, long skipped, Duration elapsed) {
+
+    public double rowsPerSecond() {
+        return rows / seconds();
+    }
+
+    public double megabytesPerSecond() {
+        return bytes / (1024.0 * 1024.0) / seconds();
+    }
+
+    private double seconds() {
+        return Math.max(elapsed.toNanos(), 1) / 1e9;
+    }
+}
@@ -0,0 +1,77 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parser of newline-delimited JSON objects {@code {"user_id": ..., "timestamp": ..., "event": ...}},
+ * owned by a single thread.
+ * <p>
+ * Objects are read with a streaming JSON parser, without building a tree. Other fields are ignored,
+ * lines which are not such an object, or whose timestamp is not an ISO local date time, are skipped.
+ */
+public final class NdjsonParser extends LineEventParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public NdjsonParser(ReactiveEventRepository eventRepository, int batchSize) {
+        super(eventRepository, batchSize);
+    }
+
+    @Override
+    protected void parseLine(ByteBuffer buffer, int start, int end) {
+        String userId = null;
+        String timestamp = null;
+        String event = null;
+        try (JsonParser parser = createParser(buffer, start, end)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                skip(buffer, start, end);
+                return;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "user_id" -> userId = parser.getValueAsString();
+                    case "timestamp" -> timestamp = parser.getValueAsString();
+                    case "event" -> event = parser.getValueAsString();
+                    default -> {
+                    }
+                }
+                // Objects and arrays have no string value, their content is not read as fields.
+                parser.skipChildren();
+            }
+            if (token != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                skip(buffer, start, end);
+                return;
+            }
+        } catch (IOException e) {
+            skip(buffer, start, end);
+            return;
+        }
+        if (userId == null || userId.isEmpty() || event == null || event.isEmpty() || timestamp == null) {
+            skip(buffer, start, end);
+            return;
+        }
+        try {
+            accept(buffer, start, end, userId, Timestamps.parseEpochSecond(timestamp), event);
+        } catch (DateTimeParseException e) {
+            skip(buffer, start, end);
+        }
+    }
+
+    private static JsonParser createParser(ByteBuffer buffer, int start, int end) throws IOException {
+        if (buffer.hasArray()) {
+            return JSON_FACTORY.createParser(buffer.array(), buffer.arrayOffset() + start, end - start);
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return JSON_FACTORY.createParser(bytes);
+    }
+}
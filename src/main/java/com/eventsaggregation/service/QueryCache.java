@@ -0,0 +1,282 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.config.QueryCacheProperties;
+import com.eventsaggregation.repository.InsertListener;
+import com.eventsaggregation.repository.InsertedEvents;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the results of the aggregation queries, limited in size and time.
+ * <p>
+ * Results are invalidated precisely: each insertion of new events only removes the results whose period, event
+ * type and user match one of the events, so loading recent events keeps the counts of past periods cached. The keys
+ * are indexed by event type and time bucket, so an insertion only checks the keys of the buckets of its events,
+ * whatever the size of the cache.
+ * Concurrent identical queries missing the cache share a single computation.
+ * Hits, misses and evictions are published under the {@code cache} meters, with the {@code queries} name.
+ */
+@Component
+public class QueryCache implements InsertListener {
+    static final String CACHE_NAME = "queries";
+
+    // Null when disabled.
+    private final ReactiveEventRepository eventRepository;
+    // Null when disabled.
+    private final AsyncCache<QueryKey, Object> cache;
+    // Keys of the cache by event type and time bucket, updated atomically with their entries.
+    private final KeyIndex keyIndex = new KeyIndex();
+
+    public QueryCache(ReactiveEventRepository eventRepository, QueryCacheProperties properties, MeterRegistry meterRegistry) {
+        if (!properties.enabled()) {
+            this.eventRepository = null;
+            this.cache = null;
+            return;
+        }
+        this.eventRepository = eventRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.maximumSize())
+                .expireAfterWrite(properties.ttl())
+                .recordStats()
+                .evictionListener((QueryKey key, Object value, RemovalCause cause) -> keyIndex.remove(key))
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    private QueryCache() {
+        this.eventRepository = null;
+        this.cache = null;
+    }
+
+    /**
+     * Starts invalidating the results on each insertion of new events, once constructed.
+     */
+    @PostConstruct
+    public void start() {
+        if (cache != null) {
+            eventRepository.addInsertListener(this);
+        }
+    }
+
+    /**
+     * @return A cache which never caches, each query being computed.
+     */
+    public static QueryCache disabled() {
+        return new QueryCache();
+    }
+
+    /**
+     * Gets the cached result of a query, computing it on a miss.
+     * The computation is shared by the concurrent identical queries, and is not cancelled when one of them is.
+     * A failed computation is not cached.
+     *
+     * @param key   The query.
+     * @param query The computation of the result of the query.
+     * @return A Mono emitting the result of the query.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> get(QueryKey key, Supplier<Mono<T>> query) {
+        if (cache == null) {
+            return Mono.defer(query);
+        }
+        return Mono.defer(() -> {
+            // The query runs once the future is cached, never under the lock of the cache.
+            CompletableFuture<Object> created = new CompletableFuture<>();
+            CompletableFuture<Object> result = cache.get(key, (k, executor) -> {
+                keyIndex.add(k);
+                return created;
+            });
+            if (result == created) {
+                // Deferred, so that a query throwing instead of returning a Mono fails the future too.
+                Mono.defer(query).subscribe(created::complete, error -> fail(key, created, error),
+                        () -> created.complete(null));
+            }
+            return Mono.fromFuture(result, true).map(value -> (T) value);
+        });
+    }
+
+    // Removes a failed computation before failing it, as Caffeine would remove it without unindexing its key.
+    private void fail(QueryKey key, CompletableFuture<Object> created, Throwable error) {
+        cache.asMap().computeIfPresent(key, (k, current) -> {
+            if (current != created) {
+                return current;
+            }
+            keyIndex.remove(k);
+            return null;
+        });
+        created.completeExceptionally(error);
+    }
+
+    /**
+     * @return The number of results cached, approximately.
+     */
+    long size() {
+        return cache == null ? 0 : cache.synchronous().estimatedSize();
+    }
+
+    @Override
+    public void inserted(InsertedEvents events) {
+        if (cache == null || cache.synchronous().estimatedSize() == 0) {
+            return;
+        }
+        Set<String> eventTypes = new HashSet<>();
+        for (int index = 0; index < events.size(); index++) {
+            eventTypes.add(events.event(index));
+        }
+        for (QueryKey key : keyIndex.candidates(events)) {
+            if (key.matches(events, eventTypes)) {
+                invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        if (cache != null) {
+            for (QueryKey key : cache.asMap().keySet()) {
+                invalidate(key);
+            }
+        }
+    }
+
+    // Removes a result, even one being computed so that a result missing new events is never kept, and unindexes its
+    // key atomically, so that a concurrent computation of the same query keeps its key indexed.
+    private void invalidate(QueryKey key) {
+        cache.asMap().compute(key, (k, result) -> {
+            keyIndex.remove(k);
+            return null;
+        });
+    }
+
+    public enum QueryKind {
+        COUNT_EVENTS,
+        COUNT_DISTINCT_USERS,
+        ESTIMATE_DISTINCT_USERS
+    }
+
+    /**
+     * Key of a cached query, with its period normalized to the epoch seconds actually queried,
+     * so that periods differing only by fractions of seconds share their result.
+     *
+     * @param kind   The kind of query.
+     * @param from   The start of the period, in epoch seconds, inclusive.
+     * @param to     The end of the period, in epoch seconds, inclusive.
+     * @param event  The event type, or null for all event types.
+     * @param userId The ID of the user, or null for all users.
+     */
+    public record QueryKey(QueryKind kind, long from, long to, String event, String userId) {
+
+        /**
+         * @return true if one of the events would be counted by the query.
+         */
+        boolean matches(InsertedEvents events, Set<String> eventTypes) {
+            if (from > events.maxEpochSecond() || to < events.minEpochSecond()
+                    || (event != null && !eventTypes.contains(event))) {
+                return false;
+            }
+            for (int index = 0; index < events.size(); index++) {
+                long epochSecond = events.epochSecond(index);
+                if (epochSecond >= from && epochSecond <= to
+                        && (event == null || event.equals(events.event(index)))
+                        && (userId == null || userId.equals(events.userId(index)))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Index of the cached keys by event type, null standing for any, and by bucket of their period.
+     * A key is registered in the buckets of the finest level covering its period with at most
+     * {@value #MAX_BUCKETS_PER_KEY} buckets: hours, days, 30 days, or a single bucket for any longer period.
+     */
+    private static final class KeyIndex {
+        private static final long[] LEVEL_SECONDS = {3_600, 86_400, 30 * 86_400L, Long.MAX_VALUE};
+        private static final int MAX_BUCKETS_PER_KEY = 48;
+
+        private final ConcurrentMap<Bucket, Set<QueryKey>> buckets = new ConcurrentHashMap<>();
+
+        void add(QueryKey key) {
+            int level = level(key);
+            for (long bucket = bucketOf(key.from(), level); bucket <= bucketOf(key.to(), level); bucket++) {
+                buckets.computeIfAbsent(new Bucket(key.event(), level, bucket), b -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+
+        void remove(QueryKey key) {
+            int level = level(key);
+            for (long bucket = bucketOf(key.from(), level); bucket <= bucketOf(key.to(), level); bucket++) {
+                buckets.computeIfPresent(new Bucket(key.event(), level, bucket), (b, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+            }
+        }
+
+        /**
+         * @return The keys whose buckets hold one of the events, a superset of the keys matching them.
+         */
+        Set<QueryKey> candidates(InsertedEvents events) {
+            Set<Bucket> hours = new HashSet<>();
+            for (int index = 0; index < events.size(); index++) {
+                hours.add(new Bucket(events.event(index), 0, bucketOf(events.epochSecond(index), 0)));
+            }
+            Set<Bucket> visited = new HashSet<>();
+            Set<QueryKey> candidates = new HashSet<>();
+            for (Bucket hour : hours) {
+                long epochSecond = hour.bucket() * LEVEL_SECONDS[0];
+                for (int level = 0; level < LEVEL_SECONDS.length; level++) {
+                    long bucket = bucketOf(epochSecond, level);
+                    collect(new Bucket(hour.event(), level, bucket), visited, candidates);
+                    collect(new Bucket(null, level, bucket), visited, candidates);
+                }
+            }
+            return candidates;
+        }
+
+        private void collect(Bucket bucket, Set<Bucket> visited, Set<QueryKey> candidates) {
+            if (visited.add(bucket)) {
+                Set<QueryKey> keys = buckets.get(bucket);
+                if (keys != null) {
+                    candidates.addAll(keys);
+                }
+            }
+        }
+
+        private static int level(QueryKey key) {
+            for (int level = 0; level < LEVEL_SECONDS.length - 1; level++) {
+                if (bucketOf(key.to(), level) - bucketOf(key.from(), level) < MAX_BUCKETS_PER_KEY) {
+                    return level;
+                }
+            }
+            return LEVEL_SECONDS.length - 1;
+        }
+
+        private static long bucketOf(long epochSecond, int level) {
+            return level == LEVEL_SECONDS.length - 1 ? 0 : Math.floorDiv(epochSecond, LEVEL_SECONDS[level]);
+        }
+
+        /**
+         * @param event  The event type of the keys, or null for the keys of all event types.
+         * @param level  The index of the length of the bucket in {@link #LEVEL_SECONDS}.
+         * @param bucket The index of the bucket, epoch seconds divided by its length.
+         */
+        private record Bucket(String event, int level, long bucket) {
+        }
+    }
+}
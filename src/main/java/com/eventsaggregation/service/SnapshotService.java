@@ -0,0 +1,96 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.config.SnapshotProperties;
+import com.eventsaggregation.dto.SnapshotDto;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes and restores the binary snapshot of the repository, tied to the data files it was loaded from.
+ */
+@Service
+public class SnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotService.class);
+    private final ReactiveEventRepository eventRepository;
+    private final SnapshotProperties properties;
+
+    public SnapshotService(ReactiveEventRepository eventRepository, SnapshotProperties properties) {
+        this.eventRepository = eventRepository;
+        this.properties = properties;
+    }
+
+    /**
+     * @return true if the snapshot is restored at startup and written after loading the data files.
+     */
+    public boolean isEnabled() {
+        return properties.enabled();
+    }
+
+    /**
+     * Restores the snapshot in the empty repository, synchronously, if it was written for the given data files.
+     *
+     * @param files The data files to load.
+     * @return true if the repository was restored, false if the snapshot is disabled, missing, stale or corrupt,
+     * the data files having to be loaded.
+     */
+    public boolean restore(List<Path> files) {
+        if (!properties.enabled()) {
+            return false;
+        }
+        Path path = properties.path();
+        long start = System.nanoTime();
+        try {
+            if (eventRepository.restoreSnapshot(path, fingerprint(files))) {
+                logger.info("Restored {} events from snapshot {} in {} ms", eventRepository.size(), path,
+                        (System.nanoTime() - start) / 1_000_000);
+                return true;
+            }
+            logger.info("Snapshot {} is missing or stale, loading the data files", path);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Snapshot {} is unreadable, loading the data files", path, e);
+        }
+        return false;
+    }
+
+    /**
+     * Writes a snapshot of the repository, on a thread allowed to block.
+     *
+     * @param files The data files loaded in the repository.
+     * @return A Mono emitting the description of the snapshot once written.
+     */
+    public Mono<SnapshotDto> write(List<Path> files) {
+        return Mono.fromCallable(() -> {
+            Path path = properties.path();
+            long start = System.nanoTime();
+            long events = eventRepository.writeSnapshot(path, fingerprint(files));
+            SnapshotDto snapshot = new SnapshotDto(path.toString(), events, Files.size(path),
+                    (System.nanoTime() - start) / 1_000_000);
+            logger.info("Wrote {} events to snapshot {}, {} bytes in {} ms", events, path, snapshot.bytes(), snapshot.elapsed_ms());
+            return snapshot;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Computes a fingerprint of data files from their names, sizes and modification times,
+     * so that a snapshot becomes stale once a file is added, removed or modified.
+     */
+    static long fingerprint(List<Path> files) throws IOException {
+        long fingerprint = files.size();
+        for (Path file : files) {
+            fingerprint = fingerprint * 31 + file.getFileName().toString().hashCode();
+            fingerprint = fingerprint * 31 + Files.size(file);
+            fingerprint = fingerprint * 31 + Files.getLastModifiedTime(file).toMillis();
+        }
+        return fingerprint;
+    }
+}
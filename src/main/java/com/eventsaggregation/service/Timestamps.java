@@ -0,0 +1,210 @@
+package com.eventsaggregation.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Conversion of ISO local date times to epoch seconds, as UTC, and back.
+ * <p>
+ * Timestamps in the {@code yyyy-MM-dd'T'HH:mm:ss} format, the format of the data files and of most queries, are
+ * decoded and encoded without allocation. Other ISO local date times, without seconds or with fractions of seconds, fall back
+ * to {@link LocalDateTime#parse}.
+ */
+public final class Timestamps {
+    static final long INVALID = Long.MIN_VALUE;
+    static final int FIXED_LENGTH = 19;
+    // Longest timestamp written by format, with a signed year of 10 digits.
+    static final int MAX_FORMATTED_LENGTH = 26;
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private Timestamps() {
+    }
+
+    /**
+     * @param text An ISO local date time.
+     * @return Its epoch second, fractions of seconds being truncated, so that it is an inclusive upper bound.
+     * @throws java.time.format.DateTimeParseException if the text is not an ISO local date time.
+     */
+    public static long parseEpochSecond(CharSequence text) {
+        long epochSecond = parseFixed(text);
+        return epochSecond != INVALID ? epochSecond : parse(text).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * @param text An ISO local date time.
+     * @return Its epoch second, rounded up when it has a fraction of second, so that it is an inclusive lower bound
+     * of the timestamps stored in whole seconds.
+     * @throws java.time.format.DateTimeParseException if the text is not an ISO local date time.
+     */
+    public static long parseLowerBound(CharSequence text) {
+        long epochSecond = parseFixed(text);
+        return epochSecond != INVALID ? epochSecond : lowerBound(parse(text));
+    }
+
+    /**
+     * @return The epoch second of a timestamp, rounded up when it has a fraction of second.
+     * @see #parseLowerBound(CharSequence)
+     */
+    public static long lowerBound(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) + (timestamp.getNano() == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return The epoch second of a timestamp, fractions of seconds being truncated.
+     * @see #parseEpochSecond(CharSequence)
+     */
+    public static long upperBound(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * @return The epoch second of a valid date and time of the proleptic Gregorian calendar, or {@link #INVALID}.
+     */
+    static long epochSecond(int year, int month, int day, int hour, int minute, int second) {
+        if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+                && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60) {
+            return epochDay(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+        }
+        return INVALID;
+    }
+
+    /**
+     * Writes an epoch second as an ISO local date time, in the {@code yyyy-MM-dd'T'HH:mm:ss} format for years 0 to 9999.
+     *
+     * @param epochSecond The timestamp, in epoch seconds.
+     * @param target      The array receiving the ASCII bytes of the timestamp, with room for at least
+     *                    {@link #MAX_FORMATTED_LENGTH} bytes from the offset.
+     * @param offset      The index of the first byte to write.
+     * @return The index following the last byte written.
+     */
+    static int format(long epochSecond, byte[] target, int offset) {
+        long epochDay = Math.floorDiv(epochSecond, 86_400L);
+        int secondOfDay = (int) Math.floorMod(epochSecond, 86_400L);
+        // Inverse of epochDay, with years starting in March.
+        long dayOfCycle = epochDay + 719_468L;
+        long era = Math.floorDiv(dayOfCycle, 146_097L);
+        int dayOfEra = (int) (dayOfCycle - era * 146_097L);
+        int yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9_999) {
+            String text = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC));
+            for (int index = 0; index < text.length(); index++) {
+                target[offset++] = (byte) text.charAt(index);
+            }
+            return offset;
+        }
+        offset = writeDigits((int) year, 4, target, offset);
+        target[offset++] = '-';
+        offset = writeDigits(month, 2, target, offset);
+        target[offset++] = '-';
+        offset = writeDigits(day, 2, target, offset);
+        target[offset++] = 'T';
+        offset = writeDigits(secondOfDay / 3_600, 2, target, offset);
+        target[offset++] = ':';
+        offset = writeDigits(secondOfDay / 60 % 60, 2, target, offset);
+        target[offset++] = ':';
+        return writeDigits(secondOfDay % 60, 2, target, offset);
+    }
+
+    private static int writeDigits(int value, int length, byte[] target, int offset) {
+        for (int index = offset + length - 1; index >= offset; index--) {
+            target[index] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + length;
+    }
+
+    private static LocalDateTime parse(CharSequence text) {
+        return LocalDateTime.parse(text, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+    }
+
+    private static long parseFixed(CharSequence text) {
+        if (text.length() != FIXED_LENGTH || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return INVALID;
+        }
+        return epochSecond(digits(text, 0, 4), digits(text, 5, 2), digits(text, 8, 2),
+                digits(text, 11, 2), digits(text, 14, 2), digits(text, 17, 2));
+    }
+
+    // Decimal value of a run of digits, negative if a char is not a digit.
+    private static int digits(CharSequence text, int start, int length) {
+        int value = 0;
+        for (int index = start; index < start + length; index++) {
+            int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Reusable view of ASCII bytes of a buffer as chars, so that a parser owned by a single thread decodes the
+     * timestamps of its lines without creating a String per line.
+     */
+    static final class AsciiView implements CharSequence {
+        private ByteBuffer buffer;
+        private int start;
+        private int length;
+
+        /**
+         * @param buffer The buffer holding the bytes, its position and limit are ignored.
+         * @param start  The index of the first byte.
+         * @param end    The index following the last byte.
+         * @return This view, over the bytes until the next call.
+         */
+        AsciiView wrap(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = end - start;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            // Bytes of multibyte UTF-8 sequences map to chars above 0x7F, which no timestamp holds.
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int daysInMonth(int year, int month) {
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return month == 2 && leap ? 29 : DAYS_IN_MONTH[month - 1];
+    }
+
+    // Days since 1970-01-01 of a date of the proleptic Gregorian calendar.
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468L;
+    }
+}
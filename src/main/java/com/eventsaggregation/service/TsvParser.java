@@ -0,0 +1,51 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.repository.ReactiveEventRepository;
+
+import java.nio.ByteBuffer;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parser of TSV lines (user_id, timestamp, event) working directly on bytes, owned by a single thread.
+ * <p>
+ * Fields are located by scanning for tabs and timestamps are decoded by {@link Timestamps} straight from the bytes,
+ * without allocation in the {@code yyyy-MM-dd'T'HH:mm:ss} format. Malformed lines are skipped.
+ */
+public final class TsvParser extends LineEventParser {
+    private final Timestamps.AsciiView timestamp = new Timestamps.AsciiView();
+
+    public TsvParser(ReactiveEventRepository eventRepository, int batchSize) {
+        super(eventRepository, batchSize);
+    }
+
+    @Override
+    protected void parseLine(ByteBuffer buffer, int start, int end) {
+        int firstTab = indexOf(buffer, (byte) '\t', start, end);
+        int secondTab = indexOf(buffer, (byte) '\t', firstTab + 1, end);
+        // Columns after the event type are ignored.
+        int eventEnd = indexOf(buffer, (byte) '\t', secondTab + 1, end);
+        if (firstTab == start || secondTab >= end || eventEnd == secondTab + 1) {
+            skip(buffer, start, end);
+            return;
+        }
+        long epochSecond = parseEpochSecond(buffer, firstTab + 1, secondTab);
+        if (epochSecond == Timestamps.INVALID) {
+            skip(buffer, start, end);
+            return;
+        }
+        accept(buffer, start, end, start, firstTab, epochSecond, secondTab + 1, eventEnd);
+    }
+
+    /**
+     * Parses a timestamp into epoch seconds, as UTC.
+     *
+     * @return The epoch seconds, or {@link Timestamps#INVALID} if the bytes are not an ISO local date time.
+     */
+    long parseEpochSecond(ByteBuffer buffer, int start, int end) {
+        try {
+            return Timestamps.parseEpochSecond(timestamp.wrap(buffer, start, end));
+        } catch (DateTimeParseException e) {
+            return Timestamps.INVALID;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.eventsaggregation.benchmark;
+
+import com.eventsaggregation.model.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deterministic generator of synthetic events for the benchmarks.
+ * <p>
+ * Timestamps are uniform over the time span, event types are uniform, and users follow a Zipf distribution:
+ * the user of rank k is picked with a probability proportional to 1 / k^skew, a skew of 0 being uniform.
+ */
+final class EventGenerator {
+    static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final String[] userIds;
+    private final String[] eventTypes;
+    final int[] users;
+    final long[] epochSeconds;
+    final int[] types;
+
+    /**
+     * @param userCount      The number of distinct users.
+     * @param eventCount     The number of events to generate.
+     * @param spanSeconds    The time span of the events, from {@link #START}.
+     * @param skew           The exponent of the Zipf distribution of users.
+     * @param eventTypeCount The number of distinct event types.
+     * @param seed           The seed of the random generator.
+     */
+    EventGenerator(int userCount, int eventCount, long spanSeconds, double skew, int eventTypeCount, long seed) {
+        userIds = new String[userCount];
+        for (int user = 0; user < userCount; user++) {
+            userIds[user] = "user" + user;
+        }
+        eventTypes = new String[eventTypeCount];
+        for (int type = 0; type < eventTypeCount; type++) {
+            eventTypes[type] = "event" + type;
+        }
+        double[] cumulative = new double[userCount];
+        double total = 0;
+        for (int rank = 0; rank < userCount; rank++) {
+            total += 1 / Math.pow(rank + 1, skew);
+            cumulative[rank] = total;
+        }
+        Random random = new Random(seed);
+        long start = START.toEpochSecond(ZoneOffset.UTC);
+        users = new int[eventCount];
+        epochSeconds = new long[eventCount];
+        types = new int[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            users[i] = Math.min(rank < 0 ? -rank - 1 : rank, userCount - 1);
+            epochSeconds[i] = start + (long) (random.nextDouble() * spanSeconds);
+            types[i] = random.nextInt(eventTypeCount);
+        }
+    }
+
+    int size() {
+        return users.length;
+    }
+
+    String userId(int user) {
+        return userIds[user];
+    }
+
+    String eventType(int type) {
+        return eventTypes[type];
+    }
+
+    Event event(int index) {
+        return new Event(userIds[users[index]], LocalDateTime.ofEpochSecond(epochSeconds[index], 0, ZoneOffset.UTC),
+                eventTypes[types[index]]);
+    }
+
+    Event[] events() {
+        Event[] events = new Event[size()];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = event(i);
+        }
+        return events;
+    }
+
+    /**
+     * @return The events as TSV lines (user_id, timestamp, event).
+     */
+    byte[] tsv() {
+        StringBuilder builder = new StringBuilder(size() * 40);
+        for (int i = 0; i < size(); i++) {
+            builder.append(userIds[users[i]]).append('\t')
+                    .append(LocalDateTime.ofEpochSecond(epochSeconds[i], 0, ZoneOffset.UTC).format(FORMATTER)).append('\t')
+                    .append(eventTypes[types[i]]).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
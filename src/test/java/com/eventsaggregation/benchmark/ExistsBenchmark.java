@@ -0,0 +1,64 @@
+package com.eventsaggregation.benchmark;
+
+import com.eventsaggregation.model.Event;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.service.EventService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of /exists for a heavy user, with the nested map walk used before and the event type bitmask.
+ * The looked up event type is never done by the user, the worst case of the walk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExistsBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int heavyUserEvents;
+
+    private LegacyEventStore legacyStore;
+    private EventService eventService;
+
+    @Setup
+    public void setUp() {
+        legacyStore = new LegacyEventStore();
+        ReactiveEventRepository repository = new ReactiveEventRepository();
+        eventService = new EventService(repository);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < heavyUserEvents; i++) {
+            Event event = new Event("heavy", start.plusSeconds(i), i % 2 == 0 ? "click" : "hover");
+            legacyStore.save(event);
+            repository.save(event).block();
+        }
+        // Registers the event type looked up, for another user.
+        legacyStore.save(new Event("other", start, "swipe"));
+        repository.save(new Event("other", start, "swipe")).block();
+    }
+
+    @Benchmark
+    public Boolean legacyNestedMapWalk() {
+        return legacyStore.existsByUserIdAndEvent("heavy", "swipe").block();
+    }
+
+    @Benchmark
+    public Boolean eventTypeBitmask() {
+        return eventService.eventExists("heavy", "swipe").block().exists();
+    }
+}
@@ -0,0 +1,72 @@
+package com.eventsaggregation.benchmark;
+
+import com.eventsaggregation.model.Event;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.service.TsvParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingestion of synthetic events into an empty repository, event by event with save and from TSV bytes.
+ * Scores are per event, the allocation rate per event is reported by the GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(IngestionBenchmark.EVENTS)
+public class IngestionBenchmark {
+    static final int EVENTS = 100_000;
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    @Param({"86400", "31536000"})
+    public long spanSeconds;
+
+    @Param({"0", "1.1"})
+    public double skew;
+
+    private Event[] events;
+    private ByteBuffer tsv;
+
+    @Setup
+    public void setUp() {
+        EventGenerator generator = new EventGenerator(users, EVENTS, spanSeconds, skew, 8, 42);
+        events = generator.events();
+        tsv = ByteBuffer.wrap(generator.tsv());
+    }
+
+    @Benchmark
+    public long save() {
+        ReactiveEventRepository repository = new ReactiveEventRepository();
+        for (Event event : events) {
+            repository.save(event).block();
+        }
+        return repository.size();
+    }
+
+    @Benchmark
+    public long parseTsv() {
+        ReactiveEventRepository repository = new ReactiveEventRepository();
+        TsvParser parser = new TsvParser(repository, 8192);
+        parser.parse(tsv, 0, tsv.capacity(), true);
+        parser.flush();
+        return repository.size();
+    }
+}
@@ -0,0 +1,31 @@
+package com.eventsaggregation.benchmark;
+
+import com.eventsaggregation.model.Event;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Copy of the nested map layout the repository used before the columnar store, kept as a baseline for benchmarks.
+ */
+class LegacyEventStore {
+    private final ConcurrentMap<String, ConcurrentMap<LocalDateTime, ConcurrentMap<String, Event>>> store = new ConcurrentHashMap<>();
+
+    void save(Event event) {
+        store.computeIfAbsent(event.userId(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(event.timestamp(), k -> new ConcurrentHashMap<>())
+                .put(event.event(), event);
+    }
+
+    Mono<Boolean> existsByUserIdAndEvent(String userId, String event) {
+        return Mono.justOrEmpty(store.get(userId))
+                .flatMap(map -> Flux.fromIterable(map.values())
+                        .flatMap(events -> Mono.just(events.containsKey(event)))
+                        .filter(Boolean::booleanValue)
+                        .next())
+                .defaultIfEmpty(false);
+    }
+}
@@ -0,0 +1,115 @@
+package com.eventsaggregation.benchmark;
+
+import com.eventsaggregation.config.EventStoreProperties;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.repository.store.ColumnarEventStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries of the three endpoints on a repository of synthetic events.
+ * <p>
+ * The selectivity is the fraction of the time span queried, the window being centered in the span. Queries filter
+ * on an event type, and findEvents also on the most active user, so that every query visits the window but only
+ * a part of its events match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"10000"})
+    public int users;
+
+    @Param({"1000000"})
+    public int events;
+
+    @Param({"2592000"})
+    public long spanSeconds;
+
+    @Param({"0", "1.1"})
+    public double skew;
+
+    @Param({"0.001", "0.1", "1"})
+    public double selectivity;
+
+    // 1 runs the queries sequentially on the calling thread, 0 scans large periods on every core.
+    @Param({"1", "0"})
+    public int queryParallelism;
+
+    // true compacts every segment before measuring, "-p compacted=false,true" compares hot and compacted segments.
+    @Param({"false"})
+    public boolean compacted;
+
+    // Where the compacted segments are kept.
+    @Param({"HEAP"})
+    public EventStoreProperties.Storage storage;
+
+    private ReactiveEventRepository repository;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private String userId;
+    private String eventType;
+
+    @Setup
+    public void setUp() {
+        EventGenerator generator = new EventGenerator(users, events, spanSeconds, skew, 8, 42);
+        repository = new ReactiveEventRepository(new EventStoreProperties(ColumnarEventStore.DEFAULT_SEGMENT_DURATION,
+                0.02, false, 8, queryParallelism, 100_000, Duration.ZERO, Duration.ZERO, Duration.ZERO, storage, null),
+                new SimpleMeterRegistry());
+        for (int i = 0; i < generator.size(); i++) {
+            repository.save(generator.event(i)).block();
+        }
+        if (compacted) {
+            repository.maintain();
+        }
+        long window = Math.max(1, (long) (spanSeconds * selectivity));
+        from = EventGenerator.START.plusSeconds((spanSeconds - window) / 2);
+        to = from.plusSeconds(window - 1);
+        userId = generator.userId(0);
+        eventType = generator.eventType(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Benchmark
+    public Long findEvents() {
+        return repository.findEvents(from, to, eventType, userId).count().block();
+    }
+
+    @Benchmark
+    public Long findDistinctUsers() {
+        return repository.findDistinctUsers(from, to, eventType).count().block();
+    }
+
+    @Benchmark
+    public Long countEvents() {
+        return repository.countEvents(from, to, eventType, null).block();
+    }
+
+    @Benchmark
+    public Boolean existsByUserIdAndEvent() {
+        return repository.existsByUserIdAndEvent(userId, eventType).block();
+    }
+}
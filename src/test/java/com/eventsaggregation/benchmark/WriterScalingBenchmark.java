@@ -0,0 +1,156 @@
+package com.eventsaggregation.benchmark;
+
+import com.eventsaggregation.repository.store.ColumnStorage;
+import com.eventsaggregation.repository.store.ColumnarEventStore;
+import com.eventsaggregation.repository.store.EventBatch;
+import com.eventsaggregation.repository.store.EventTypeDictionary;
+import com.eventsaggregation.repository.store.UserDictionary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZoneOffset;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches of events inserted by 1, 2, 4 or 8 writers into the same segments of a store, while a thread runs counts
+ * reading the segments being written. Writer scores are per event, so that they scale with the number of writers as
+ * long as writers do not contend, query scores are per count.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriterScalingBenchmark {
+    static final int BATCH = 1000;
+    private static final int USERS = 100_000;
+    private static final int EVENT_TYPES = 8;
+    private static final long SPAN_SECONDS = 86_400;
+    private static final long START = EventGenerator.START.toEpochSecond(ZoneOffset.UTC);
+
+    @Param({"1", "8"})
+    public int stripes;
+
+    private ColumnarEventStore store;
+    private String[] userIds;
+    private String[] eventTypes;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        store = new ColumnarEventStore(ColumnarEventStore.DEFAULT_SEGMENT_DURATION,
+                ColumnarEventStore.DEFAULT_SKETCH_PRECISION, false, null, Long.MAX_VALUE, ColumnStorage.HEAP,
+                stripes);
+        userIds = new String[USERS];
+        for (int user = 0; user < USERS; user++) {
+            userIds[user] = "user" + user;
+        }
+        eventTypes = new String[EVENT_TYPES];
+        for (int type = 0; type < EVENT_TYPES; type++) {
+            eventTypes[type] = "event" + type;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private final SplittableRandom random = new SplittableRandom(Thread.currentThread().threadId());
+        private EventBatch batch;
+
+        @Setup(Level.Iteration)
+        public void setUp(WriterScalingBenchmark benchmark) {
+            batch = benchmark.store.newBatch(BATCH);
+        }
+    }
+
+    @Benchmark
+    @Group("writers1")
+    @GroupThreads(1)
+    @OperationsPerInvocation(BATCH)
+    public int insert1(Writer writer) {
+        return insert(writer);
+    }
+
+    @Benchmark
+    @Group("writers1")
+    @GroupThreads(1)
+    public long count1() {
+        return count();
+    }
+
+    @Benchmark
+    @Group("writers2")
+    @GroupThreads(2)
+    @OperationsPerInvocation(BATCH)
+    public int insert2(Writer writer) {
+        return insert(writer);
+    }
+
+    @Benchmark
+    @Group("writers2")
+    @GroupThreads(1)
+    public long count2() {
+        return count();
+    }
+
+    @Benchmark
+    @Group("writers4")
+    @GroupThreads(4)
+    @OperationsPerInvocation(BATCH)
+    public int insert4(Writer writer) {
+        return insert(writer);
+    }
+
+    @Benchmark
+    @Group("writers4")
+    @GroupThreads(1)
+    public long count4() {
+        return count();
+    }
+
+    @Benchmark
+    @Group("writers8")
+    @GroupThreads(8)
+    @OperationsPerInvocation(BATCH)
+    public int insert8(Writer writer) {
+        return insert(writer);
+    }
+
+    @Benchmark
+    @Group("writers8")
+    @GroupThreads(1)
+    public long count8() {
+        return count();
+    }
+
+    private int insert(Writer writer) {
+        EventBatch batch = writer.batch;
+        batch.clear();
+        // Events of five minutes, as ingested live, every writer writing the same 24 segments.
+        long from = START + writer.random.nextLong(SPAN_SECONDS);
+        for (int index = 0; index < BATCH; index++) {
+            batch.add(userIds[writer.random.nextInt(USERS)], from + writer.random.nextInt(300),
+                    eventTypes[writer.random.nextInt(EVENT_TYPES)]);
+        }
+        return store.insertBatch(batch);
+    }
+
+    // Half of the span, the edge segments being read row by row, the other ones from their rollups.
+    private long count() {
+        return store.count(START + SPAN_SECONDS / 4 + 1800, START + 3 * SPAN_SECONDS / 4 + 1800,
+                EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN);
+    }
+}
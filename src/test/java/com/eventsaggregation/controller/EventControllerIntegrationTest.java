@@ -1,23 +1,35 @@
 package com.eventsaggregation.controller;
 
+import com.eventsaggregation.dto.BatchQueryDto;
 import com.eventsaggregation.dto.CountDistinctUsersDto;
 import com.eventsaggregation.dto.CountEventsDto;
 import com.eventsaggregation.dto.EventExistsDto;
+import com.eventsaggregation.dto.IngestionReportDto;
+import com.eventsaggregation.dto.LiveCountDto;
 import com.eventsaggregation.model.Event;
 import com.eventsaggregation.repository.ReactiveEventRepository;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 @SpringBootTest
 @AutoConfigureWebTestClient
+@AutoConfigureObservability
 class EventControllerIntegrationTest {
 
     @Autowired
@@ -68,6 +80,55 @@ class EventControllerIntegrationTest {
                 .isEqualTo(new CountDistinctUsersDto(1L));
     }
 
+    @Test
+    void countDistinctUsersApproximately() {
+        String from = LocalDateTime.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        String to = LocalDateTime.now().plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/count_distinct_users")
+                        .queryParam("date_from", from)
+                        .queryParam("date_to", to)
+                        .queryParam("precision", "approx")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.count_distinct_users").isEqualTo(1)
+                .jsonPath("$.relative_error").isNumber();
+    }
+
+    @Test
+    void countUsersHavingEveryEvent() {
+        eventRepository.save(new Event("user1", LocalDateTime.now(), "swipe")).block();
+        eventRepository.save(new Event("user2", LocalDateTime.now(), "swipe")).block();
+        String from = LocalDateTime.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        String to = LocalDateTime.now().plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/count_distinct_users")
+                        .queryParam("date_from", from)
+                        .queryParam("date_to", to)
+                        .queryParam("event", "login", "swipe")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(CountDistinctUsersDto.class)
+                .isEqualTo(new CountDistinctUsersDto(1L));
+    }
+
+    @Test
+    void countDistinctUsersRejectsUnknownPrecision() {
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/count_distinct_users")
+                        .queryParam("date_from", "2024-01-01T00:00:00")
+                        .queryParam("date_to", "2024-01-02T00:00:00")
+                        .queryParam("precision", "fuzzy")
+                        .build())
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
     @Test
     void eventExists() {
         webTestClient.get()
@@ -80,4 +141,229 @@ class EventControllerIntegrationTest {
                 .expectBody(EventExistsDto.class)
                 .isEqualTo(new EventExistsDto(true));
     }
+
+    @Test
+    void ready() {
+        webTestClient.get()
+                .uri("/ready")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo("READY");
+    }
+
+    @Test
+    void ingestEvents() {
+        String now = LocalDateTime.now().withNano(0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+        webTestClient.post()
+                .uri("/events")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"user_id\":\"user2\",\"timestamp\":\"" + now + "\",\"event\":\"login\"}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(IngestionReportDto.class)
+                .isEqualTo(new IngestionReportDto(1, 0, 0));
+        webTestClient.post()
+                .uri("/events")
+                .contentType(MediaType.parseMediaType("text/tab-separated-values"))
+                .bodyValue("user2\t" + now + "\tlogin\nuser3\t" + now + "\tlogout\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(IngestionReportDto.class)
+                .isEqualTo(new IngestionReportDto(1, 1, 0));
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/exists")
+                        .queryParam("event", "logout")
+                        .queryParam("user_id", "user3")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(EventExistsDto.class)
+                .isEqualTo(new EventExistsDto(true));
+    }
+
+    @Test
+    void exportEventsAsTsvOrNdjson() {
+        LocalDateTime start = LocalDateTime.parse("2024-03-02T10:00:00");
+        eventRepository.save(new Event("user1", start.plusSeconds(5), "click")).block();
+        eventRepository.save(new Event("say \"hé\"", start.plusSeconds(3), "click")).block();
+        eventRepository.save(new Event("user1", start.plusSeconds(4), "logout")).block();
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/events")
+                        .queryParam("date_from", "2024-03-02T00:00:00")
+                        .queryParam("date_to", "2024-03-03T00:00:00")
+                        .queryParam("event", "click")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.parseMediaType("text/tab-separated-values"))
+                .expectBody(String.class)
+                .isEqualTo("say \"hé\"\t2024-03-02T10:00:03\tclick\nuser1\t2024-03-02T10:00:05\tclick\n");
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/events")
+                        .queryParam("date_from", "2024-03-02T10:00:03.5")
+                        .queryParam("date_to", "2024-03-02T10:00:04")
+                        .build())
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .isEqualTo("{\"user_id\":\"user1\",\"timestamp\":\"2024-03-02T10:00:04\",\"event\":\"logout\"}\n");
+    }
+
+    @Test
+    void exportManyEventsInChunks() {
+        LocalDateTime start = LocalDateTime.parse("2024-03-02T00:00:00");
+        for (int i = 0; i < 5_000; i++) {
+            eventRepository.save(new Event("user" + (i % 10), start.plusSeconds(i), "click")).block();
+        }
+
+        String body = webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/events")
+                        .queryParam("date_from", "2024-03-02T00:00:00")
+                        .queryParam("date_to", "2024-03-03T00:00:00")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        List<String> lines = body.lines().toList();
+        assertThat(body).endsWith("\n");
+        assertThat(lines).hasSize(5_000);
+        assertThat(lines.get(0)).isEqualTo("user0\t2024-03-02T00:00:00\tclick");
+        assertThat(lines.get(4_999)).isEqualTo("user9\t2024-03-02T01:23:19\tclick");
+    }
+
+    @Test
+    void aggregateEventsPerHourAndEventType() {
+        LocalDateTime hour = LocalDateTime.parse("2024-03-02T10:00:00");
+        eventRepository.save(new Event("user1", hour.plusMinutes(5), "click")).block();
+        eventRepository.save(new Event("user2", hour.plusMinutes(10), "click")).block();
+        eventRepository.save(new Event("user1", hour.plusHours(2), "click")).block();
+        eventRepository.save(new Event("user1", hour.plusHours(2), "logout")).block();
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/aggregate")
+                        .queryParam("date_from", "2024-03-02T00:00:00")
+                        .queryParam("date_to", "2024-03-03T00:00:00")
+                        .queryParam("group_by", "event")
+                        .queryParam("distinct_users", "true")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .json("[{\"bucket\":\"2024-03-02T10:00:00\",\"event\":\"click\",\"count\":2,\"distinct_users\":2},"
+                        + "{\"bucket\":\"2024-03-02T12:00:00\",\"event\":\"click\",\"count\":1,\"distinct_users\":1},"
+                        + "{\"bucket\":\"2024-03-02T12:00:00\",\"event\":\"logout\",\"count\":1,\"distinct_users\":1}]", true);
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/aggregate")
+                        .queryParam("date_from", "2024-03-02T00:00:00")
+                        .queryParam("date_to", "2024-03-03T00:00:00")
+                        .queryParam("interval", "day")
+                        .build())
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .isEqualTo("{\"bucket\":\"2024-03-02T00:00:00\",\"count\":4}\n");
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/aggregate")
+                        .queryParam("date_from", "2024-03-02T00:00:00")
+                        .queryParam("date_to", "2024-03-03T00:00:00")
+                        .queryParam("interval", "week")
+                        .build())
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void streamLiveCounts() {
+        eventRepository.save(new Event("user2", LocalDateTime.now(ZoneOffset.UTC), "purchase")).block();
+
+        StepVerifier.create(webTestClient.get()
+                        .uri(uriBuilder -> uriBuilder.path("/live/count")
+                                .queryParam("event", "purchase")
+                                .queryParam("window", "5m")
+                                .build())
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .exchange()
+                        .expectStatus().isOk()
+                        .returnResult(LiveCountDto.class)
+                        .getResponseBody()
+                        .take(1))
+                .assertNext(update -> {
+                    assertThat(update.count()).isEqualTo(1);
+                    assertThat(update.distinct_users()).isEqualTo(1);
+                })
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/live/count").queryParam("window", "30d").build())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void answerBatchOfQueries() {
+        String from = LocalDateTime.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        String to = LocalDateTime.now().plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+        webTestClient.post()
+                .uri("/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(
+                        new BatchQueryDto("count", from, to, "login", null),
+                        new BatchQueryDto("count", from, to, "logout", "user1"),
+                        new BatchQueryDto("count_distinct_users", from, to, null, null),
+                        new BatchQueryDto("exists", null, null, "login", "user1")))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .json("[{\"count\":1},{\"count\":0},{\"count_distinct_users\":1},{\"exists\":true}]");
+
+        webTestClient.post()
+                .uri("/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(new BatchQueryDto("sum", from, to, null, null)))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void exposeMetricsInPrometheusFormat() {
+        String from = LocalDateTime.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        String to = LocalDateTime.now().plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/count")
+                        .queryParam("date_from", from)
+                        .queryParam("date_to", to)
+                        .queryParam("user_id", "user1")
+                        .build())
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.mutate()
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build()
+                .get()
+                .uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(body -> assertThat(body)
+                        .contains("eventsaggregation_store_events 1.0")
+                        .contains("eventsaggregation_repository_seconds_count{method=\"countEvents\"")
+                        .contains("eventsaggregation_query_scanned_count{method=\"countEvents\"")
+                        .contains("http_server_requests_seconds_bucket"));
+    }
 }
@@ -0,0 +1,53 @@
+package com.eventsaggregation.controller;
+
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.service.IngestionService;
+import com.eventsaggregation.service.LoadProgress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestionControllerTest {
+
+    private final ReactiveEventRepository repository = new ReactiveEventRepository();
+    private final LoadProgress loadProgress = new LoadProgress();
+    private final IngestionController controller = new IngestionController(loadProgress, null,
+            new IngestionService(repository));
+
+    @AfterEach
+    void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    void rejectsIngestionWhileRestoringTheSnapshot() {
+        loadProgress.restoring();
+
+        StepVerifier.create(controller.ingestTsv(body()))
+                .expectErrorSatisfies(error -> assertThat(((ResponseStatusException) error).getStatusCode())
+                        .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE))
+                .verify();
+        assertThat(repository.size()).isZero();
+
+        // Once restored, or while the data files are loading, events are ingested.
+        loadProgress.start(1, 100);
+        StepVerifier.create(controller.ingestTsv(body()))
+                .assertNext(report -> assertThat(report.accepted()).isEqualTo(1))
+                .verifyComplete();
+        assertThat(repository.size()).isEqualTo(1);
+    }
+
+    private static Flux<DataBuffer> body() {
+        return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(
+                "user1\t2024-03-01T10:00:00\tclick\n".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.eventsaggregation.controller;
+
+import com.eventsaggregation.config.LoaderProperties;
+import com.eventsaggregation.service.LoadProgress;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoadingQueryFilterTest {
+
+    private LoadProgress loadProgress;
+    private AtomicBoolean forwarded;
+    private WebFilterChain chain;
+
+    @BeforeEach
+    void setUp() {
+        loadProgress = new LoadProgress();
+        loadProgress.start(2, 1_000);
+        forwarded = new AtomicBoolean();
+        chain = exchange -> Mono.fromRunnable(() -> forwarded.set(true));
+    }
+
+    @Test
+    void flagsQueriesWhileLoading() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/count"));
+
+        StepVerifier.create(filter(LoaderProperties.QueriesWhileLoading.FLAG).filter(exchange, chain)).verifyComplete();
+
+        assertThat(forwarded).isTrue();
+        assertThat(exchange.getResponse().getHeaders().getFirst(LoadingQueryFilter.INCOMPLETE_HEADER)).isEqualTo("true");
+    }
+
+    @Test
+    void rejectsQueriesWhileLoading() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/count"));
+
+        StepVerifier.create(filter(LoaderProperties.QueriesWhileLoading.REJECT).filter(exchange, chain)).verifyComplete();
+
+        assertThat(forwarded).isFalse();
+        assertThat(exchange.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    void rejectsBatchesOfQueriesButNotIngestionWhileLoading() {
+        MockServerWebExchange batch = MockServerWebExchange.from(MockServerHttpRequest.post("/batch"));
+        StepVerifier.create(filter(LoaderProperties.QueriesWhileLoading.REJECT).filter(batch, chain)).verifyComplete();
+        assertThat(forwarded).isFalse();
+        assertThat(batch.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+
+        MockServerWebExchange flagged = MockServerWebExchange.from(MockServerHttpRequest.post("/batch"));
+        StepVerifier.create(filter(LoaderProperties.QueriesWhileLoading.FLAG).filter(flagged, chain)).verifyComplete();
+        assertThat(forwarded).isTrue();
+        assertThat(flagged.getResponse().getHeaders().getFirst(LoadingQueryFilter.INCOMPLETE_HEADER)).isEqualTo("true");
+
+        forwarded.set(false);
+        MockServerWebExchange ingestion = MockServerWebExchange.from(MockServerHttpRequest.post("/events"));
+        StepVerifier.create(filter(LoaderProperties.QueriesWhileLoading.REJECT).filter(ingestion, chain)).verifyComplete();
+        assertThat(forwarded).isTrue();
+    }
+
+    @Test
+    void letsReadinessAndLoadedQueriesThrough() {
+        MockServerWebExchange ready = MockServerWebExchange.from(MockServerHttpRequest.get("/ready"));
+        StepVerifier.create(filter(LoaderProperties.QueriesWhileLoading.REJECT).filter(ready, chain)).verifyComplete();
+        assertThat(forwarded).isTrue();
+
+        forwarded.set(false);
+        loadProgress.complete();
+        MockServerWebExchange query = MockServerWebExchange.from(MockServerHttpRequest.get("/count"));
+        StepVerifier.create(filter(LoaderProperties.QueriesWhileLoading.REJECT).filter(query, chain)).verifyComplete();
+        assertThat(forwarded).isTrue();
+        assertThat(query.getResponse().getHeaders().containsKey(LoadingQueryFilter.INCOMPLETE_HEADER)).isFalse();
+    }
+
+    private LoadingQueryFilter filter(LoaderProperties.QueriesWhileLoading mode) {
+        return new LoadingQueryFilter(loadProgress, new LoaderProperties(DataSize.ofMegabytes(64), mode));
+    }
+}
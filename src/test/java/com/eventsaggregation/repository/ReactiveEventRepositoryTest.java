@@ -1,6 +1,7 @@
 package com.eventsaggregation.repository;
 
 import com.eventsaggregation.model.Event;
+import com.eventsaggregation.repository.store.EventTypeDictionary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import reactor.core.publisher.Flux;
@@ -8,6 +9,9 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 class ReactiveEventRepositoryTest {
 
@@ -18,8 +22,8 @@ class ReactiveEventRepositoryTest {
     @BeforeEach
     void setUp() {
         repository = new ReactiveEventRepository();
-        event1 = new Event("user1", LocalDateTime.now(), "login");
-        event2 = new Event("user2", LocalDateTime.now(), "logout");
+        event1 = new Event("user1", LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS), "login");
+        event2 = new Event("user2", LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS), "logout");
         repository.save(event1).block();
         repository.save(event2).block();
     }
@@ -47,8 +51,8 @@ class ReactiveEventRepositoryTest {
 
     @Test
     void existsByUserIdAndEvent() {
-        Event event1 = new Event("user1", LocalDateTime.now(), "login");
-        Event event2 = new Event("user2", LocalDateTime.now(), "logout");
+        Event event1 = new Event("user1", LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS), "login");
+        Event event2 = new Event("user2", LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS), "logout");
         repository.save(event1).block();
         repository.save(event2).block();
 
@@ -58,4 +62,33 @@ class ReactiveEventRepositoryTest {
                 .expectNext(true)
                 .verifyComplete();
     }
+
+    @Test
+    void saveIgnoresDuplicateEvents() {
+        repository.save(new Event("user1", event1.timestamp(), "login")).block();
+
+        StepVerifier.create(repository.findEvents(event1.timestamp(), event1.timestamp(), "login", null))
+                .expectNext(event1)
+                .verifyComplete();
+    }
+
+    @Test
+    void saveSkipsEventsOfTypesBeyondTheMaximum() {
+        // login and logout are stored already.
+        for (int type = 2; type <= EventTypeDictionary.MAX_EVENT_TYPES; type++) {
+            StepVerifier.create(repository.save(new Event("user1", event1.timestamp(), "type" + type))).verifyComplete();
+        }
+
+        assertThat(repository.size()).isEqualTo(EventTypeDictionary.MAX_EVENT_TYPES);
+        assertThat(repository.exists("user1", "type" + (EventTypeDictionary.MAX_EVENT_TYPES - 1))).isTrue();
+        assertThat(repository.exists("user1", "type" + EventTypeDictionary.MAX_EVENT_TYPES)).isFalse();
+    }
+
+    @Test
+    void existsIsFalseForUnknownUserOrEventType() {
+        assertThat(repository.exists("user1", "logout")).isFalse();
+        assertThat(repository.exists("user3", "login")).isFalse();
+        assertThat(repository.exists("user1", "swipe")).isFalse();
+        assertThat(repository.exists("user2", "logout")).isTrue();
+    }
 }
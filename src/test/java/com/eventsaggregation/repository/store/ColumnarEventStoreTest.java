@@ -0,0 +1,432 @@
+package com.eventsaggregation.repository.store;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class ColumnarEventStoreTest {
+
+    private ColumnarEventStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new ColumnarEventStore();
+    }
+
+    @Test
+    void insertRejectsDuplicates() {
+        assertThat(store.insert("user1", 1_000L, "click")).isTrue();
+        assertThat(store.insert("user1", 1_000L, "click")).isFalse();
+        assertThat(store.insert("user1", 1_000L, "hover")).isTrue();
+        assertThat(store.insert("user2", 1_000L, "click")).isTrue();
+
+        assertThat(store.size()).isEqualTo(3);
+    }
+
+    @Test
+    void countFiltersOnTimeRangeTypeAndUser() {
+        store.insert("user1", 1_000L, "click");
+        store.insert("user1", 2_000L, "click");
+        store.insert("user2", 2_000L, "hover");
+        store.insert("user2", 3_000L, "click");
+        byte click = store.eventTypes().codeOf("click");
+        int user2 = store.users().idOf("user2");
+
+        assertThat(store.count(1_000L, 3_000L, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN)).isEqualTo(4);
+        assertThat(store.count(1_001L, 2_999L, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN)).isEqualTo(2);
+        assertThat(store.count(1_000L, 3_000L, click, UserDictionary.UNKNOWN)).isEqualTo(3);
+        assertThat(store.count(1_000L, 3_000L, click, user2)).isEqualTo(1);
+        assertThat(store.distinctUsers(2_000L, 2_000L, EventTypeDictionary.UNKNOWN).getLongCardinality()).isEqualTo(2);
+    }
+
+    @Test
+    void countsMatchAScanAcrossSegments() {
+        int events = 20_000;
+        for (int i = 0; i < events; i++) {
+            store.insert("user" + (i % 1_000), i * 7L, i % 3 == 0 ? "click" : "hover");
+        }
+        byte hover = store.eventTypes().codeOf("hover");
+
+        assertThat(store.size()).isEqualTo(events);
+        assertThat(store.segmentCount()).isGreaterThan(30);
+        for (long[] range : new long[][]{{0, events * 7L}, {3_599, 3_600}, {1_000, 100_000}, {7_200, 10_799}}) {
+            long scanned = 0;
+            RowCursor cursor = store.cursor(range[0], range[1], hover, UserDictionary.UNKNOWN);
+            while (cursor.next()) {
+                assertThat(cursor.epochSecond()).isBetween(range[0], range[1]);
+                scanned++;
+            }
+            long expected = IntStream.range(0, events)
+                    .filter(i -> i % 3 != 0 && i * 7L >= range[0] && i * 7L <= range[1])
+                    .count();
+            assertThat(store.count(range[0], range[1], hover, UserDictionary.UNKNOWN)).isEqualTo(expected);
+            assertThat(scanned).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void userRollupsCountLikeAScanAndIgnoreDuplicates() {
+        ColumnarEventStore rolledUp = new ColumnarEventStore(ColumnarEventStore.DEFAULT_SEGMENT_DURATION,
+                ColumnarEventStore.DEFAULT_SKETCH_PRECISION, true);
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 30_000; i++) {
+                String userId = "user" + (i % 97);
+                String event = i % 5 == 0 ? "click" : "hover";
+                rolledUp.insert(userId, i * 3L, event);
+                store.insert(userId, i * 3L, event);
+            }
+        }
+        int user = rolledUp.users().idOf("user42");
+        byte click = rolledUp.eventTypes().codeOf("click");
+
+        assertThat(rolledUp.size()).isEqualTo(30_000);
+        for (long[] range : new long[][]{{0, 90_000}, {3_600, 7_199}, {1_000, 50_000}, {10, 20}}) {
+            for (byte type : new byte[]{EventTypeDictionary.UNKNOWN, click}) {
+                long expected = store.count(range[0], range[1], type, user);
+                assertThat(rolledUp.count(range[0], range[1], type, user)).isEqualTo(expected);
+                assertThat(rolledUp.count(range[0], range[1], type, UserDictionary.UNKNOWN))
+                        .isEqualTo(store.count(range[0], range[1], type, UserDictionary.UNKNOWN));
+            }
+        }
+    }
+
+    @Test
+    void parallelQueriesMergePartialsLikeSequentialOnes() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ColumnarEventStore parallel = new ColumnarEventStore(Duration.ofMinutes(10),
+                    ColumnarEventStore.DEFAULT_SKETCH_PRECISION, false, pool, 0);
+            for (int i = 0; i < 30_000; i++) {
+                String userId = "user" + (i % 997);
+                String event = i % 5 == 0 ? "click" : "hover";
+                parallel.insert(userId, i * 3L, event);
+                store.insert(userId, i * 3L, event);
+            }
+            int user = store.users().idOf("user42");
+            byte click = store.eventTypes().codeOf("click");
+
+            for (long[] range : new long[][]{{0, 90_000}, {1_000, 50_000}, {10, 20}}) {
+                for (byte type : new byte[]{EventTypeDictionary.UNKNOWN, click}) {
+                    ScanStats sequentialStats = new ScanStats();
+                    ScanStats parallelStats = new ScanStats();
+                    assertThat(parallel.count(range[0], range[1], type, user, parallelStats))
+                            .isEqualTo(store.count(range[0], range[1], type, user, sequentialStats));
+                    assertThat(parallelStats.scanned()).isEqualTo(sequentialStats.scanned());
+                    assertThat(parallelStats.matched()).isEqualTo(sequentialStats.matched());
+                    assertThat(parallel.distinctUsers(range[0], range[1], type))
+                            .isEqualTo(store.distinctUsers(range[0], range[1], type));
+                    assertThat(parallel.estimateDistinctUsers(range[0], range[1], type).estimate())
+                            .isEqualTo(store.estimateDistinctUsers(range[0], range[1], type).estimate());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentWritersAreSeenAsWholeBatches() throws Exception {
+        assertBatchesAreSeenWhole(store);
+        // A single stripe merges its tails while queries capture their views.
+        assertBatchesAreSeenWhole(new ColumnarEventStore(Duration.ofHours(1), 14, false, null, Long.MAX_VALUE,
+                ColumnStorage.HEAP, 1));
+    }
+
+    @Test
+    void rejectsAnInvalidNumberOfStripes() {
+        assertThatThrownBy(() -> new ColumnarEventStore(Duration.ofHours(1), 14, false, null, Long.MAX_VALUE,
+                ColumnStorage.HEAP, 6)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static void assertBatchesAreSeenWhole(ColumnarEventStore store) throws Exception {
+        int writers = 4;
+        int batches = 200;
+        int batchSize = 50;
+        List<Thread> threads = new ArrayList<>();
+        for (int writer = 0; writer < writers; writer++) {
+            int offset = writer;
+            threads.add(Thread.ofPlatform().start(() -> {
+                EventBatch batch = store.newBatch(batchSize);
+                for (int b = 0; b < batches; b++) {
+                    for (int i = 0; i < batchSize; i++) {
+                        // Users are shared by the writers, timestamps span two segments per batch.
+                        batch.add("user" + (i % 13), ((long) b * writers + offset) * batchSize + i * 80L, "click");
+                    }
+                    store.insertBatch(batch);
+                    batch.clear();
+                }
+            }));
+        }
+        List<Long> counts = new ArrayList<>();
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            counts.add(store.count(Long.MIN_VALUE, Long.MAX_VALUE, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(counts).allMatch(count -> count % batchSize == 0);
+        assertThat(store.size()).isEqualTo((long) writers * batches * batchSize);
+        assertThat(store.count(Long.MIN_VALUE, Long.MAX_VALUE, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN))
+                .isEqualTo(store.size());
+        assertThat(store.distinctUsers(Long.MIN_VALUE, Long.MAX_VALUE, EventTypeDictionary.UNKNOWN).getLongCardinality())
+                .isEqualTo(13);
+    }
+
+    @Test
+    void evaluateBatchesLikeSeparateQueries() {
+        for (int i = 0; i < 30_000; i++) {
+            store.insert("user" + (i % 97), i * 3L, i % 5 == 0 ? "click" : i % 5 == 1 ? "scroll" : "hover");
+        }
+        int user = store.users().idOf("user42");
+        byte click = store.eventTypes().codeOf("click");
+        List<StoreQuery> queries = new ArrayList<>();
+        for (long[] range : new long[][]{{0, 90_000}, {3_600, 7_199}, {1_000, 50_000}, {10, 20}, {200_000, 300_000}}) {
+            for (byte type : new byte[]{EventTypeDictionary.UNKNOWN, click}) {
+                queries.add(StoreQuery.count(range[0], range[1], type, UserDictionary.UNKNOWN));
+                queries.add(StoreQuery.count(range[0], range[1], type, user));
+                queries.add(StoreQuery.countDistinctUsers(range[0], range[1], type));
+            }
+        }
+
+        ScanStats stats = new ScanStats();
+        long[] results = store.evaluate(queries, stats);
+
+        for (int index = 0; index < queries.size(); index++) {
+            StoreQuery query = queries.get(index);
+            long expected = query.distinctUsers()
+                    ? store.distinctUsers(query.from(), query.to(), query.type()).getLongCardinality()
+                    : store.count(query.from(), query.to(), query.type(), query.user());
+            assertThat(results[index]).as("query %s", query).isEqualTo(expected);
+        }
+        // Every row of the overlapping segments is read at most once, whatever the number of queries.
+        assertThat(stats.scanned()).isLessThanOrEqualTo(store.size());
+        assertThat(store.evaluate(List.of(), stats)).isEmpty();
+    }
+
+    @Test
+    void histogramCountsLikeAQueryPerBucket() {
+        for (int i = 0; i < 30_000; i++) {
+            store.insert("user" + (i % 97), i * 3L, i % 5 == 0 ? "click" : "hover");
+        }
+        byte click = store.eventTypes().codeOf("click");
+        long from = 1_000;
+        long to = 80_000;
+
+        for (int bucketSeconds : new int[]{60, 3_600, 7_200}) {
+            Histogram histogram = store.histogram(from, to, bucketSeconds, EventTypeDictionary.UNKNOWN, true, true,
+                    new ScanStats());
+            Histogram clicks = store.histogram(from, to, bucketSeconds, click, false, false, new ScanStats());
+
+            assertThat(histogram.buckets()).isEqualTo(to / bucketSeconds - from / bucketSeconds + 1);
+            for (int bucket = 0; bucket < histogram.buckets(); bucket++) {
+                long start = Math.max(from, histogram.bucketStart(bucket));
+                long end = Math.min(to, histogram.bucketStart(bucket) + bucketSeconds - 1);
+                for (byte type = 0; type < store.eventTypes().size(); type++) {
+                    assertThat(histogram.count(bucket, type)).isEqualTo(store.count(start, end, type, UserDictionary.UNKNOWN));
+                    assertThat(histogram.distinctUsers(bucket, type))
+                            .isEqualTo(store.distinctUsers(start, end, type).getLongCardinality());
+                }
+                assertThat(clicks.count(bucket, 0)).isEqualTo(store.count(start, end, click, UserDictionary.UNKNOWN));
+                assertThat(clicks.distinctUsers(bucket, 0)).isEqualTo(-1);
+            }
+        }
+    }
+
+    @Test
+    void usersWithAllTypesIntersectsTheUsersOfEachType() {
+        for (int i = 0; i < 30_000; i++) {
+            String userId = "user" + (i % 1_000);
+            store.insert(userId, i * 3L, i % 7 == 0 ? "click" : "hover");
+            if (i % 3 == 0) {
+                store.insert(userId, i * 3L + 1, "swipe");
+            }
+        }
+        byte click = store.eventTypes().codeOf("click");
+        byte swipe = store.eventTypes().codeOf("swipe");
+
+        for (long[] range : new long[][]{{0, 90_000}, {3_600, 10_799}, {1_000, 50_000}, {10, 20}}) {
+            ScanStats stats = new ScanStats();
+            RoaringBitmap both = store.usersWithAllTypes(range[0], range[1], new byte[]{click, swipe}, stats);
+
+            RoaringBitmap expected = RoaringBitmap.and(store.distinctUsers(range[0], range[1], click),
+                    store.distinctUsers(range[0], range[1], swipe));
+            assertThat(both).isEqualTo(expected);
+            assertThat(stats.scanned()).isLessThanOrEqualTo(store.count(range[0], range[1],
+                    EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN));
+        }
+        // Segments covered by the period are answered from their posting lists, without reading rows.
+        ScanStats covered = new ScanStats();
+        store.distinctUsers(3_600, 10_799, click, covered);
+        assertThat(covered.scanned()).isZero();
+    }
+
+    @Test
+    void estimateDistinctUsersMergesSegmentSketches() {
+        for (int i = 0; i < 50_000; i++) {
+            store.insert("user" + (i % 5_000), i, i % 2 == 0 ? "click" : "hover");
+        }
+        byte click = store.eventTypes().codeOf("click");
+
+        for (long[] range : new long[][]{{0, 50_000}, {100, 20_000}, {3_600, 3_610}}) {
+            long exact = store.distinctUsers(range[0], range[1], click).getLongCardinality();
+            HyperLogLog sketch = store.estimateDistinctUsers(range[0], range[1], click);
+            assertThat((double) sketch.estimate()).isCloseTo(exact, within(exact * 4 * sketch.relativeError() + 0.5));
+        }
+    }
+
+    @Test
+    void dropSegmentsBeforeRemovesWholeExpiredSegments() {
+        for (int i = 0; i < 10_000; i++) {
+            store.insert("user" + (i % 100), i, i < 3_600 ? "login" : "click");
+        }
+        byte login = store.eventTypes().codeOf("login");
+        int user = store.users().idOf("user1");
+        long kept = store.count(3_600, Long.MAX_VALUE, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN);
+
+        // The segment of the horizon is kept whole.
+        assertThat(store.dropSegmentsBefore(3_700)).isEqualTo(3_600);
+
+        assertThat(store.size()).isEqualTo(kept);
+        assertThat(store.segmentCount()).isEqualTo(2);
+        assertThat(store.count(Long.MIN_VALUE, Long.MAX_VALUE, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN))
+                .isEqualTo(kept);
+        assertThat(store.exists(user, login)).isFalse();
+        assertThat(store.exists(user, store.eventTypes().codeOf("click"))).isTrue();
+        assertThat(store.dropSegmentsBefore(3_700)).isZero();
+
+        store.insert("user1", 5_000, "login");
+        assertThat(store.exists(user, login)).isTrue();
+    }
+
+    @Test
+    void dropSegmentsBeforeKeepsTheEventTypesOfTheRemainingEvents() {
+        store.insert("user1", 10, "click");
+        store.insert("user1", 20, "login");
+        store.insert("user2", 30, "click");
+        store.insert("user1", 7_300, "click");
+        int user1 = store.users().idOf("user1");
+        int user2 = store.users().idOf("user2");
+        byte click = store.eventTypes().codeOf("click");
+
+        assertThat(store.dropSegmentsBefore(3_600)).isEqualTo(3);
+
+        assertThat(store.exists(user1, click)).isTrue();
+        assertThat(store.exists(user1, store.eventTypes().codeOf("login"))).isFalse();
+        assertThat(store.exists(user2, click)).isFalse();
+    }
+
+    @Test
+    void compactedSegmentsAnswerLikeHotOnes() {
+        ColumnarEventStore hot = new ColumnarEventStore();
+        for (int i = 0; i < 30_000; i++) {
+            String userId = "user" + (i % 997);
+            String event = i % 5 == 0 ? "click" : "hover";
+            hot.insert(userId, i * 3L, event);
+            store.insert(userId, i * 3L, event);
+        }
+        long hotBytes = store.estimatedBytes();
+
+        assertThat(store.compactSegmentsBefore(7_200)).isEqualTo(2);
+        assertThat(store.compactSegmentsBefore(Long.MAX_VALUE)).isEqualTo(store.segmentCount() - 2);
+        assertThat(store.estimatedBytes()).isLessThan(hotBytes);
+
+        // A late event makes its segment hot again.
+        hot.insert("late", 10, "click");
+        store.insert("late", 10, "click");
+        assertThat(store.insert("user0", 0, "click")).isFalse();
+
+        int user = store.users().idOf("user42");
+        byte click = store.eventTypes().codeOf("click");
+        for (long[] range : new long[][]{{0, 90_000}, {3_600, 7_199}, {1_000, 50_000}, {10, 20}}) {
+            for (byte type : new byte[]{EventTypeDictionary.UNKNOWN, click}) {
+                assertThat(store.count(range[0], range[1], type, user))
+                        .isEqualTo(hot.count(range[0], range[1], type, user));
+                assertThat(store.count(range[0], range[1], type, UserDictionary.UNKNOWN))
+                        .isEqualTo(hot.count(range[0], range[1], type, UserDictionary.UNKNOWN));
+                assertThat(store.distinctUsers(range[0], range[1], type))
+                        .isEqualTo(hot.distinctUsers(range[0], range[1], type));
+            }
+            RowCursor compacted = store.cursor(range[0], range[1], click, UserDictionary.UNKNOWN);
+            RowCursor expected = hot.cursor(range[0], range[1], click, UserDictionary.UNKNOWN);
+            while (expected.next()) {
+                assertThat(compacted.next()).isTrue();
+                assertThat(compacted.epochSecond()).isEqualTo(expected.epochSecond());
+                assertThat(compacted.user()).isEqualTo(expected.user());
+            }
+            assertThat(compacted.next()).isFalse();
+        }
+    }
+
+    @Test
+    void compactedSegmentsMayLeaveTheHeap(@TempDir Path directory) {
+        ColumnarEventStore hot = new ColumnarEventStore();
+        ColumnarEventStore offHeap = new ColumnarEventStore(Duration.ofHours(1), 14, false, null, Long.MAX_VALUE,
+                ColumnStorage.offHeap());
+        ColumnarEventStore mapped = new ColumnarEventStore(Duration.ofHours(1), 14, false, null, Long.MAX_VALUE,
+                ColumnStorage.mapped(directory));
+        for (int i = 0; i < 20_000; i++) {
+            String userId = "user" + (i % 499);
+            String event = i % 3 == 0 ? "click" : "swipe";
+            hot.insert(userId, i * 2L, event);
+            offHeap.insert(userId, i * 2L, event);
+            mapped.insert(userId, i * 2L, event);
+        }
+        long heapBytes = offHeap.estimatedBytes();
+
+        for (ColumnarEventStore store : List.of(offHeap, mapped)) {
+            assertThat(store.compactSegmentsBefore(Long.MAX_VALUE)).isEqualTo(store.segmentCount());
+            assertThat(store.offHeapBytes()).isEqualTo(20_000L * 6);
+            assertThat(store.estimatedBytes()).isLessThan(heapBytes);
+
+            byte click = store.eventTypes().codeOf("click");
+            int user = store.users().idOf("user7");
+            for (long[] range : new long[][]{{0, 40_000}, {3_600, 7_199}, {100, 30_000}}) {
+                assertThat(store.count(range[0], range[1], click, UserDictionary.UNKNOWN))
+                        .isEqualTo(hot.count(range[0], range[1], click, UserDictionary.UNKNOWN));
+                assertThat(store.count(range[0], range[1], EventTypeDictionary.UNKNOWN, user))
+                        .isEqualTo(hot.count(range[0], range[1], EventTypeDictionary.UNKNOWN, user));
+                assertThat(store.distinctUsers(range[0], range[1], click))
+                        .isEqualTo(hot.distinctUsers(range[0], range[1], click));
+            }
+            // A late event makes its segment hot again, on the heap.
+            assertThat(store.insert("user7", 14, "swipe")).isFalse();
+            assertThat(store.insert("user7", 15, "click")).isTrue();
+            assertThat(store.count(0, 40_000, click, user)).isEqualTo(hot.count(0, 40_000, click, user) + 1);
+            assertThat(store.offHeapBytes()).isEqualTo(20_000L * 6);
+            store.mergeTails();
+            assertThat(store.offHeapBytes()).isLessThan(20_000L * 6);
+        }
+        assertThat(offHeap.offHeapBytes()).isEqualTo(mapped.offHeapBytes());
+        // Runs whose columns exceed a buffer stay on the heap.
+        assertThat(ColumnStorage.offHeap().canAllocate(Integer.MAX_VALUE / 6)).isTrue();
+        assertThat(ColumnStorage.offHeap().canAllocate(Integer.MAX_VALUE / 6 + 1)).isFalse();
+        assertThat(ColumnStorage.HEAP.canAllocate(Integer.MAX_VALUE / 6 + 1)).isTrue();
+        assertThatThrownBy(() -> ColumnStorage.mapped(directory).allocate(Integer.MAX_VALUE / 6 + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void reportsItsFootprint() {
+        for (int i = 0; i < 100_000; i++) {
+            store.insert("user" + (i % 1_000), i, i % 2 == 0 ? "click" : "hover");
+        }
+
+        assertThat(store.exists(store.users().idOf("user999"), store.eventTypes().codeOf("hover"))).isTrue();
+        // The tails of the segments no longer written are merged by the maintenance.
+        store.mergeTails();
+        assertThat(store.bytesPerEvent()).isBetween(8.0, 32.0);
+    }
+}
@@ -0,0 +1,90 @@
+package com.eventsaggregation.repository.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EventStoreSnapshotTest {
+
+    private static final long FINGERPRINT = 42L;
+
+    @TempDir
+    private Path folder;
+
+    @Test
+    void restoreRoundTripsTheStore() throws IOException {
+        ColumnarEventStore store = new ColumnarEventStore();
+        for (int i = 0; i < 20_000; i++) {
+            store.insert("user" + (i % 700), i * 11L - 50_000L, i % 3 == 0 ? "click" : "hover");
+        }
+        store.insert("usér", 5L, "swipe");
+        Path path = folder.resolve("store.snapshot");
+
+        assertThat(EventStoreSnapshot.write(store, FINGERPRINT, path)).isEqualTo(store.size());
+        ColumnarEventStore restored = new ColumnarEventStore();
+        assertThat(EventStoreSnapshot.restore(restored, FINGERPRINT, path)).isTrue();
+
+        assertThat(restored.size()).isEqualTo(store.size());
+        assertThat(restored.segmentCount()).isEqualTo(store.segmentCount());
+        assertThat(rows(restored)).isEqualTo(rows(store));
+        byte swipe = restored.eventTypes().codeOf("swipe");
+        assertThat(restored.exists(restored.users().idOf("usér"), swipe)).isTrue();
+        assertThat(restored.exists(restored.users().idOf("user1"), swipe)).isFalse();
+        assertThat(restored.estimateDistinctUsers(-50_000L, 200_000L, EventTypeDictionary.UNKNOWN).estimate())
+                .isEqualTo(store.estimateDistinctUsers(-50_000L, 200_000L, EventTypeDictionary.UNKNOWN).estimate());
+        assertThat(restored.insert("user1", -50_000L + 11L, "hover")).isFalse();
+    }
+
+    @Test
+    void staleSnapshotIsNotRestored() throws IOException {
+        ColumnarEventStore store = new ColumnarEventStore();
+        store.insert("user1", 1_000L, "click");
+        Path path = folder.resolve("store.snapshot");
+        EventStoreSnapshot.write(store, FINGERPRINT, path);
+
+        ColumnarEventStore restored = new ColumnarEventStore();
+        assertThat(EventStoreSnapshot.restore(restored, FINGERPRINT + 1, path)).isFalse();
+        assertThat(EventStoreSnapshot.restore(restored, FINGERPRINT, folder.resolve("missing"))).isFalse();
+        assertThat(restored.size()).isZero();
+    }
+
+    @Test
+    void corruptSnapshotLeavesTheStoreEmpty() throws IOException {
+        ColumnarEventStore store = new ColumnarEventStore();
+        for (int i = 0; i < 1_000; i++) {
+            store.insert("user" + i, i, "click");
+        }
+        Path path = folder.resolve("store.snapshot");
+        EventStoreSnapshot.write(store, FINGERPRINT, path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), channel.size() / 2);
+        }
+
+        ColumnarEventStore restored = new ColumnarEventStore();
+        assertThatThrownBy(() -> EventStoreSnapshot.restore(restored, FINGERPRINT, path))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Checksum");
+        assertThat(restored.size()).isZero();
+        assertThat(restored.users().size()).isZero();
+    }
+
+    private static List<String> rows(ColumnarEventStore store) {
+        List<String> rows = new ArrayList<>();
+        RowCursor cursor = store.cursor(Long.MIN_VALUE / 2, Long.MAX_VALUE / 2, EventTypeDictionary.UNKNOWN, UserDictionary.UNKNOWN);
+        while (cursor.next()) {
+            rows.add(store.users().nameOf(cursor.user()) + '\t' + cursor.epochSecond() + '\t'
+                    + store.eventTypes().nameOf(cursor.type()));
+        }
+        return rows;
+    }
+}
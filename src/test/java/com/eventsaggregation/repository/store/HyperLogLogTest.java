@@ -0,0 +1,47 @@
+package com.eventsaggregation.repository.store;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HyperLogLogTest {
+
+    @Test
+    void precisionForRelativeError() {
+        assertThat(HyperLogLog.precisionFor(0.02)).isEqualTo(12);
+        assertThat(HyperLogLog.precisionFor(0.01)).isEqualTo(14);
+        assertThat(new HyperLogLog(14).relativeError()).isLessThanOrEqualTo(0.01);
+    }
+
+    @Test
+    void estimatesSmallAndLargeCardinalities() {
+        for (int cardinality : new int[]{0, 1, 100, 10_000, 1_000_000}) {
+            HyperLogLog sketch = new HyperLogLog(12);
+            for (int user = 0; user < cardinality; user++) {
+                sketch.addUser(user);
+                sketch.addUser(user);
+            }
+            assertThat((double) sketch.estimate()).isCloseTo(cardinality, within(cardinality * 4 * sketch.relativeError() + 0.5));
+        }
+    }
+
+    @Test
+    void mergeIsAUnion() {
+        HyperLogLog left = new HyperLogLog(12);
+        HyperLogLog right = new HyperLogLog(12);
+        for (int user = 0; user < 60_000; user++) {
+            left.addUser(user);
+        }
+        for (int user = 40_000; user < 100_000; user++) {
+            right.addUser(user);
+        }
+        HyperLogLog sparse = new HyperLogLog(12);
+        sparse.addUser(200_000);
+
+        left.merge(right);
+        left.merge(sparse);
+
+        assertThat((double) left.estimate()).isCloseTo(100_001, within(100_001 * 4 * left.relativeError()));
+    }
+}
@@ -0,0 +1,114 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.config.SnapshotProperties;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EventLoaderServiceTest {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    @TempDir
+    private Path folder;
+
+    @Test
+    void loadFilesInNewlineAlignedChunks() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1_000; i++) {
+            content.append("user").append(i % 50).append('\t')
+                    .append(LocalDateTime.of(2024, 2, 28, 23, 0).plusSeconds(i * 17L).format(FORMATTER))
+                    .append('\t').append(i % 3 == 0 ? "click" : "hover").append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        content.append("user0\t2024-02-28T23:00:00\tclick\n");
+        content.append("malformed line\n");
+        content.append("user1\tnot a date\tclick\n");
+        content.append("user2\t2024-03-01T00:00:00.500\tswipe");
+        Path first = Files.writeString(folder.resolve("events-1.tsv"), content);
+        Path second = Files.writeString(folder.resolve("events-2.tsv"), "user1\t2024-03-02T10:00:00\tclick\n");
+        long bytes = Files.size(first) + Files.size(second);
+        ReactiveEventRepository repository = new ReactiveEventRepository();
+        LoadProgress loadProgress = new LoadProgress();
+        EventLoaderService loader = new EventLoaderService(repository, loadProgress,
+                new SnapshotService(repository, new SnapshotProperties(false, null)), 100);
+
+        StepVerifier.create(loader.loadFiles(List.of(first, second)))
+                .assertNext(report -> {
+                    assertThat(report.files()).isEqualTo(2);
+                    assertThat(report.bytes()).isEqualTo(bytes);
+                    assertThat(report.rows()).isEqualTo(1_003);
+                    assertThat(report.inserted()).isEqualTo(1_002);
+                    assertThat(report.skipped()).isEqualTo(2);
+                    assertThat(report.rowsPerSecond()).isPositive();
+                })
+                .verifyComplete();
+
+        assertThat(repository.size()).isEqualTo(1_002);
+        assertThat(loadProgress.isReady()).isTrue();
+        assertThat(loadProgress.status().files_done()).isEqualTo(2);
+        assertThat(loadProgress.status().rows_loaded()).isEqualTo(1_003);
+        assertThat(repository.exists("user2", "swipe")).isTrue();
+        StepVerifier.create(repository.countEvents(LocalDateTime.of(2024, 2, 28, 23, 0), LocalDateTime.of(2024, 2, 28, 23, 0, 17), null, null))
+                .expectNext(2L)
+                .verifyComplete();
+    }
+
+    @Test
+    void restoreTheSnapshotUnlessStaleOrCorrupt() throws IOException {
+        Path file = Files.writeString(folder.resolve("events.tsv"),
+                "user1\t2024-03-02T10:00:00\tclick\nuser2\t2024-03-02T11:30:00\thover\n");
+        Path snapshot = folder.resolve("events.snapshot");
+        Files.writeString(snapshot, "corrupt");
+        ReactiveEventRepository loaded = new ReactiveEventRepository();
+        LoadProgress loadProgress = new LoadProgress();
+
+        StepVerifier.create(loader(loaded, loadProgress, snapshot).restoreOrLoad(List.of(file))).verifyComplete();
+
+        assertThat(loaded.size()).isEqualTo(2);
+        assertThat(loadProgress.isReady()).isTrue();
+        ReactiveEventRepository restored = new ReactiveEventRepository();
+        LoadProgress restoredProgress = new LoadProgress();
+        StepVerifier.create(loader(restored, restoredProgress, snapshot).restoreOrLoad(List.of(file))).verifyComplete();
+
+        assertThat(restoredProgress.isReady()).isTrue();
+        assertThat(restoredProgress.status().rows_loaded()).isEqualTo(2);
+        StepVerifier.create(restored.findEvents(LocalDateTime.MIN, LocalDateTime.MAX, null, null).collectList())
+                .assertNext(events -> assertThat(events).containsExactlyElementsOf(
+                        loaded.findEvents(LocalDateTime.MIN, LocalDateTime.MAX, null, null).collectList().block()))
+                .verifyComplete();
+
+        Files.writeString(file, "user3\t2024-03-02T12:00:00\tclick\n", StandardOpenOption.APPEND);
+        ReactiveEventRepository reloaded = new ReactiveEventRepository();
+        StepVerifier.create(loader(reloaded, new LoadProgress(), snapshot).restoreOrLoad(List.of(file))).verifyComplete();
+
+        assertThat(reloaded.size()).isEqualTo(3);
+    }
+
+    @Test
+    void rejectChunksTooLargeToMapAsOneBuffer() {
+        ReactiveEventRepository repository = new ReactiveEventRepository();
+        SnapshotService snapshotService = new SnapshotService(repository, new SnapshotProperties(false, null));
+
+        assertThatThrownBy(() -> new EventLoaderService(repository, new LoadProgress(), snapshotService,
+                DataSize.ofGigabytes(2).toBytes()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static EventLoaderService loader(ReactiveEventRepository repository, LoadProgress loadProgress, Path snapshot) {
+        return new EventLoaderService(repository, loadProgress,
+                new SnapshotService(repository, new SnapshotProperties(true, snapshot)), 100);
+    }
+}
@@ -0,0 +1,97 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.dto.IngestionReportDto;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.repository.store.EventTypeDictionary;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestionServiceTest {
+
+    private final ReactiveEventRepository repository = new ReactiveEventRepository();
+    private final IngestionService ingestionService = new IngestionService(repository);
+
+    @Test
+    void ingestTsvSplitAcrossBuffers() {
+        String body = "user1\t2024-03-02T10:00:00\tclick\r\n"
+                + "user2\t2024-03-02T10:00:01\thover\n"
+                + "user1\t2024-03-02T10:00:00\tclick\n"
+                + "not a line\n"
+                + "user3\t2024-03-02T10:00:02\tclick";
+
+        StepVerifier.create(ingestionService.ingest(buffers(body, 3), IngestionService.Format.TSV))
+                .expectNext(new IngestionReportDto(3, 1, 1))
+                .verifyComplete();
+
+        assertThat(repository.size()).isEqualTo(3);
+        assertThat(repository.exists("user3", "click")).isTrue();
+    }
+
+    @Test
+    void ingestNdjsonSplitAcrossBuffers() {
+        String body = "{\"user_id\":\"user1\",\"timestamp\":\"2024-03-02T10:00:00\",\"event\":\"click\"}\n"
+                + "{\"event\":\"hover\",\"extra\":{\"user_id\":\"nested\"},\"user_id\":\"usér2\",\"timestamp\":\"2024-03-02T10:00:01\"}\n"
+                + "{\"user_id\":\"user1\",\"timestamp\":\"2024-03-02T10:00:00\",\"event\":\"click\"}\n"
+                + "{\"user_id\":\"user3\",\"timestamp\":\"yesterday\",\"event\":\"click\"}\n"
+                + "{\"user_id\":\"user3\",\"event\":\"click\"}\n"
+                + "[1, 2]\n";
+
+        StepVerifier.create(ingestionService.ingest(buffers(body, 5), IngestionService.Format.NDJSON))
+                .expectNext(new IngestionReportDto(2, 1, 3))
+                .verifyComplete();
+
+        assertThat(repository.exists("usér2", "hover")).isTrue();
+        assertThat(repository.exists("nested", "hover")).isFalse();
+    }
+
+    @Test
+    void skipLinesOfEventTypesBeyondTheMaximum() {
+        StringBuilder tsv = new StringBuilder();
+        StringBuilder ndjson = new StringBuilder();
+        for (int type = 0; type <= EventTypeDictionary.MAX_EVENT_TYPES; type++) {
+            tsv.append("user1\t2024-03-02T10:00:00\ttype").append(type).append('\n');
+            ndjson.append("{\"user_id\":\"user2\",\"timestamp\":\"2024-03-02T10:00:00\",\"event\":\"type")
+                    .append(type).append("\"}\n");
+        }
+        tsv.append("user1\t2024-03-02T10:00:01\ttype0\n");
+
+        StepVerifier.create(ingestionService.ingest(buffers(tsv.toString(), 64), IngestionService.Format.TSV))
+                .expectNext(new IngestionReportDto(EventTypeDictionary.MAX_EVENT_TYPES + 1, 0, 1))
+                .verifyComplete();
+        StepVerifier.create(ingestionService.ingest(buffers(ndjson.toString(), 64), IngestionService.Format.NDJSON))
+                .expectNext(new IngestionReportDto(EventTypeDictionary.MAX_EVENT_TYPES, 0, 1))
+                .verifyComplete();
+
+        assertThat(repository.exists("user1", "type0")).isTrue();
+        assertThat(repository.exists("user1", "type" + EventTypeDictionary.MAX_EVENT_TYPES)).isFalse();
+    }
+
+    @Test
+    void rejectLinesLongerThanTheLimit() {
+        String body = "user1\t" + "x".repeat(IngestionService.MAX_LINE_BYTES + 1);
+
+        StepVerifier.create(ingestionService.ingest(buffers(body, 1 << 16), IngestionService.Format.TSV))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+    }
+
+    private static Flux<DataBuffer> buffers(String body, int bufferSize) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int start = 0; start < bytes.length; start += bufferSize) {
+            byte[] chunk = new byte[Math.min(bufferSize, bytes.length - start)];
+            System.arraycopy(bytes, start, chunk, 0, chunk.length);
+            buffers.add(DefaultDataBufferFactory.sharedInstance.wrap(chunk));
+        }
+        return Flux.fromIterable(buffers);
+    }
+}
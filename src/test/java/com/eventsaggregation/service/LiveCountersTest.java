@@ -0,0 +1,227 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.dto.LiveCountDto;
+import com.eventsaggregation.model.Event;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LiveCountersTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.parse("2024-03-02T12:00:00");
+
+    private final ReactiveEventRepository repository = new ReactiveEventRepository();
+    private final AtomicLong clock = new AtomicLong(NOW.toEpochSecond(ZoneOffset.UTC));
+    private final LiveCounters liveCounters = new LiveCounters(repository, Duration.ZERO, 14, clock::get);
+
+    @BeforeEach
+    void setUp() {
+        liveCounters.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        liveCounters.close();
+        repository.close();
+    }
+
+    @Test
+    void seedsFromTheStoreThenCountsNewEvents() throws InterruptedException {
+        save("user1", NOW.minusSeconds(30), "click");
+        save("user2", NOW.minusSeconds(10), "click");
+        // Before the window.
+        save("user3", NOW.minusMinutes(2), "click");
+        BlockingQueue<LiveCountDto> updates = new LinkedBlockingQueue<>();
+        Disposable subscription = liveCounters.subscribe(null, null, Duration.ofMinutes(1)).subscribe(updates::add);
+
+        LiveCountDto seeded = next(updates);
+        assertThat(seeded.count()).isEqualTo(2);
+        assertThat(seeded.distinct_users()).isEqualTo(2);
+        assertThat(seeded.window_start()).isEqualTo(NOW.minusSeconds(59));
+        assertThat(seeded.window_end()).isEqualTo(NOW);
+
+        save("user1", NOW.minusSeconds(5), "hover");
+        LiveCountDto updated = next(updates);
+        assertThat(updated.count()).isEqualTo(3);
+        assertThat(updated.distinct_users()).isEqualTo(2);
+
+        // Duplicates and events out of the window change nothing.
+        save("user1", NOW.minusSeconds(5), "hover");
+        save("user4", NOW.minusMinutes(5), "hover");
+        save("user4", NOW.plusMinutes(5), "hover");
+        liveCounters.publish();
+        assertThat(updates).isEmpty();
+        subscription.dispose();
+    }
+
+    @Test
+    void expiresEventsAsTheWindowSlides() throws InterruptedException {
+        BlockingQueue<LiveCountDto> updates = new LinkedBlockingQueue<>();
+        Disposable subscription = liveCounters.subscribe("click", null, Duration.ofMinutes(1)).subscribe(updates::add);
+        assertThat(next(updates).count()).isZero();
+
+        save("user1", NOW.minusSeconds(30), "click");
+        save("user2", NOW, "click");
+        assertThat(next(updates).count()).isEqualTo(2);
+
+        // Sliding without losing an event is not an update.
+        clock.addAndGet(20);
+        liveCounters.publish();
+        assertThat(updates).isEmpty();
+
+        clock.addAndGet(20);
+        LiveCountDto slid = next(updates);
+        assertThat(slid.count()).isEqualTo(1);
+        assertThat(slid.window_end()).isEqualTo(NOW.plusSeconds(40));
+
+        clock.addAndGet(60);
+        assertThat(next(updates).count()).isZero();
+        subscription.dispose();
+    }
+
+    @Test
+    void countsFutureEventsOnceTheWindowReachesThem() throws InterruptedException {
+        save("user1", NOW.plusSeconds(30), "click");
+        BlockingQueue<LiveCountDto> updates = new LinkedBlockingQueue<>();
+        Disposable subscription = liveCounters.subscribe("click", null, Duration.ofMinutes(1)).subscribe(updates::add);
+        assertThat(next(updates).count()).isZero();
+
+        save("user2", NOW.plusSeconds(50), "click");
+        // More than a window ahead.
+        save("user3", NOW.plusMinutes(2), "click");
+        liveCounters.publish();
+        assertThat(updates).isEmpty();
+
+        clock.addAndGet(30);
+        assertThat(next(updates).count()).isEqualTo(1);
+        clock.addAndGet(20);
+        assertThat(next(updates).count()).isEqualTo(2);
+        clock.addAndGet(70);
+        assertThat(next(updates).count()).isZero();
+        subscription.dispose();
+    }
+
+    @Test
+    void countsAnEventSavedWhileSeedingOnce() throws Exception {
+        ReactiveEventRepository slowRepository = new ReactiveEventRepository();
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch subscribing = new CountDownLatch(1);
+        // Notified before the counters, holds the event between its insertion and its notification to the counters.
+        slowRepository.addInsertListener(events -> {
+            inserted.countDown();
+            try {
+                subscribing.await(5, TimeUnit.SECONDS);
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        LiveCounters slowCounters = new LiveCounters(slowRepository, Duration.ZERO, 14, clock::get);
+        slowCounters.start();
+        Thread writer = Thread.ofPlatform().start(
+                () -> slowRepository.save(new Event("user1", NOW.minusSeconds(10), "click")).block());
+        assertThat(inserted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        subscribing.countDown();
+        BlockingQueue<LiveCountDto> updates = new LinkedBlockingQueue<>();
+        Disposable subscription = slowCounters.subscribe("click", null, Duration.ofMinutes(1)).subscribe(updates::add);
+        writer.join();
+
+        assertThat(next(slowCounters, updates).count()).isEqualTo(1);
+        slowCounters.publish();
+        assertThat(updates).isEmpty();
+        subscription.dispose();
+        slowCounters.close();
+    }
+
+    @Test
+    void countsUsersOfTheSameHashCodeApart() throws InterruptedException {
+        assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+        save("Aa", NOW.minusSeconds(30), "click");
+        BlockingQueue<LiveCountDto> updates = new LinkedBlockingQueue<>();
+        Disposable subscription = liveCounters.subscribe(null, null, Duration.ofMinutes(1)).subscribe(updates::add);
+        assertThat(next(updates).distinct_users()).isEqualTo(1);
+
+        save("BB", NOW.minusSeconds(10), "click");
+        assertThat(next(updates).distinct_users()).isEqualTo(2);
+        subscription.dispose();
+    }
+
+    @Test
+    void filtersByEventTypeAndUser() throws InterruptedException {
+        BlockingQueue<LiveCountDto> updates = new LinkedBlockingQueue<>();
+        Disposable subscription = liveCounters.subscribe("click", "user1", Duration.ofHours(1)).subscribe(updates::add);
+        assertThat(next(updates).count()).isZero();
+
+        save("user1", NOW.minusMinutes(1), "click");
+        save("user1", NOW.minusMinutes(1), "hover");
+        save("user2", NOW.minusMinutes(1), "click");
+        LiveCountDto updated = next(updates);
+        assertThat(updated.count()).isEqualTo(1);
+        assertThat(updated.distinct_users()).isEqualTo(1);
+        // A window of an hour has 60 slots of a minute.
+        assertThat(updated.window_start()).isEqualTo(NOW.minusMinutes(59));
+        assertThat(updated.window_end()).isEqualTo(NOW.plusSeconds(59));
+        subscription.dispose();
+    }
+
+    @Test
+    void subscribersOfTheSameFilterShareOneCounter() throws InterruptedException {
+        BlockingQueue<LiveCountDto> first = new LinkedBlockingQueue<>();
+        BlockingQueue<LiveCountDto> second = new LinkedBlockingQueue<>();
+        Disposable firstSubscription = liveCounters.subscribe("click", null, Duration.ofMinutes(1)).subscribe(first::add);
+        Disposable secondSubscription = liveCounters.subscribe("click", null, Duration.ofMinutes(1)).subscribe(second::add);
+        Disposable otherSubscription = liveCounters.subscribe("click", null, Duration.ofMinutes(2)).subscribe(update -> {
+        });
+        assertThat(liveCounters.size()).isEqualTo(2);
+        assertThat(liveCounters.subscribers()).isEqualTo(3);
+        assertThat(next(first).count()).isZero();
+        assertThat(second.poll(5, TimeUnit.SECONDS).count()).isZero();
+
+        save("user1", NOW, "click");
+        assertThat(next(first).count()).isEqualTo(1);
+        assertThat(second.poll(5, TimeUnit.SECONDS).count()).isEqualTo(1);
+
+        firstSubscription.dispose();
+        assertThat(liveCounters.size()).isEqualTo(2);
+        secondSubscription.dispose();
+        otherSubscription.dispose();
+        assertThat(liveCounters.size()).isZero();
+        assertThat(liveCounters.subscribers()).isZero();
+    }
+
+    private void save(String userId, LocalDateTime timestamp, String event) {
+        repository.save(new Event(userId, timestamp, event)).block();
+    }
+
+    private LiveCountDto next(BlockingQueue<LiveCountDto> updates) throws InterruptedException {
+        return next(liveCounters, updates);
+    }
+
+    // Publishes until an update arrives, the counters being seeded asynchronously.
+    private static LiveCountDto next(LiveCounters liveCounters, BlockingQueue<LiveCountDto> updates)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            liveCounters.publish();
+            LiveCountDto update = updates.poll(10, TimeUnit.MILLISECONDS);
+            if (update != null) {
+                return update;
+            }
+        }
+        throw new AssertionError("No update published");
+    }
+}
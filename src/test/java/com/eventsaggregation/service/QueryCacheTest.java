@@ -0,0 +1,153 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.config.QueryCacheProperties;
+import com.eventsaggregation.dto.CountEventsDto;
+import com.eventsaggregation.model.Event;
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import com.eventsaggregation.repository.store.EventBatch;
+import com.eventsaggregation.service.QueryCache.QueryKey;
+import com.eventsaggregation.service.QueryCache.QueryKind;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryCacheTest {
+
+    private static final LocalDateTime MARCH_2 = LocalDateTime.parse("2024-03-02T00:00:00");
+
+    private final ReactiveEventRepository repository = new ReactiveEventRepository();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final QueryCache queryCache = new QueryCache(repository,
+            new QueryCacheProperties(true, 100, Duration.ofMinutes(5)), meterRegistry);
+    private final EventService eventService = new EventService(repository, queryCache);
+
+    @BeforeEach
+    void setUp() {
+        queryCache.start();
+    }
+
+    @Test
+    void concurrentIdenticalMissesShareOneComputation() {
+        AtomicInteger computations = new AtomicInteger();
+        Sinks.One<Long> result = Sinks.one();
+        QueryKey key = countEventsKey(MARCH_2, MARCH_2.plusDays(1), "click", null);
+
+        Mono<Long> first = queryCache.get(key, () -> {
+            computations.incrementAndGet();
+            return result.asMono();
+        });
+        // Fractions of seconds are normalized away, so this is the same query.
+        Mono<Long> second = queryCache.get(
+                countEventsKey(MARCH_2, MARCH_2.plusDays(1).plusNanos(500), "click", null),
+                () -> {
+                    computations.incrementAndGet();
+                    return Mono.just(-1L);
+                });
+
+        StepVerifier.create(Flux.merge(first, second))
+                .then(() -> result.tryEmitValue(7L))
+                .expectNext(7L, 7L)
+                .verifyComplete();
+        assertThat(computations).hasValue(1);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", QueryCache.CACHE_NAME).tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void insertionsOnlyInvalidateTheCountsTheyChange() {
+        saveAll(new Event("user1", MARCH_2.plusHours(1), "click"), new Event("user2", MARCH_2.plusHours(2), "hover"));
+        LocalDateTime to = MARCH_2.plusDays(1).minusSeconds(1);
+        countEvents(MARCH_2, to, "click", null, 1);
+        countEvents(MARCH_2, to, null, "user2", 1);
+        countEvents(MARCH_2.plusDays(1), MARCH_2.plusDays(2), null, null, 0);
+        assertThat(queryCache.size()).isEqualTo(3);
+
+        // Another day, type and user: every count stays cached.
+        repository.save(new Event("user3", MARCH_2.minusDays(1), "scroll")).block();
+        assertThat(queryCache.size()).isEqualTo(3);
+        // Duplicates change nothing.
+        repository.save(new Event("user1", MARCH_2.plusHours(1), "click")).block();
+        assertThat(queryCache.size()).isEqualTo(3);
+
+        repository.save(new Event("user4", MARCH_2.plusHours(3), "click")).block();
+        assertThat(queryCache.size()).isEqualTo(2);
+        countEvents(MARCH_2, to, "click", null, 2);
+
+        saveAll(new Event("user1", MARCH_2.plusHours(1), "click"), new Event("user2", MARCH_2.plusDays(1), "click"));
+        countEvents(MARCH_2, to, null, "user2", 1);
+        countEvents(MARCH_2.plusDays(1), MARCH_2.plusDays(2), null, null, 1);
+
+        repository.deleteALl();
+        assertThat(queryCache.size()).isZero();
+    }
+
+    @Test
+    void failedQueriesAreNotCached() {
+        QueryKey key = countEventsKey(MARCH_2, MARCH_2, null, null);
+
+        StepVerifier.create(queryCache.get(key, () -> Mono.error(new IllegalStateException("failed"))))
+                .verifyError(IllegalStateException.class);
+        StepVerifier.create(queryCache.get(key, () -> Mono.just(3L)))
+                .expectNext(3L)
+                .verifyComplete();
+
+        QueryKey thrown = countEventsKey(MARCH_2, MARCH_2.plusDays(1), null, null);
+        StepVerifier.create(queryCache.<Long>get(thrown, () -> {
+                    throw new IllegalStateException("failed");
+                }))
+                .verifyError(IllegalStateException.class);
+        StepVerifier.create(queryCache.get(thrown, () -> Mono.just(4L)))
+                .expectNext(4L)
+                .verifyComplete();
+    }
+
+    @Test
+    void invalidatesPeriodsOfEveryLength() {
+        LocalDateTime to = MARCH_2.plusSeconds(59);
+        // A minute, a month, a year and ten years, indexed at different levels of buckets.
+        countEvents(MARCH_2, to, "click", null, 0);
+        countEvents(MARCH_2.minusDays(15), to.plusDays(15), "click", null, 0);
+        countEvents(MARCH_2.minusMonths(6), to.plusMonths(6), null, null, 0);
+        countEvents(MARCH_2.minusYears(5), to.plusYears(5), "click", "user1", 0);
+        assertThat(queryCache.size()).isEqualTo(4);
+
+        repository.save(new Event("user2", MARCH_2.plusSeconds(30), "hover")).block();
+        assertThat(queryCache.size()).isEqualTo(3);
+        repository.save(new Event("user1", MARCH_2.plusSeconds(30), "click")).block();
+        assertThat(queryCache.size()).isZero();
+
+        countEvents(MARCH_2, to, "click", null, 1);
+        countEvents(MARCH_2.minusYears(5), to.plusYears(5), "click", "user1", 1);
+    }
+
+    // Normalized as EventService does.
+    private static QueryKey countEventsKey(LocalDateTime from, LocalDateTime to, String event, String userId) {
+        return new QueryKey(QueryKind.COUNT_EVENTS, Timestamps.lowerBound(from), Timestamps.upperBound(to), event,
+                userId);
+    }
+
+    private void saveAll(Event... events) {
+        EventBatch batch = repository.newBatch(events.length);
+        for (Event event : events) {
+            batch.add(event.userId(), event.timestamp().toEpochSecond(ZoneOffset.UTC), event.event());
+        }
+        repository.saveAll(batch);
+    }
+
+    private void countEvents(LocalDateTime from, LocalDateTime to, String event, String userId, long expected) {
+        StepVerifier.create(eventService.countEvents(from, to, event, userId))
+                .expectNext(new CountEventsDto(expected))
+                .verifyComplete();
+    }
+}
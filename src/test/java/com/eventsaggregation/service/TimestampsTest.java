@@ -0,0 +1,59 @@
+package com.eventsaggregation.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimestampsTest {
+
+    @Test
+    void parseEpochSecondMatchesLocalDateTime() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            LocalDateTime timestamp = LocalDateTime.ofEpochSecond(random.nextLong(-30_000_000_000L, 200_000_000_000L), 0, ZoneOffset.UTC);
+            String text = timestamp.format(DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss"));
+
+            assertThat(Timestamps.parseEpochSecond(text)).as(text).isEqualTo(timestamp.toEpochSecond(ZoneOffset.UTC));
+            assertThat(Timestamps.parseLowerBound(text)).as(text).isEqualTo(timestamp.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+    @Test
+    void formatMatchesLocalDateTime() {
+        Random random = new Random(7);
+        byte[] target = new byte[Timestamps.MAX_FORMATTED_LENGTH];
+        for (int i = 0; i < 10_000; i++) {
+            long epochSecond = random.nextLong(-70_000_000_000L, 300_000_000_000L);
+            String expected = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC));
+
+            int length = Timestamps.format(epochSecond, target, 0);
+
+            assertThat(new String(target, 0, length, StandardCharsets.US_ASCII)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void fractionsOfSecondsRoundTheLowerBoundUp() {
+        long epochSecond = LocalDateTime.of(2024, 2, 29, 10, 15, 30).toEpochSecond(ZoneOffset.UTC);
+
+        assertThat(Timestamps.parseEpochSecond("2024-02-29T10:15:30.250")).isEqualTo(epochSecond);
+        assertThat(Timestamps.parseLowerBound("2024-02-29T10:15:30.250")).isEqualTo(epochSecond + 1);
+        assertThat(Timestamps.parseLowerBound("2024-02-29T10:15")).isEqualTo(epochSecond - 30);
+    }
+
+    @Test
+    void rejectsInvalidDates() {
+        assertThatThrownBy(() -> Timestamps.parseEpochSecond("2023-02-29T10:15:30"))
+                .isInstanceOf(DateTimeParseException.class);
+        assertThatThrownBy(() -> Timestamps.parseLowerBound("2024-01-01 10:15:30"))
+                .isInstanceOf(DateTimeParseException.class);
+    }
+}
@@ -0,0 +1,43 @@
+package com.eventsaggregation.service;
+
+import com.eventsaggregation.repository.ReactiveEventRepository;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TsvParserTest {
+
+    private final TsvParser parser = new TsvParser(new ReactiveEventRepository(), 16);
+
+    @Test
+    void parseEpochSecondMatchesLocalDateTime() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            LocalDateTime timestamp = LocalDateTime.ofEpochSecond(random.nextLong(-30_000_000_000L, 200_000_000_000L), 0, ZoneOffset.UTC);
+            String text = timestamp.format(DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss"));
+
+            assertThat(parse(text)).as(text).isEqualTo(timestamp.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+    @Test
+    void parseEpochSecondFallsBackOnOtherFormats() {
+        assertThat(parse("2024-02-29T10:15:30.250")).isEqualTo(LocalDateTime.of(2024, 2, 29, 10, 15, 30).toEpochSecond(ZoneOffset.UTC));
+        assertThat(parse("2024-02-29T10:15")).isEqualTo(LocalDateTime.of(2024, 2, 29, 10, 15).toEpochSecond(ZoneOffset.UTC));
+        assertThat(parse("2023-02-29T10:15:30")).isEqualTo(Timestamps.INVALID);
+        assertThat(parse("2024-13-01T10:15:30")).isEqualTo(Timestamps.INVALID);
+        assertThat(parse("yesterday")).isEqualTo(Timestamps.INVALID);
+    }
+
+    private long parse(String text) {
+        ByteBuffer buffer = ByteBuffer.wrap(("\t" + text + "\t").getBytes(StandardCharsets.UTF_8));
+        return parser.parseEpochSecond(buffer, 1, buffer.capacity() - 1);
+    }
+}